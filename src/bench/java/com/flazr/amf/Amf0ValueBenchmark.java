@@ -0,0 +1,112 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.amf;
+
+import static com.flazr.rtmp.message.AbstractMessage.*;
+
+import com.flazr.rtmp.client.ClientOptions;
+import com.flazr.rtmp.message.Command;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class Amf0ValueBenchmark {
+
+    @Param({"connect", "onMetaData"})
+    private String payload;
+
+    private Object[] values;
+    private ChannelBuffer encoded;
+
+    private static Object[] onMetaData() {
+        final int keyframes = 300; // 10 minutes, one every 2 seconds
+        final Object[] times = new Object[keyframes];
+        final Object[] positions = new Object[keyframes];
+        for(int i = 0; i < keyframes; i++) {
+            times[i] = i * 2.0;
+            positions[i] = 13.0 + i * 250000.0;
+        }
+        return new Object[] {"onMetaData", map(
+            pair("duration", 600.0),
+            pair("width", 640.0),
+            pair("height", 360.0),
+            pair("videodatarate", 800.0),
+            pair("framerate", 25.0),
+            pair("videocodecid", 7.0),
+            pair("audiodatarate", 128.0),
+            pair("audiosamplerate", 44100.0),
+            pair("audiosamplesize", 16.0),
+            pair("stereo", true),
+            pair("audiocodecid", 10.0),
+            pair("filesize", 75000000.0),
+            pair("hasKeyframes", true),
+            pair("keyframes", object(
+                pair("times", times),
+                pair("filepositions", positions)))
+        )};
+    }
+
+    @Setup
+    public void setup() {
+        if(payload.equals("connect")) {
+            final Command connect = Command.connect(
+                    new ClientOptions("localhost", "vod", "sample", null));
+            values = new Object[] {connect.getName(), 1.0, connect.getObject()};
+        } else {
+            values = onMetaData();
+        }
+        encoded = ChannelBuffers.dynamicBuffer();
+        Amf0Value.encode(encoded, values);
+    }
+
+    @Benchmark
+    public ChannelBuffer encode() {
+        final ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+        Amf0Value.encode(out, values);
+        return out;
+    }
+
+    @Benchmark
+    public void decode(final Blackhole blackhole) {
+        final ChannelBuffer in = encoded.duplicate();
+        while(in.readable()) {
+            blackhole.consume(Amf0Value.decode(in));
+        }
+    }
+
+}
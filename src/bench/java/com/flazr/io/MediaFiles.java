@@ -0,0 +1,321 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import static com.flazr.rtmp.message.AbstractMessage.*;
+
+import com.flazr.io.flv.FlvWriter;
+import com.flazr.rtmp.message.Audio;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.rtmp.message.Video;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * writes synthetic but well formed media files for the benchmarks: 25 fps
+ * video with a keyframe every 2 seconds and 44.1 kHz aac audio, interleaved
+ * in time order, sample sizes vary but are repeatable for a given length
+ */
+public class MediaFiles {
+
+    private static final int VIDEO_TIME_SCALE = 25000;
+    private static final int VIDEO_FRAME_DURATION = 1000; // 25 fps
+    private static final int AUDIO_TIME_SCALE = 44100;
+    private static final int AUDIO_FRAME_DURATION = 1024;
+    private static final int KEYFRAME_INTERVAL = 50;
+
+    private static final byte[] AVC_CONFIG = {1, 0x42, (byte) 0xc0, 0x1e, (byte) 0xff, (byte) 0xe1, 0, 0};
+    private static final byte[] AAC_CONFIG = {0x12, 0x10};
+
+    private final List<Frame> frames = new ArrayList<Frame>();
+    private final int seconds;
+
+    private static class Frame {
+        boolean video;
+        boolean keyframe;
+        int index;
+        int time; // milliseconds
+        int size;
+    }
+
+    public MediaFiles(final int seconds) {
+        this.seconds = seconds;
+        final Random random = new Random(seconds);
+        final int videoCount = seconds * VIDEO_TIME_SCALE / VIDEO_FRAME_DURATION;
+        final int audioCount = seconds * AUDIO_TIME_SCALE / AUDIO_FRAME_DURATION;
+        int v = 0;
+        int a = 0;
+        while(v < videoCount || a < audioCount) {
+            final long videoTime = v < videoCount ? (long) v * VIDEO_FRAME_DURATION * 1000 / VIDEO_TIME_SCALE : Long.MAX_VALUE;
+            final long audioTime = a < audioCount ? (long) a * AUDIO_FRAME_DURATION * 1000 / AUDIO_TIME_SCALE : Long.MAX_VALUE;
+            final Frame frame = new Frame();
+            if(videoTime <= audioTime) {
+                frame.video = true;
+                frame.keyframe = v % KEYFRAME_INTERVAL == 0;
+                frame.index = v++;
+                frame.time = (int) videoTime;
+                frame.size = frame.keyframe ? 20000 + random.nextInt(10000) : 1000 + random.nextInt(5000);
+            } else {
+                frame.index = a++;
+                frame.time = (int) audioTime;
+                frame.size = 200 + random.nextInt(200);
+            }
+            frames.add(frame);
+        }
+    }
+
+    private static byte[] nalu(final Frame frame) {
+        final byte[] bytes = new byte[frame.size];
+        ChannelBuffers.wrappedBuffer(bytes).setInt(0, frame.size - 4);
+        bytes[4] = (byte) (frame.keyframe ? 0x65 : 0x41);
+        return bytes;
+    }
+
+    //==========================================================================
+
+    public File writeFlv(final File file) {
+        final FlvWriter writer = new FlvWriter(file.getAbsolutePath());
+        writer.write(new MetadataAmf0("onMetaData", map(
+            pair("duration", (double) seconds),
+            pair("width", 640.0),
+            pair("height", 360.0),
+            pair("videocodecid", 7.0),
+            pair("audiocodecid", 10.0),
+            pair("framerate", 25.0)
+        )));
+        for(final Frame frame : frames) {
+            if(frame.video) {
+                final byte[] prefix = frame.keyframe ? new byte[] {0x17, 1, 0, 0, 0} : new byte[] {0x27, 1, 0, 0, 0};
+                final Video video = new Video(prefix, nalu(frame));
+                video.getHeader().setTime(frame.time);
+                writer.write(video);
+            } else {
+                final Audio audio = new Audio(new byte[] {(byte) 0xaf, 1}, new byte[frame.size]);
+                audio.getHeader().setTime(frame.time);
+                writer.write(audio);
+            }
+        }
+        writer.close();
+        return file;
+    }
+
+    //==========================================================================
+
+    private static ChannelBuffer box(final String type, final ChannelBuffer ... children) {
+        int size = 8;
+        for(final ChannelBuffer child : children) {
+            size += child.readableBytes();
+        }
+        final ChannelBuffer header = ChannelBuffers.buffer(8);
+        header.writeInt(size);
+        header.writeBytes(type.getBytes());
+        final ChannelBuffer[] parts = new ChannelBuffer[children.length + 1];
+        parts[0] = header;
+        System.arraycopy(children, 0, parts, 1, children.length);
+        return ChannelBuffers.wrappedBuffer(parts);
+    }
+
+    private static ChannelBuffer fullBox(final String type, final int ... values) {
+        final ChannelBuffer out = ChannelBuffers.buffer(4 + values.length * 4);
+        out.writeInt(0); // version + flags
+        for(final int value : values) {
+            out.writeInt(value);
+        }
+        return box(type, out);
+    }
+
+    private static ChannelBuffer matrix(final ChannelBuffer out) {
+        final int[] identity = {0x10000, 0, 0, 0, 0x10000, 0, 0, 0, 0x40000000};
+        for(final int value : identity) {
+            out.writeInt(value);
+        }
+        return out;
+    }
+
+    private ChannelBuffer mvhd() {
+        final ChannelBuffer out = ChannelBuffers.buffer(100);
+        out.writeInt(0); // version + flags
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(1000);
+        out.writeInt(seconds * 1000);
+        out.writeInt(0x10000); // rate
+        out.writeShort(0x100); // volume
+        out.writeZero(10);
+        matrix(out);
+        out.writeZero(24);
+        out.writeInt(3); // next track id
+        return box("mvhd", out);
+    }
+
+    private ChannelBuffer tkhd(final int trackId, final boolean video) {
+        final ChannelBuffer out = ChannelBuffers.buffer(84);
+        out.writeInt(0); // version + flags
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(trackId);
+        out.writeInt(0);
+        out.writeInt(seconds * 1000);
+        out.writeZero(8);
+        out.writeShort(0); // layer
+        out.writeShort(0); // alternate group
+        out.writeShort(video ? 0 : 0x100); // volume
+        out.writeShort(0);
+        matrix(out);
+        out.writeInt(video ? 640 << 16 : 0);
+        out.writeInt(video ? 360 << 16 : 0);
+        return box("tkhd", out);
+    }
+
+    private ChannelBuffer mdhd(final int timeScale) {
+        final ChannelBuffer out = ChannelBuffers.buffer(24);
+        out.writeInt(0); // version + flags
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(timeScale);
+        out.writeInt(seconds * timeScale);
+        out.writeShort(0x15c7); // 'eng'
+        out.writeShort(0);
+        return box("mdhd", out);
+    }
+
+    private static ChannelBuffer avc1() {
+        final ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+        out.writeZero(6);
+        out.writeShort(1); // data reference index
+        out.writeZero(16);
+        out.writeShort(640);
+        out.writeShort(360);
+        out.writeInt(0x480000);
+        out.writeInt(0x480000);
+        out.writeInt(0);
+        out.writeShort(1); // frame count
+        out.writeZero(32); // compressor name
+        out.writeShort(0x18); // depth
+        out.writeShort(-1);
+        out.writeInt(8 + AVC_CONFIG.length);
+        out.writeBytes("avcC".getBytes());
+        out.writeBytes(AVC_CONFIG);
+        return box("avc1", out);
+    }
+
+    private static ChannelBuffer mp4a() {
+        final ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+        out.writeZero(6);
+        out.writeShort(1); // data reference index
+        out.writeZero(8);
+        out.writeShort(2); // channels
+        out.writeShort(16); // sample size
+        out.writeZero(4);
+        out.writeInt(AUDIO_TIME_SCALE << 16);
+        final ChannelBuffer esds = ChannelBuffers.dynamicBuffer();
+        esds.writeInt(0); // version + flags
+        esds.writeBytes(new byte[] {3, 25, 0, 1, 0}); // es descriptor
+        esds.writeBytes(new byte[] {4, 17, 0x40, 0x15, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}); // decoder config
+        esds.writeBytes(new byte[] {5, (byte) AAC_CONFIG.length});
+        esds.writeBytes(AAC_CONFIG);
+        esds.writeBytes(new byte[] {6, 1, 2}); // sl config
+        out.writeBytes(box("esds", esds));
+        return box("mp4a", out);
+    }
+
+    private ChannelBuffer trak(final boolean video, final List<Long> offsets) {
+        final List<Frame> track = new ArrayList<Frame>();
+        for(final Frame frame : frames) {
+            if(frame.video == video) {
+                track.add(frame);
+            }
+        }
+        final int count = track.size();
+        final ChannelBuffer stsd = ChannelBuffers.buffer(8);
+        stsd.writeInt(0);
+        stsd.writeInt(1);
+        final ChannelBuffer stsz = ChannelBuffers.buffer(12 + count * 4);
+        stsz.writeInt(0);
+        stsz.writeInt(0); // no constant size
+        stsz.writeInt(count);
+        final ChannelBuffer stco = ChannelBuffers.buffer(8 + count * 4);
+        stco.writeInt(0);
+        stco.writeInt(count);
+        final ChannelBuffer stss = ChannelBuffers.dynamicBuffer();
+        stss.writeInt(0);
+        stss.writeInt(video ? (count + KEYFRAME_INTERVAL - 1) / KEYFRAME_INTERVAL : 0);
+        for(int i = 0; i < count; i++) {
+            final Frame frame = track.get(i);
+            stsz.writeInt(frame.size);
+            stco.writeInt((int) (long) offsets.get(i));
+            if(frame.keyframe) {
+                stss.writeInt(i + 1);
+            }
+        }
+        final ChannelBuffer stbl = box("stbl",
+            box("stsd", stsd, video ? avc1() : mp4a()),
+            fullBox("stts", 1, count, video ? VIDEO_FRAME_DURATION : AUDIO_FRAME_DURATION),
+            fullBox("stsc", 1, 1, 1, 1), // one sample per chunk
+            box("stsz", stsz),
+            box("stco", stco),
+            video ? box("stss", stss) : ChannelBuffers.EMPTY_BUFFER);
+        return box("trak",
+            tkhd(video ? 1 : 2, video),
+            box("mdia",
+                mdhd(video ? VIDEO_TIME_SCALE : AUDIO_TIME_SCALE),
+                box("minf", stbl)));
+    }
+
+    public File writeF4v(final File file) {
+        final ChannelBuffer ftyp = box("ftyp", ChannelBuffers.wrappedBuffer("f4v \0\0\0\0isommp42".getBytes()));
+        final List<Long> videoOffsets = new ArrayList<Long>();
+        final List<Long> audioOffsets = new ArrayList<Long>();
+        long offset = ftyp.readableBytes() + 8;
+        int mdatSize = 8;
+        for(final Frame frame : frames) {
+            (frame.video ? videoOffsets : audioOffsets).add(offset);
+            offset += frame.size;
+            mdatSize += frame.size;
+        }
+        try {
+            final FileChannel out = new FileOutputStream(file).getChannel();
+            try {
+                out.write(ftyp.toByteBuffer());
+                final ChannelBuffer mdatHeader = ChannelBuffers.buffer(8);
+                mdatHeader.writeInt(mdatSize);
+                mdatHeader.writeBytes("mdat".getBytes());
+                out.write(mdatHeader.toByteBuffer());
+                for(final Frame frame : frames) {
+                    out.write(ChannelBuffers.wrappedBuffer(frame.video ? nalu(frame) : new byte[frame.size]).toByteBuffer());
+                }
+                final ChannelBuffer moov = box("moov", mvhd(), trak(true, videoOffsets), trak(false, audioOffsets));
+                out.write(moov.toByteBuffer());
+            } finally {
+                out.close();
+            }
+        } catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+        return file;
+    }
+
+}
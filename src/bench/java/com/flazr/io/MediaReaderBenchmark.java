@@ -0,0 +1,151 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import com.flazr.io.f4v.F4vIndex;
+import com.flazr.io.f4v.F4vReader;
+import com.flazr.io.f4v.MovieInfo;
+import com.flazr.io.flv.FlvIndex;
+import com.flazr.io.flv.FlvReader;
+import com.flazr.rtmp.RtmpConfig;
+import com.flazr.rtmp.RtmpMessage;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * reads files generated by MediaFiles, the files go to a temporary directory
+ * and are deleted after each trial
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class MediaReaderBenchmark {
+
+    @Param({"60", "600"})
+    private int seconds;
+
+    @Param({"false", "true"})
+    private boolean mapped;
+
+    private File flv;
+    private File f4v;
+    private FlvReader flvReader;
+    private FlvReader flvAggregateReader;
+    private F4vReader f4vReader;
+    private long[] seekTimes;
+    private int seekIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        RtmpConfig.SERVER_MAPPED_FILES = mapped;
+        final MediaFiles files = new MediaFiles(seconds);
+        flv = files.writeFlv(File.createTempFile("flazr-bench", ".flv"));
+        f4v = files.writeF4v(File.createTempFile("flazr-bench", ".f4v"));
+        flvReader = new FlvReader(flv.getAbsolutePath());
+        flvAggregateReader = new FlvReader(flv.getAbsolutePath());
+        flvAggregateReader.setAggregateDuration(1000);
+        f4vReader = new F4vReader(f4v.getAbsolutePath());
+        final Random random = new Random(seconds);
+        seekTimes = new long[1024];
+        for(int i = 0; i < seekTimes.length; i++) {
+            seekTimes[i] = 1 + random.nextInt(seconds * 1000 - 1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        flvReader.close();
+        flvAggregateReader.close();
+        f4vReader.close();
+        flv.delete();
+        new File(flv.getPath() + FlvIndex.SIDECAR_SUFFIX).delete();
+        f4v.delete();
+        new File(f4v.getPath() + F4vIndex.SIDECAR_SUFFIX).delete();
+    }
+
+    @Benchmark
+    public RtmpMessage flvNext() {
+        if(!flvReader.hasNext()) {
+            flvReader.seek(0);
+        }
+        return flvReader.next();
+    }
+
+    @Benchmark
+    public RtmpMessage flvNextAggregate() {
+        if(!flvAggregateReader.hasNext()) {
+            flvAggregateReader.seek(0);
+        }
+        return flvAggregateReader.next();
+    }
+
+    @Benchmark
+    public long flvSeek() {
+        return flvReader.seek(seekTimes[seekIndex++ & (seekTimes.length - 1)]);
+    }
+
+    @Benchmark
+    public RtmpMessage f4vNext() {
+        if(!f4vReader.hasNext()) {
+            f4vReader.seek(0);
+        }
+        return f4vReader.next();
+    }
+
+    @Benchmark
+    public long f4vSeek() {
+        return f4vReader.seek(seekTimes[seekIndex++ & (seekTimes.length - 1)]);
+    }
+
+    @Benchmark
+    public MovieInfo movieInfo() {
+        final BufferReader in = BufferReaders.open(f4v);
+        try {
+            return new MovieInfo(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public F4vReader f4vOpen() {
+        final F4vReader reader = new F4vReader(f4v.getAbsolutePath());
+        reader.close();
+        return reader;
+    }
+
+}
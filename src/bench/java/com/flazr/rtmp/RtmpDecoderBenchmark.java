@@ -0,0 +1,96 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp;
+
+import com.flazr.rtmp.message.Audio;
+import com.flazr.rtmp.message.ChunkSize;
+import com.flazr.rtmp.message.Video;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * decodes one second of interleaved audio and video per invocation,
+ * offered in socket sized reads
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class RtmpDecoderBenchmark {
+
+    private static final int READ_SIZE = 8192;
+
+    @Param({"128", "4096", "65536"})
+    private int chunkSize;
+
+    private ChannelBuffer[] reads;
+    private DecoderEmbedder<RtmpMessage> embedder;
+
+    @Setup
+    public void setup() {
+        final RtmpEncoder encoder = new RtmpEncoder();
+        final ChannelBuffer stream = ChannelBuffers.dynamicBuffer();
+        stream.writeBytes(encoder.encode(new ChunkSize(chunkSize)));
+        for(int i = 0; i < 25; i++) {
+            final Video video = new Video(new byte[] {i == 0 ? (byte) 0x17 : 0x27, 1, 0, 0, 0},
+                    new byte[i == 0 ? 25000 : 3000]);
+            video.getHeader().setTime(i * 40);
+            video.getHeader().setStreamId(1);
+            stream.writeBytes(encoder.encode(video));
+            final Audio audio = new Audio(new byte[] {(byte) 0xaf, 1}, new byte[300]);
+            audio.getHeader().setTime(i * 40);
+            audio.getHeader().setStreamId(1);
+            stream.writeBytes(encoder.encode(audio));
+        }
+        reads = new ChannelBuffer[(stream.readableBytes() + READ_SIZE - 1) / READ_SIZE];
+        for(int i = 0; i < reads.length; i++) {
+            reads[i] = stream.readBytes(Math.min(READ_SIZE, stream.readableBytes()));
+        }
+        embedder = new DecoderEmbedder<RtmpMessage>(new RtmpDecoder());
+    }
+
+    @Benchmark
+    public void decode(final Blackhole blackhole) {
+        for(final ChannelBuffer read : reads) {
+            embedder.offer(read.duplicate());
+            RtmpMessage message;
+            while((message = embedder.poll()) != null) {
+                blackhole.consume(message);
+            }
+        }
+    }
+
+}
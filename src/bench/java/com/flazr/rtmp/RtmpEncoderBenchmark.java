@@ -0,0 +1,74 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp;
+
+import com.flazr.rtmp.message.ChunkSize;
+import com.flazr.rtmp.message.Video;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class RtmpEncoderBenchmark {
+
+    @Param({"128", "4096", "65536"})
+    private int chunkSize;
+
+    @Param({"false", "true"})
+    private boolean gathering;
+
+    @Param({"1000", "30000"})
+    private int payloadSize;
+
+    private RtmpEncoder encoder;
+    private Video video;
+    private int time;
+
+    @Setup
+    public void setup() {
+        encoder = new RtmpEncoder(gathering);
+        encoder.encode(new ChunkSize(chunkSize));
+        video = new Video(new byte[] {0x27, 1, 0, 0, 0}, new byte[payloadSize - 5]);
+        video.getHeader().setStreamId(1);
+    }
+
+    @Benchmark
+    public ChannelBuffer encode() {
+        time += 40;
+        video.getHeader().setTime(time);
+        return encoder.encode(video);
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp;
+
+import com.flazr.rtmp.client.ClientOptions;
+import com.flazr.util.Utils;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * "plain" is the simple echo handshake, "digest" the validated one
+ * which includes the diffie-hellman key exchange and rc4 setup
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-bench.properties")
+public class RtmpHandshakeBenchmark {
+
+    @Param({"plain", "digest"})
+    private String type;
+
+    private ClientOptions options;
+    private ChannelBuffer clientPartOne;
+
+    @Setup
+    public void setup() {
+        options = new ClientOptions("localhost", "vod", "sample", null);
+        options.setClientVersionToUse(Utils.fromHex(type.equals("plain") ? "00000000" : "80000302"));
+        final RtmpHandshake client = new RtmpHandshake(options);
+        clientPartOne = ChannelBuffers.wrappedBuffer(client.encodeClient0(), client.encodeClient1());
+    }
+
+    @Benchmark
+    public ChannelBuffer server() {
+        final RtmpHandshake server = new RtmpHandshake();
+        server.decodeClient0And1(clientPartOne.duplicate());
+        return ChannelBuffers.wrappedBuffer(server.encodeServer0(), server.encodeServer1(), server.encodeServer2());
+    }
+
+    @Benchmark
+    public RtmpHandshake roundTrip() {
+        final RtmpHandshake client = new RtmpHandshake(options);
+        final RtmpHandshake server = new RtmpHandshake();
+        server.decodeClient0And1(ChannelBuffers.wrappedBuffer(client.encodeClient0(), client.encodeClient1()));
+        client.decodeServerAll(ChannelBuffers.wrappedBuffer(
+                server.encodeServer0(), server.encodeServer1(), server.encodeServer2()));
+        server.decodeClient2(client.encodeClient2());
+        return server;
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the reference counting shared by the media files, starts with one
+ * reference for whoever created it and closes the file on the last release()
+ */
+public abstract class AbstractMediaFile implements MediaFile {
+
+    protected final File file;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    protected AbstractMediaFile(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * called once, when the last reference is released
+     */
+    protected abstract void close();
+
+    @Override
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public AbstractMediaFile retain() {
+        while(true) {
+            final int count = references.get();
+            if(count == 0) {
+                throw new IllegalStateException("already closed: " + file);
+            }
+            if(references.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        final int count = references.decrementAndGet();
+        if(count == 0) {
+            close();
+        } else if(count < 0) {
+            throw new IllegalStateException("released more often than retained: " + file);
+        }
+    }
+
+}
@@ -0,0 +1,320 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import com.flazr.rtmp.RtmpConfig;
+import com.flazr.util.SpscQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * write behind for a file: buffers are queued by the one thread producing
+ * them and written on a small dedicated pool, up to BATCH_SIZE bytes per
+ * gathering write, so a slow disk only ever holds up this pool
+ *
+ * the queued buffers are written as they are, so the producer must not
+ * change them afterwards, whether to queue at all is up to the producer,
+ * see getQueuedBytes(), the file is forced to disk every fsync interval
+ * milliseconds (0 after every write, -1 never) and always on close
+ * unless the interval is -1
+ */
+public class AsyncFileWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncFileWriter.class);
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            RtmpConfig.SERVER_RECORD_THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "AsyncFileWriter-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    public static final int BATCH_SIZE = 1048576;
+
+    private static final int QUEUE_CAPACITY = 16384;
+
+    private final FileChannel out;
+    private final String name;
+    private final int fsyncInterval;
+    private final SpscQueue<ChannelBuffer> queue = new SpscQueue<ChannelBuffer>(QUEUE_CAPACITY);
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private volatile boolean closing;
+    private volatile boolean offering; // set by the producer around each offer
+    private volatile Exception failure;
+    private volatile Runnable onClose;
+    private volatile Runnable onWrite;
+    private long lastSyncTime; // writer side only
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private volatile long maxWriteNanos;
+    private volatile long maxQueuedBytes;
+    private final AtomicLong syncCount = new AtomicLong();
+
+    private final Runnable task = new Runnable() {
+        @Override public void run() {
+            drain();
+        }
+    };
+
+    public AsyncFileWriter(final FileChannel out, final String name, final int fsyncInterval) {
+        this.out = out;
+        this.name = name;
+        this.fsyncInterval = fsyncInterval;
+        lastSyncTime = System.currentTimeMillis();
+    }
+
+    /**
+     * producer side
+     * @return false if closing, failed or the queue is full
+     */
+    public boolean offer(final ChannelBuffer buffer) {
+        offering = true; // a closing drain leaves finishing to the schedule() below
+        final boolean accepted;
+        try {
+            accepted = enqueue(buffer);
+        } finally {
+            offering = false;
+        }
+        if(accepted || closing) {
+            schedule();
+        }
+        return accepted;
+    }
+
+    private boolean enqueue(final ChannelBuffer buffer) {
+        if(closing || failure != null) {
+            return false;
+        }
+        final int size = buffer.readableBytes();
+        final long queued = queuedBytes.addAndGet(size);
+        if(!queue.offer(buffer)) {
+            queuedBytes.addAndGet(-size);
+            return false;
+        }
+        if(queued > maxQueuedBytes) {
+            maxQueuedBytes = queued;
+        }
+        return true;
+    }
+
+    /**
+     * run on the writer thread after every write, getBytesWritten() then
+     * includes all of it
+     */
+    public void setOnWrite(final Runnable onWrite) {
+        this.onWrite = onWrite;
+    }
+
+    /**
+     * no more offers, what is queued is still written, then the file is
+     * forced, closed and onClose is run on the writer thread, an offer racing
+     * with this is either refused or written
+     */
+    public void close(final Runnable onClose) {
+        this.onClose = onClose;
+        closing = true;
+        schedule();
+    }
+
+    public void close() {
+        close(null);
+    }
+
+    /**
+     * @return false if the file is not closed yet after waiting timeout
+     */
+    public boolean awaitClose(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return closed.await(timeout, unit);
+    }
+
+    /**
+     * runs task on the writer threads, for file work too slow for an i/o thread
+     */
+    public static void execute(final Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    private void schedule() {
+        if(scheduled.compareAndSet(false, true)) {
+            EXECUTOR.execute(task);
+        }
+    }
+
+    private void drain() {
+        try {
+            final List<ByteBuffer> batch = new ArrayList<ByteBuffer>();
+            while(failure == null) {
+                batch.clear();
+                int batchBytes = 0;
+                ChannelBuffer buffer;
+                while(batchBytes < BATCH_SIZE && (buffer = queue.poll()) != null) {
+                    for(final ByteBuffer bb : buffer.toByteBuffers()) {
+                        batch.add(bb);
+                    }
+                    batchBytes += buffer.readableBytes();
+                }
+                if(batchBytes == 0) {
+                    break;
+                }
+                write(batch.toArray(new ByteBuffer[batch.size()]), batchBytes);
+                queuedBytes.addAndGet(-batchBytes);
+                if(onWrite != null) {
+                    onWrite.run();
+                }
+                if(fsyncInterval == 0 || fsyncInterval > 0
+                        && System.currentTimeMillis() - lastSyncTime >= fsyncInterval) {
+                    sync();
+                }
+            }
+        } catch(Exception e) {
+            logger.error("write failed, dropping the rest of {}: {}", name, e.getMessage());
+            failure = e;
+            while(queue.poll() != null);
+            queuedBytes.set(0);
+        }
+        if(closing && !offering && (queue.isEmpty() || failure != null)) {
+            finish(); // still owning scheduled, so no other drain is writing
+            return;
+        }
+        scheduled.set(false);
+        if(closing && !offering || !queue.isEmpty() && failure == null) {
+            schedule(); // offered or closed after the checks above
+        }
+    }
+
+    private void write(final ByteBuffer[] buffers, final int size) throws Exception {
+        final long start = System.nanoTime();
+        long remaining = size;
+        while(remaining > 0) {
+            remaining -= out.write(buffers);
+        }
+        final long nanos = System.nanoTime() - start;
+        bytesWritten.addAndGet(size);
+        writeCount.incrementAndGet();
+        writeNanos.addAndGet(nanos);
+        if(nanos > maxWriteNanos) {
+            maxWriteNanos = nanos;
+        }
+        if(nanos > 1000000000L) {
+            logger.warn("slow disk? {} bytes took {} ms for {}", new Object[] {size, nanos / 1000000, name});
+        }
+    }
+
+    private void sync() throws Exception {
+        out.force(false);
+        lastSyncTime = System.currentTimeMillis();
+        syncCount.incrementAndGet();
+    }
+
+    private void finish() {
+        if(!finished.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if(failure == null && fsyncInterval >= 0) {
+                sync();
+            }
+            out.close();
+            if(onClose != null) {
+                onClose.run();
+            }
+        } catch(Exception e) {
+            logger.error("error closing {}: {}", name, e.getMessage());
+        } finally {
+            closed.countDown();
+        }
+        logger.info("closed: {}", this);
+    }
+
+    //==========================================================================
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * @return average write latency in milliseconds
+     */
+    public double getAverageWriteTime() {
+        final long count = writeCount.get();
+        return count == 0 ? 0 : writeNanos.get() / 1000000.0 / count;
+    }
+
+    public double getMaxWriteTime() {
+        return maxWriteNanos / 1000000.0;
+    }
+
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append('[').append(name);
+        sb.append(" written: ").append(bytesWritten.get());
+        sb.append(" writes: ").append(writeCount.get());
+        sb.append(" avg ms: ").append(String.format("%.2f", getAverageWriteTime()));
+        sb.append(" max ms: ").append(String.format("%.2f", getMaxWriteTime()));
+        sb.append(" queued: ").append(queuedBytes.get());
+        sb.append(" max queued: ").append(maxQueuedBytes);
+        sb.append(" syncs: ").append(syncCount.get());
+        sb.append(']');
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,310 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import com.flazr.rtmp.RtmpConfig;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * process wide cache of fixed size file blocks in direct memory, keyed by
+ * file id and block number, so many viewers of a popular file read one copy
+ * instead of each going to the file system, see 'server.block.cache.size'
+ *
+ * eviction is CLOCK: a block used since the hand last passed gets a second
+ * chance, blocks are pinned while being loaded or copied out of so they are
+ * never reused underneath a reader, if every block is pinned the read simply
+ * bypasses the cache
+ *
+ * reads copy out of the cache, handing out slices would need a release
+ * from whoever ends up holding the message
+ */
+public class BlockCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockCache.class);
+
+    public static final int BLOCK_SIZE = 131072;
+
+    private static final int ARENA_SIZE = 1 << 30;
+
+    private static final byte FREE = 0;
+    private static final byte LOADING = 1;
+    private static final byte READY = 2;
+
+    private static BlockCache instance;
+
+    public static synchronized BlockCache getInstance() {
+        if(instance == null) {
+            instance = new BlockCache(RtmpConfig.SERVER_BLOCK_CACHE_SIZE);
+        }
+        return instance;
+    }
+
+    private final int count;
+    private final ByteBuffer[] blocks;
+    // all guarded by this
+    private final long[] keys;
+    private final int[] lengths;
+    private final int[] pins;
+    private final byte[] states;
+    private final boolean[] referenced;
+    private final Map<Long, Integer> index = new HashMap<Long, Integer>();
+    private int hand;
+
+    private final Map<String, FileVersion> fileIds = new ConcurrentHashMap<String, FileVersion>();
+    private final AtomicInteger nextFileId = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+
+    private static class FileVersion {
+
+        private final long length;
+        private final long lastModified;
+        private final int id;
+
+        public FileVersion(final long length, final long lastModified, final int id) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.id = id;
+        }
+
+    }
+
+    public BlockCache(final long capacity) {
+        count = (int) Math.max(1, capacity / BLOCK_SIZE);
+        blocks = new ByteBuffer[count];
+        final int blocksPerArena = ARENA_SIZE / BLOCK_SIZE;
+        ByteBuffer arena = null;
+        for(int i = 0; i < count; i++) {
+            final int arenaIndex = i % blocksPerArena;
+            if(arenaIndex == 0) {
+                arena = ByteBuffer.allocateDirect(Math.min(count - i, blocksPerArena) * BLOCK_SIZE);
+            }
+            arena.limit(arenaIndex * BLOCK_SIZE + BLOCK_SIZE);
+            arena.position(arenaIndex * BLOCK_SIZE);
+            blocks[i] = arena.slice();
+        }
+        keys = new long[count];
+        lengths = new int[count];
+        pins = new int[count];
+        states = new byte[count];
+        referenced = new boolean[count];
+        logger.info("block cache blocks: {} of size: {}", count, BLOCK_SIZE);
+    }
+
+    /**
+     * @return id for the current content of the file, a file that changed
+     * gets a new id replacing the old one and its old blocks simply age out
+     */
+    public int getFileId(final File file) {
+        final String path = file.getAbsolutePath();
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        final FileVersion current = fileIds.get(path);
+        if(current != null && current.length == length && current.lastModified == lastModified) {
+            return current.id;
+        }
+        synchronized(fileIds) {
+            FileVersion existing = fileIds.get(path);
+            if(existing == null || existing.length != length || existing.lastModified != lastModified) {
+                existing = new FileVersion(length, lastModified, nextFileId.incrementAndGet());
+                fileIds.put(path, existing);
+            }
+            return existing.id;
+        }
+    }
+
+    /**
+     * copies size bytes at position of the file into out, source is the
+     * file itself and is only used positionally to load missing blocks
+     */
+    public void read(final int fileId, final BufferReader source,
+            final long position, final ChannelBuffer out, final int size) {
+        long offset = position;
+        int remaining = size;
+        while(remaining > 0) {
+            final long blockNumber = offset / BLOCK_SIZE;
+            final int blockOffset = (int) (offset % BLOCK_SIZE);
+            final int length = Math.min(remaining, BLOCK_SIZE - blockOffset);
+            final int slot = pin(fileId, blockNumber, source);
+            if(slot == -1) {
+                source.read(offset, out, length);
+            } else {
+                try {
+                    if(blockOffset + length > lengths[slot]) {
+                        throw new RuntimeException("unexpected end of file, id: " + fileId);
+                    }
+                    final ByteBuffer block = blocks[slot].duplicate();
+                    block.limit(blockOffset + length);
+                    block.position(blockOffset);
+                    out.writeBytes(block);
+                } finally {
+                    unpin(slot);
+                }
+            }
+            offset += length;
+            remaining -= length;
+        }
+    }
+
+    /**
+     * @return the slot holding the block, pinned, or -1 to bypass the cache
+     */
+    private int pin(final int fileId, final long blockNumber, final BufferReader source) {
+        final long key = (long) fileId << 32 | blockNumber;
+        final int slot;
+        synchronized(this) {
+            final Integer found = index.get(key);
+            if(found != null) {
+                final int foundSlot = found;
+                pins[foundSlot]++;
+                referenced[foundSlot] = true;
+                while(states[foundSlot] == LOADING) {
+                    try {
+                        wait();
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if(states[foundSlot] != READY) { // load failed or interrupted
+                    pins[foundSlot]--;
+                    bypasses.incrementAndGet();
+                    return -1;
+                }
+                hits.incrementAndGet();
+                return foundSlot;
+            }
+            slot = victim();
+            if(slot == -1) {
+                bypasses.incrementAndGet();
+                return -1;
+            }
+            if(states[slot] == READY) {
+                index.remove(keys[slot]);
+                evictions.incrementAndGet();
+            }
+            keys[slot] = key;
+            states[slot] = LOADING;
+            pins[slot] = 1;
+            referenced[slot] = true;
+            index.put(key, slot);
+            misses.incrementAndGet();
+        }
+        boolean loaded = false;
+        try { // outside the lock, the slot is pinned and others wait for it
+            final long start = blockNumber * BLOCK_SIZE;
+            final int length = (int) Math.min(BLOCK_SIZE, source.size() - start);
+            final ChannelBuffer target = ChannelBuffers.wrappedBuffer(blocks[slot].duplicate());
+            target.clear();
+            source.read(start, target, length);
+            lengths[slot] = length;
+            loaded = true;
+        } finally {
+            synchronized(this) {
+                if(loaded) {
+                    states[slot] = READY;
+                } else {
+                    index.remove(key);
+                    states[slot] = FREE;
+                    pins[slot]--;
+                }
+                notifyAll();
+            }
+        }
+        return slot;
+    }
+
+    private synchronized void unpin(final int slot) {
+        pins[slot]--;
+    }
+
+    /**
+     * CLOCK, two rounds at most since the first clears the referenced bits
+     */
+    private int victim() {
+        for(int i = 0; i < count * 2; i++) {
+            final int slot = hand;
+            hand = hand + 1 == count ? 0 : hand + 1;
+            if(pins[slot] > 0) {
+                continue;
+            }
+            if(states[slot] == FREE) {
+                return slot;
+            }
+            if(referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            return slot;
+        }
+        return -1;
+    }
+
+    public long getCapacity() {
+        return (long) count * BLOCK_SIZE;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getBypasses() {
+        return bypasses.get();
+    }
+
+    public double getHitRate() {
+        final long hitCount = hits.get();
+        final long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("[block cache: ").append(count).append(" x ").append(BLOCK_SIZE);
+        sb.append(" hits: ").append(hits.get());
+        sb.append(" misses: ").append(misses.get());
+        sb.append(" evictions: ").append(evictions.get());
+        sb.append(" bypasses: ").append(bypasses.get());
+        sb.append(']');
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.buffer.ByteBufferBackedChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * direct buffers recycled by size class (powers of two from 512 bytes to 64 KB),
+ * used where the lifetime of a buffer is known: codec output until the socket
+ * write completes and tags until they are written to disk, file reads are not
+ * pooled as the messages sliced from them outlive the read, requests above the largest class get a plain heap buffer,
+ * buffers that are never released are simply garbage collected
+ */
+public class BufferPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(BufferPool.class);
+
+    private static final int MIN_SHIFT = 9;
+    private static final int MAX_SHIFT = 16;
+    public static final int MAX_POOLED_SIZE = 1 << MAX_SHIFT;
+
+    private static final BufferPool INSTANCE = new BufferPool(4 * 1024 * 1024);
+
+    public static BufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    private final SizeClass[] sizeClasses;
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    private volatile boolean leakDetection;
+    private final Map<Buffer, Throwable> outstanding =
+            Collections.synchronizedMap(new IdentityHashMap<Buffer, Throwable>());
+
+    /**
+     * @param retainedBytesPerClass how much idle memory each size class may hold on to
+     */
+    public BufferPool(final int retainedBytesPerClass) {
+        final int classCount = MAX_SHIFT - MIN_SHIFT + 1;
+        sizeClasses = new SizeClass[classCount];
+        for(int i = 0; i < classCount; i++) {
+            sizeClasses[i] = new SizeClass(Math.max(1, retainedBytesPerClass >> (MIN_SHIFT + i)));
+        }
+    }
+
+    private static int sizeClass(final int size) {
+        if(size <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * @return an empty buffer with capacity of exactly size bytes,
+     * to be handed back with release() once nothing reads from it any more
+     */
+    public ChannelBuffer acquire(final int size) {
+        if(size > MAX_POOLED_SIZE) {
+            return ChannelBuffers.buffer(size);
+        }
+        final int sizeClass = sizeClass(size);
+        ByteBuffer memory = sizeClasses[sizeClass].free.poll();
+        if(memory == null) {
+            memory = ByteBuffer.allocateDirect(1 << (MIN_SHIFT + sizeClass));
+            allocated.incrementAndGet();
+        } else {
+            sizeClasses[sizeClass].freeCount.decrementAndGet();
+            reused.incrementAndGet();
+        }
+        final Buffer buffer = new Buffer(this, sizeClass, memory, size);
+        if(leakDetection) {
+            outstanding.put(buffer, new Throwable("acquired here"));
+        }
+        return buffer;
+    }
+
+    /**
+     * returns the buffer to the pool it came from, does nothing for buffers
+     * that were not pooled, e.g. above the largest size class
+     */
+    public static void release(final ChannelBuffer buffer) {
+        if(buffer instanceof Buffer) {
+            final Buffer pooled = (Buffer) buffer;
+            pooled.pool.recycle(pooled);
+        }
+    }
+
+    /**
+     * releases the buffer once the write it was handed to is done, whatever the outcome
+     */
+    public static void releaseOnComplete(final ChannelFuture future, final ChannelBuffer buffer) {
+        if(!(buffer instanceof Buffer)) {
+            return;
+        }
+        future.addListener(new ChannelFutureListener() {
+            @Override public void operationComplete(final ChannelFuture cf) {
+                release(buffer);
+            }
+        });
+    }
+
+    private void recycle(final Buffer buffer) {
+        if(!buffer.released.compareAndSet(false, true)) {
+            throw new IllegalStateException("buffer released twice: " + buffer);
+        }
+        if(leakDetection) {
+            outstanding.remove(buffer);
+        }
+        final SizeClass sizeClass = sizeClasses[buffer.sizeClass];
+        if(sizeClass.freeCount.incrementAndGet() > sizeClass.freeLimit) {
+            sizeClass.freeCount.decrementAndGet();
+            return; // enough idle memory in this class, let it be collected
+        }
+        sizeClass.free.offer(buffer.memory);
+    }
+
+    //==========================================================================
+
+    /**
+     * when enabled, remembers where every buffer still in use was acquired,
+     * meant for tests, see getOutstanding() and reportLeaks()
+     */
+    public void setLeakDetection(final boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        if(!leakDetection) {
+            outstanding.clear();
+        }
+    }
+
+    public boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    public int getOutstanding() {
+        return outstanding.size();
+    }
+
+    /**
+     * logs the acquiring stack trace of every buffer not released yet
+     * @return the number of such buffers
+     */
+    public int reportLeaks() {
+        final List<Throwable> traces;
+        synchronized(outstanding) {
+            traces = new ArrayList<Throwable>(outstanding.values());
+        }
+        for(final Throwable trace : traces) {
+            logger.warn("buffer not released", trace);
+        }
+        return traces.size();
+    }
+
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    public long getReused() {
+        return reused.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[allocated: " + allocated + " reused: " + reused + "]";
+    }
+
+    //==========================================================================
+
+    /**
+     * idle memory of one size class
+     */
+    private static final class SizeClass {
+
+        private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+        private final AtomicInteger freeCount = new AtomicInteger();
+        private final int freeLimit;
+
+        private SizeClass(final int freeLimit) {
+            this.freeLimit = freeLimit;
+        }
+
+    }
+
+    private static final class Buffer extends ByteBufferBackedChannelBuffer {
+
+        private final BufferPool pool;
+        private final int sizeClass;
+        private final ByteBuffer memory;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Buffer(final BufferPool pool, final int sizeClass, final ByteBuffer memory, final int size) {
+            super(window(memory, size));
+            this.pool = pool;
+            this.sizeClass = sizeClass;
+            this.memory = memory;
+            clear();
+        }
+
+        private static ByteBuffer window(final ByteBuffer memory, final int size) {
+            final ByteBuffer window = memory.duplicate();
+            window.clear().limit(size);
+            return window;
+        }
+
+    }
+
+}
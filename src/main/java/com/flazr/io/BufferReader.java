@@ -31,8 +31,25 @@ public interface BufferReader {
 
     ChannelBuffer read(int size);
 
+    /**
+     * reads size bytes into the writable part of out, which lets the caller
+     * pick the buffer e.g. a scratch one reused across reads
+     */
+    void read(ChannelBuffer out, int size);
+
     byte[] readBytes(int size);
 
+    /**
+     * reads at an absolute offset without using or changing position(), so
+     * unlike the other reads this is safe when the reader is shared by threads
+     */
+    ChannelBuffer read(long position, int size);
+
+    /**
+     * positional version of read(out, size), same thread safety as read(position, size)
+     */
+    void read(long position, ChannelBuffer out, int size);
+
     int readInt();
 
     long readUnsignedInt();
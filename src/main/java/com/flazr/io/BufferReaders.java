@@ -0,0 +1,50 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import com.flazr.rtmp.RtmpConfig;
+import java.io.File;
+
+/**
+ * picks the BufferReader implementation media readers use, see
+ * 'server.mapped.files' and 'server.block.cache.size' in flazr.properties,
+ * mapped files already share the page cache so they skip the block cache
+ */
+public class BufferReaders {
+
+    private BufferReaders() {
+        // no instances
+    }
+
+    public static BufferReader open(final String path) {
+        return open(new File(path));
+    }
+
+    public static BufferReader open(final File file) {
+        if(RtmpConfig.SERVER_MAPPED_FILES) {
+            return new MappedBufferReader(file);
+        }
+        if(RtmpConfig.SERVER_BLOCK_CACHE_SIZE > 0) {
+            return new CachedBufferReader(file, BlockCache.getInstance());
+        }
+        return new FileChannelReader(file);
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import java.io.File;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * reads a file through the shared BlockCache, the file itself is only read
+ * to load blocks that are not cached yet
+ */
+public class CachedBufferReader implements BufferReader {
+
+    private final String absolutePath;
+    private final BufferReader in; // positional reads only
+    private final BlockCache cache;
+    private final int fileId;
+    private final ChannelBuffer scratch = ChannelBuffers.buffer(4); // like position, not shared
+    private long position;
+
+    public CachedBufferReader(final File file, final BlockCache cache) {
+        this.cache = cache;
+        absolutePath = file.getAbsolutePath();
+        fileId = cache.getFileId(file);
+        in = new FileChannelReader(file);
+    }
+
+    @Override
+    public long size() {
+        return in.size();
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void position(final long newPosition) {
+        position = newPosition;
+    }
+
+    @Override
+    public ChannelBuffer read(final int size) {
+        final ChannelBuffer out = read(position, size);
+        position += size;
+        return out;
+    }
+
+    @Override
+    public void read(final ChannelBuffer out, final int size) {
+        read(position, out, size);
+        position += size;
+    }
+
+    @Override
+    public byte[] readBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        final ChannelBuffer out = ChannelBuffers.wrappedBuffer(bytes);
+        out.clear();
+        read(out, size);
+        return bytes;
+    }
+
+    @Override
+    public ChannelBuffer read(final long position, final int size) {
+        final ChannelBuffer out = ChannelBuffers.buffer(size);
+        read(position, out, size);
+        return out;
+    }
+
+    @Override
+    public void read(final long position, final ChannelBuffer out, final int size) {
+        if(position < 0 || position + size > in.size()) {
+            throw new RuntimeException("unexpected end of file: " + absolutePath);
+        }
+        cache.read(fileId, in, position, out, size);
+    }
+
+    @Override
+    public int readInt() {
+        scratch.clear();
+        read(scratch, 4);
+        return scratch.getInt(0);
+    }
+
+    @Override
+    public long readUnsignedInt() {
+        return readInt() & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void close() {
+        in.close();
+    }
+
+}
@@ -34,7 +34,7 @@ public class FileChannelReader implements BufferReader {
 
     private final String absolutePath;
     private final FileChannel in;
-    private final long fileSize;
+    private volatile long fileSize;
 
     public FileChannelReader(final String path) {
         this(new File(path));
@@ -56,6 +56,25 @@ public class FileChannelReader implements BufferReader {
         return fileSize;
     }
 
+    /**
+     * for a file still being written, size() stays what it was on open
+     * until moved on by this, see FlvTailReader
+     */
+    public void setSize(final long size) {
+        fileSize = size;
+    }
+
+    /**
+     * @return the size of the file now, unlike size()
+     */
+    public long getFileSize() {
+        try {
+            return in.size();
+        } catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public long position() {
         try {
@@ -79,6 +98,75 @@ public class FileChannelReader implements BufferReader {
         return ChannelBuffers.wrappedBuffer(readBytes(size));
     }
 
+    @Override
+    public void read(final ChannelBuffer out, final int size) {
+        try {
+            int remaining = size;
+            while(remaining > 0) {
+                final int count = out.writeBytes(in, remaining);
+                if(count < 0) {
+                    throw new RuntimeException("unexpected end of file: " + absolutePath);
+                }
+                remaining -= count;
+            }
+        } catch(RuntimeException re) {
+            throw re;
+        } catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public ChannelBuffer read(final long position, final int size) {
+        final ChannelBuffer out = ChannelBuffers.buffer(size);
+        read(in, absolutePath, position, out, size);
+        return out;
+    }
+
+    @Override
+    public void read(final long position, final ChannelBuffer out, final int size) {
+        read(in, absolutePath, position, out, size);
+    }
+
+    /**
+     * FileChannel.read(ByteBuffer, long) is safe for concurrent use, reads
+     * straight into out when its memory can be exposed as a ByteBuffer
+     */
+    static void read(final FileChannel channel, final String path,
+            final long position, final ChannelBuffer out, final int size) {
+        out.ensureWritableBytes(size);
+        final int writerIndex = out.writerIndex();
+        final ByteBuffer bb;
+        final boolean shared = out.hasArray() || out.isDirect();
+        if(out.hasArray()) {
+            bb = ByteBuffer.wrap(out.array(), out.arrayOffset() + writerIndex, size);
+        } else if(out.isDirect()) {
+            bb = out.toByteBuffer(writerIndex, size);
+        } else {
+            bb = ByteBuffer.allocate(size);
+        }
+        try {
+            long offset = position;
+            while(bb.hasRemaining()) {
+                final int count = channel.read(bb, offset);
+                if(count < 0) {
+                    throw new RuntimeException("unexpected end of file: " + path);
+                }
+                offset += count;
+            }
+        } catch(RuntimeException re) {
+            throw re;
+        } catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+        if(shared) {
+            out.writerIndex(writerIndex + size);
+        } else {
+            bb.flip();
+            out.writeBytes(bb);
+        }
+    }
+
     @Override
     public int readInt() {
         return read(4).readInt();
@@ -0,0 +1,190 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * maps the whole file read only, in windows as a single mapping cannot be
+ * larger than 2 GB, and hands out slices of the mapping instead of copies
+ *
+ * a mapping stays valid until garbage collected, so slices returned by
+ * read() can outlive close(), but the file must not shrink while mapped
+ */
+public class MappedBufferReader implements BufferReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedBufferReader.class);
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 30;
+
+    private final String absolutePath;
+    private final long fileSize;
+    private final int windowSize;
+    private final ChannelBuffer[] windows;
+    private long position;
+
+    public MappedBufferReader(final String path) {
+        this(new File(path));
+    }
+
+    public MappedBufferReader(final File file) {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedBufferReader(final File file, final int windowSize) {
+        absolutePath = file.getAbsolutePath();
+        this.windowSize = windowSize;
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                final FileChannel channel = raf.getChannel();
+                fileSize = channel.size();
+                windows = new ChannelBuffer[(int) ((fileSize + windowSize - 1) / windowSize)];
+                for(int i = 0; i < windows.length; i++) {
+                    final long start = (long) i * windowSize;
+                    final long length = Math.min(windowSize, fileSize - start);
+                    final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                    windows[i] = ChannelBuffers.wrappedBuffer(mapped);
+                }
+            } finally {
+                raf.close(); // mappings stay valid after the channel is closed
+            }
+        } catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+        logger.info("mapped file: {}, windows: {}", absolutePath, windows.length);
+    }
+
+    @Override
+    public long size() {
+        return fileSize;
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void position(final long newPosition) {
+        position = newPosition;
+    }
+
+    private void checkAvailable(final long position, final int size) {
+        if(position < 0 || position + size > fileSize) {
+            throw new RuntimeException("unexpected end of file: " + absolutePath);
+        }
+    }
+
+    @Override
+    public ChannelBuffer read(final int size) {
+        final ChannelBuffer slice = read(position, size);
+        position += size;
+        return slice;
+    }
+
+    @Override
+    public void read(final ChannelBuffer out, final int size) {
+        read(position, out, size);
+        position += size;
+    }
+
+    @Override
+    public byte[] readBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        final ChannelBuffer out = ChannelBuffers.wrappedBuffer(bytes);
+        out.clear();
+        read(out, size);
+        return bytes;
+    }
+
+    /**
+     * @return a read only slice of the mapping, composite if it spans two windows
+     */
+    @Override
+    public ChannelBuffer read(final long position, final int size) {
+        checkAvailable(position, size);
+        if(size == 0) { // at the end there may be no window to index
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+        final int window = (int) (position / windowSize);
+        final int index = (int) (position % windowSize);
+        final ChannelBuffer first = windows[window];
+        if(index + size <= first.capacity()) {
+            return first.slice(index, size);
+        }
+        final ChannelBuffer[] parts = new ChannelBuffer[windows.length - window];
+        int count = 0;
+        int remaining = size;
+        int offset = index;
+        for(int i = window; remaining > 0; i++) {
+            final int length = Math.min(remaining, windows[i].capacity() - offset);
+            parts[count++] = windows[i].slice(offset, length);
+            remaining -= length;
+            offset = 0;
+        }
+        return ChannelBuffers.wrappedBuffer(parts);
+    }
+
+    @Override
+    public void read(final long position, final ChannelBuffer out, final int size) {
+        checkAvailable(position, size);
+        long offset = position;
+        int remaining = size;
+        while(remaining > 0) {
+            final ChannelBuffer window = windows[(int) (offset / windowSize)];
+            final int index = (int) (offset % windowSize);
+            final int length = Math.min(remaining, window.capacity() - index);
+            out.writeBytes(window, index, length);
+            offset += length;
+            remaining -= length;
+        }
+    }
+
+    @Override
+    public int readInt() {
+        checkAvailable(position, 4);
+        final ChannelBuffer window = windows[(int) (position / windowSize)];
+        final int index = (int) (position % windowSize);
+        if(index + 4 > window.capacity()) {
+            return read(4).getInt(0);
+        }
+        position += 4;
+        return window.getInt(index);
+    }
+
+    @Override
+    public long readUnsignedInt() {
+        return readInt() & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public void close() {
+        logger.info("closed file: {}", absolutePath);
+    }
+
+}
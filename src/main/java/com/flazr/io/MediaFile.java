@@ -0,0 +1,42 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import java.io.File;
+
+/**
+ * parsed, immutable state of an open media file that many readers share,
+ * reference counted so it can sit in the MediaFileCache and still be in use
+ * after being evicted
+ */
+public interface MediaFile {
+
+    File getFile();
+
+    /**
+     * @return rough heap bytes held, may grow e.g. once an index is built
+     */
+    long getMemorySize();
+
+    MediaFile retain();
+
+    void release();
+
+}
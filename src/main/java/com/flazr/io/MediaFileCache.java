@@ -0,0 +1,272 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io;
+
+import com.flazr.rtmp.RtmpConfig;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * process wide cache of parsed media files so that concurrent viewers of
+ * the same file share one parse and one open file, keyed by canonical path
+ * and checked against file size and modification time on every lookup
+ *
+ * least recently used entries are evicted once the parsed state of all
+ * entries adds up to more than the limit, see 'server.media.cache.limit', or
+ * once there are more entries than 'server.media.cache.files', as each one
+ * keeps a file open, the cache holds one reference per entry so eviction only closes a file
+ * when no reader is using it any more
+ */
+public class MediaFileCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(MediaFileCache.class);
+
+    public static interface Loader<T extends MediaFile> {
+        T load(File file);
+    }
+
+    private static MediaFileCache instance;
+
+    public static synchronized MediaFileCache getInstance() {
+        if(instance == null) {
+            instance = new MediaFileCache(RtmpConfig.SERVER_MEDIA_CACHE_LIMIT, RtmpConfig.SERVER_MEDIA_CACHE_FILES);
+        }
+        return instance;
+    }
+
+    private static class Entry {
+
+        private final long length;
+        private final long lastModified;
+        private volatile MediaFile value;
+        private boolean removed; // guarded by the entry
+
+        public Entry(final long length, final long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+    }
+
+    private final long limit;
+    private final int maxFiles;
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true); // access order
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public MediaFileCache(final long limit) {
+        this(limit, Integer.MAX_VALUE);
+    }
+
+    public MediaFileCache(final long limit, final int maxFiles) {
+        this.limit = limit;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * @return the file with a reference taken for the caller, who has to
+     * release() it, typically right after handing it to a reader
+     */
+    public <T extends MediaFile> T acquire(final File file, final Loader<T> loader) {
+        if(limit <= 0) {
+            misses.incrementAndGet();
+            return loader.load(file);
+        }
+        final String key = getKey(file);
+        while(true) {
+            final Entry entry = getEntry(key, file);
+            synchronized(entry) {
+                if(entry.removed) { // evicted or stale since we looked, try again
+                    continue;
+                }
+                if(entry.value == null) {
+                    misses.incrementAndGet();
+                    try {
+                        entry.value = loader.load(file); // the reference the cache holds
+                    } catch(RuntimeException e) {
+                        remove(key, entry);
+                        throw e;
+                    }
+                    logger.debug("cached: {}", file);
+                } else {
+                    hits.incrementAndGet();
+                }
+                entry.value.retain();
+            }
+            evict();
+            @SuppressWarnings("unchecked") // the extension picks the loader, so one type per path
+            final T value = (T) entry.value;
+            return value;
+        }
+    }
+
+    private static String getKey(final File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch(Exception e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private Entry getEntry(final String key, final File file) {
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        Entry stale = null;
+        Entry entry;
+        synchronized(this) {
+            entry = entries.get(key);
+            if(entry != null && (entry.length != length || entry.lastModified != lastModified)) {
+                entries.remove(key);
+                stale = entry;
+                entry = null;
+            }
+            if(entry == null) {
+                entry = new Entry(length, lastModified);
+                entries.put(key, entry);
+            }
+        }
+        if(stale != null) {
+            logger.info("file changed, dropping cached: {}", file);
+            discard(stale);
+        }
+        return entry;
+    }
+
+    private void remove(final String key, final Entry entry) {
+        synchronized(this) {
+            if(entries.get(key) == entry) {
+                entries.remove(key);
+            }
+        }
+        discard(entry);
+    }
+
+    private static void discard(final Entry entry) {
+        synchronized(entry) {
+            entry.removed = true;
+            if(entry.value != null) {
+                entry.value.release();
+            }
+        }
+    }
+
+    private void evict() {
+        final List<Entry> evicted = new ArrayList<Entry>();
+        synchronized(this) {
+            long total = 0;
+            for(final Entry entry : entries.values()) {
+                final MediaFile value = entry.value;
+                total += value == null ? 0 : value.getMemorySize();
+            }
+            final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while((total > limit || entries.size() > maxFiles)
+                    && entries.size() > 1 && iterator.hasNext()) { // eldest first
+                final Entry entry = iterator.next().getValue();
+                final MediaFile value = entry.value;
+                if(value == null) { // still loading
+                    continue;
+                }
+                iterator.remove();
+                total -= value.getMemorySize();
+                evicted.add(entry);
+            }
+        }
+        for(final Entry entry : evicted) {
+            evictions.incrementAndGet();
+            logger.debug("evicted: {}", entry.value.getFile());
+            discard(entry);
+        }
+    }
+
+    /**
+     * drops every entry, files still being read stay open until released
+     */
+    public void clear() {
+        final List<Entry> cleared;
+        synchronized(this) {
+            cleared = new ArrayList<Entry>(entries.values());
+            entries.clear();
+        }
+        for(final Entry entry : cleared) {
+            discard(entry);
+        }
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getMemorySize() {
+        long total = 0;
+        for(final Entry entry : entries.values()) {
+            final MediaFile value = entry.value;
+            total += value == null ? 0 : value.getMemorySize();
+        }
+        return total;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        final long hitCount = hits.get();
+        final long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("[media file cache: ").append(getMemorySize()).append('/').append(limit);
+        sb.append(" entries: ").append(getEntryCount()).append('/').append(maxFiles);
+        sb.append(" hits: ").append(hits.get());
+        sb.append(" misses: ").append(misses.get());
+        sb.append(" evictions: ").append(evictions.get());
+        sb.append(']');
+        return sb.toString();
+    }
+
+}
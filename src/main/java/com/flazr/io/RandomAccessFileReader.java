@@ -76,6 +76,36 @@ public class RandomAccessFileReader implements BufferReader {
         return ChannelBuffers.wrappedBuffer(readBytes(size));
     }
 
+    @Override
+    public void read(final ChannelBuffer out, final int size) {
+        try {
+            int remaining = size;
+            while(remaining > 0) {
+                final int count = out.writeBytes(in.getChannel(), remaining);
+                if(count < 0) {
+                    throw new RuntimeException("unexpected end of file: " + absolutePath);
+                }
+                remaining -= count;
+            }
+        } catch(RuntimeException re) {
+            throw re;
+        } catch(Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public ChannelBuffer read(final long position, final int size) {
+        final ChannelBuffer out = ChannelBuffers.buffer(size);
+        read(position, out, size);
+        return out;
+    }
+
+    @Override
+    public void read(final long position, final ChannelBuffer out, final int size) {
+        FileChannelReader.read(in.getChannel(), absolutePath, position, out, size);
+    }
+
     @Override
     public byte[] readBytes(int size) {
         final byte[] bytes = new byte[size];
@@ -0,0 +1,122 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.f4v;
+
+import com.flazr.io.AbstractMediaFile;
+import com.flazr.io.BufferReader;
+import com.flazr.io.BufferReaders;
+import com.flazr.io.MediaFileCache;
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.message.MessageType;
+import com.flazr.rtmp.message.Metadata;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.util.Utils;
+import java.io.File;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the part of an mp4 / f4v file all readers of it can share: the open file,
+ * which is only read positionally once the moov box is parsed, and the
+ * index, see F4vIndex, each F4vReader is just a cursor over this
+ *
+ * reference counted, the file is closed when the last user calls release()
+ */
+public class F4vFile extends AbstractMediaFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(F4vFile.class);
+
+    private final BufferReader in;
+    private final F4vIndex index;
+
+    public static final MediaFileCache.Loader<F4vFile> LOADER = new MediaFileCache.Loader<F4vFile>() {
+        @Override public F4vFile load(final File file) {
+            return new F4vFile(file);
+        }
+    };
+
+    public F4vFile(final String path) {
+        this(new File(path));
+    }
+
+    public F4vFile(final File file) {
+        super(file);
+        in = BufferReaders.open(file);
+        try {
+            index = F4vIndex.load(file, in);
+        } catch(RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        if(index.getVideoDecoderConfig() != null) {
+            logger.debug("video decoder config inited: {}", Utils.toHex(index.getVideoDecoderConfig()));
+        }
+    }
+
+    /**
+     * shared, so only use the positional reads on this
+     */
+    public BufferReader getReader() {
+        return in;
+    }
+
+    public F4vIndex getIndex() {
+        return index;
+    }
+
+    public SampleTable getSamples() {
+        return index.getSamples();
+    }
+
+    public byte[] getVideoDecoderConfig() {
+        return index.getVideoDecoderConfig();
+    }
+
+    public byte[] getAudioDecoderConfig() {
+        return index.getAudioDecoderConfig();
+    }
+
+    /**
+     * @return a new instance each time as sending a message changes its header
+     */
+    public Metadata newMetadata() {
+        final byte[] metadata = index.getMetadata();
+        return new MetadataAmf0(new RtmpHeader(MessageType.METADATA_AMF0, 0, metadata.length),
+                ChannelBuffers.wrappedBuffer(metadata));
+    }
+
+    @Override
+    public long getMemorySize() {
+        return 1024 + index.getMemorySize();
+    }
+
+    @Override
+    public F4vFile retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    protected void close() {
+        in.close();
+    }
+
+}
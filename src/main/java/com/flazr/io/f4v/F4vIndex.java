@@ -0,0 +1,293 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.f4v;
+
+import com.flazr.io.BufferReader;
+import com.flazr.rtmp.message.Metadata;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * everything playback needs from the moov box of an mp4 / f4v file: the
+ * merged sample table, the decoder configs and the encoded onMetaData
+ *
+ * persisted in a sidecar file next to the movie so that later opens just
+ * map the sample columns instead of parsing the whole moov box again
+ */
+public class F4vIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(F4vIndex.class);
+
+    public static final String SIDECAR_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x46345649; // F4VI
+    private static final int VERSION = 1;
+    private static final int HAS_COMPOSITION_TIME_OFFSETS = 1;
+
+    private final SampleTable samples;
+    private final byte[] videoDecoderConfig;
+    private final byte[] audioDecoderConfig;
+    private final byte[] metadata;
+
+    public F4vIndex(final SampleTable samples, final byte[] videoDecoderConfig,
+            final byte[] audioDecoderConfig, final byte[] metadata) {
+        this.samples = samples;
+        this.videoDecoderConfig = videoDecoderConfig;
+        this.audioDecoderConfig = audioDecoderConfig;
+        this.metadata = metadata;
+    }
+
+    public static F4vIndex fromMovie(final MovieInfo movie) {
+        final ChannelBuffer encoded = Metadata.onMetaData(movie).encode();
+        final byte[] metadata = new byte[encoded.readableBytes()];
+        encoded.getBytes(encoded.readerIndex(), metadata);
+        return new F4vIndex(movie.getSamples(),
+                movie.getVideoTrack() == null ? null : movie.getVideoDecoderConfig(),
+                movie.getAudioTrack() == null ? null : movie.getAudioDecoderConfig(),
+                metadata);
+    }
+
+    public SampleTable getSamples() {
+        return samples;
+    }
+
+    public byte[] getVideoDecoderConfig() {
+        return videoDecoderConfig;
+    }
+
+    public byte[] getAudioDecoderConfig() {
+        return audioDecoderConfig;
+    }
+
+    /**
+     * @return onMetaData as encoded by MetadataAmf0
+     */
+    public byte[] getMetadata() {
+        return metadata;
+    }
+
+    public long getMemorySize() {
+        return samples.getMemorySize() + length(videoDecoderConfig)
+                + length(audioDecoderConfig) + metadata.length;
+    }
+
+    private static int length(final byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    //==========================================================================
+
+    /**
+     * uses the sidecar file if it matches the movie size and modification
+     * time, else parses the moov box and writes a new sidecar for next time
+     */
+    public static F4vIndex load(final File file, final BufferReader in) {
+        final File sidecar = new File(file.getPath() + SIDECAR_SUFFIX);
+        F4vIndex index = read(sidecar, file);
+        if(index != null) {
+            logger.debug("loaded index from sidecar: {}", sidecar);
+            return index;
+        }
+        final long start = System.currentTimeMillis();
+        index = fromMovie(new MovieInfo(in));
+        logger.info("indexed {} in {} ms, samples: {}", new Object[] {
+            file, System.currentTimeMillis() - start, index.samples.size()});
+        index.write(sidecar, file);
+        return index;
+    }
+
+    /**
+     * the sidecar layout, all big endian, the header is padded so that the
+     * columns are aligned:
+     *
+     * magic, version, movie length, movie last modified, sample count,
+     * flags, then metadata, video and audio decoder config each as int
+     * length (-1 for none) and bytes, then the columns file offsets (long),
+     * times, sizes, composition time offsets if flagged (int) and flags
+     * (byte) each with one entry per sample
+     *
+     * @return the index with its sample columns mapped from the sidecar, or
+     * null if missing, stale or of an unknown version
+     */
+    public static F4vIndex read(final File sidecar, final File file) {
+        if(!sidecar.exists()) {
+            return null;
+        }
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(sidecar);
+            final FileChannel channel = fis.getChannel();
+            if(channel.size() > Integer.MAX_VALUE) {
+                logger.warn("sidecar too large to map: {}", sidecar);
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.warn("ignoring sidecar of unknown format: {}", sidecar);
+                return null;
+            }
+            if(buffer.getLong() != file.length() || buffer.getLong() != file.lastModified()) {
+                logger.debug("ignoring stale sidecar: {}", sidecar);
+                return null;
+            }
+            final int count = buffer.getInt();
+            final boolean composition = (buffer.getInt() & HAS_COMPOSITION_TIME_OFFSETS) != 0;
+            final byte[] metadata = readBytes(buffer);
+            final byte[] videoDecoderConfig = readBytes(buffer);
+            final byte[] audioDecoderConfig = readBytes(buffer);
+            buffer.position(align(buffer.position()));
+            final long expected = buffer.position() + count * (8L + 4 + 4 + 1 + (composition ? 4 : 0));
+            if(metadata == null || buffer.capacity() != expected) {
+                logger.warn("ignoring truncated sidecar: {}", sidecar);
+                return null;
+            }
+            final LongBuffer fileOffsets = slice(buffer, 8, count).asLongBuffer();
+            final IntBuffer times = slice(buffer, 4, count).asIntBuffer();
+            final IntBuffer sizes = slice(buffer, 4, count).asIntBuffer();
+            final IntBuffer compositionTimeOffsets = composition ? slice(buffer, 4, count).asIntBuffer() : null;
+            final ByteBuffer flags = slice(buffer, 1, count);
+            final SampleTable samples = new SampleTable(count, times, sizes,
+                    fileOffsets, compositionTimeOffsets, flags);
+            return new F4vIndex(samples, videoDecoderConfig, audioDecoderConfig, metadata);
+        } catch(Exception e) {
+            logger.warn("error reading sidecar {}: {}", sidecar, e.getMessage());
+            return null;
+        } finally {
+            close(fis);
+        }
+    }
+
+    private static byte[] readBytes(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if(length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * reads the next column and moves past it, SampleTable uses absolute gets
+     * only so the slices can be shared by all readers
+     */
+    private static ByteBuffer slice(final ByteBuffer buffer, final int width, final int count) {
+        final int end = buffer.position() + width * count;
+        final ByteBuffer column = buffer.duplicate();
+        column.limit(end);
+        buffer.position(end);
+        return column.slice();
+    }
+
+    private static int align(final int position) {
+        return (position + 7) & ~7;
+    }
+
+    /**
+     * writes to a temp file and renames so concurrent readers never see a
+     * partial sidecar, failure e.g. for a read only directory is only logged
+     */
+    public void write(final File sidecar, final File file) {
+        final File temp = new File(sidecar.getPath() + ".tmp");
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            final int count = samples.size();
+            final boolean composition = samples.hasCompositionTimeOffsets();
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(file.length());
+            dos.writeLong(file.lastModified());
+            dos.writeInt(count);
+            dos.writeInt(composition ? HAS_COMPOSITION_TIME_OFFSETS : 0);
+            writeBytes(dos, metadata);
+            writeBytes(dos, videoDecoderConfig);
+            writeBytes(dos, audioDecoderConfig);
+            while(dos.size() != align(dos.size())) {
+                dos.writeByte(0);
+            }
+            for(int i = 0; i < count; i++) {
+                dos.writeLong(samples.getFileOffset(i));
+            }
+            for(int i = 0; i < count; i++) {
+                dos.writeInt(samples.getTime(i));
+            }
+            for(int i = 0; i < count; i++) {
+                dos.writeInt(samples.getSize(i));
+            }
+            if(composition) {
+                for(int i = 0; i < count; i++) {
+                    dos.writeInt(samples.getCompositionTimeOffset(i));
+                }
+            }
+            for(int i = 0; i < count; i++) {
+                dos.writeByte(samples.getFlags(i));
+            }
+            dos.close();
+            dos = null;
+            if(!temp.renameTo(sidecar)) {
+                sidecar.delete();
+                if(!temp.renameTo(sidecar)) {
+                    throw new RuntimeException("unable to rename " + temp);
+                }
+            }
+            logger.debug("wrote sidecar: {}", sidecar);
+        } catch(Exception e) {
+            logger.warn("unable to write sidecar {}: {}", sidecar, e.getMessage());
+            temp.delete();
+        } finally {
+            close(dos);
+        }
+    }
+
+    private static void writeBytes(final DataOutputStream dos, final byte[] bytes) throws Exception {
+        if(bytes == null) {
+            dos.writeInt(-1);
+            return;
+        }
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static void close(final Closeable closeable) {
+        if(closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch(Exception e) {
+            logger.warn("error closing: {}", e.getMessage());
+        }
+    }
+
+}
@@ -20,22 +20,28 @@
 package com.flazr.io.f4v;
 
 import com.flazr.io.BufferReader;
-import com.flazr.io.FileChannelReader;
 import com.flazr.io.flv.FlvAtom;
+import com.flazr.rtmp.RtmpConfig;
 import com.flazr.rtmp.RtmpHeader;
 import com.flazr.rtmp.RtmpMessage;
 import com.flazr.rtmp.RtmpReader;
 import com.flazr.rtmp.message.Aggregate;
 import com.flazr.rtmp.message.Audio;
+import com.flazr.rtmp.message.MessageType;
 import com.flazr.rtmp.message.Metadata;
 import com.flazr.rtmp.message.Video;
 import com.flazr.util.Utils;
+import java.util.ArrayList;
 import java.util.List;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * a cursor over an F4vFile, only the position is per reader so any number
+ * of readers can share one open file, see F4vReader(F4vFile)
+ */
 public class F4vReader implements RtmpReader {
 
     private static final Logger logger = LoggerFactory.getLogger(F4vReader.class);
@@ -46,25 +52,40 @@ public class F4vReader implements RtmpReader {
     private static final byte[] AVC1_PREFIX_KEYFRAME = Utils.fromHex("1701");
     private static final byte[] AVC1_PREFIX = Utils.fromHex("2701");
 
-    private byte[] AVC1_BEGIN;
-    private byte[] MP4A_BEGIN;
+    private final byte[] AVC1_BEGIN;
+    private final byte[] MP4A_BEGIN;
 
+    private final F4vFile file;
     private final BufferReader in;
-    private final List<Sample> samples;
+    private final SampleTable samples;
     private final Metadata metadata;
 
     private int cursor;
     private int aggregateDuration;
+    private int readAheadTime = RtmpConfig.SERVER_READAHEAD_TIME;
+
+    private static final int READ_AHEAD_SIZE_LIMIT = 1048576;
+
+    // two so that a file with the tracks far apart does not thrash
+    private final long[] windowStarts = new long[2];
+    private final ChannelBuffer[] windows = new ChannelBuffer[2];
+    private int lastWindow;
 
     public F4vReader(final String path) {
-        in = new FileChannelReader(path);
-        final MovieInfo movie = new MovieInfo(in);
-        in.position(0);
-        AVC1_BEGIN = movie.getVideoDecoderConfig();
-        MP4A_BEGIN = movie.getAudioDecoderConfig();
-        logger.debug("video decoder config inited: {}", Utils.toHex(AVC1_BEGIN));
-        metadata = Metadata.onMetaData(movie);
-        samples = movie.getSamples();
+        this(new F4vFile(path));
+        file.release(); // this reader now holds the only reference
+    }
+
+    /**
+     * shares the open file, which stays open until every reader is closed
+     */
+    public F4vReader(final F4vFile file) {
+        this.file = file.retain();
+        in = file.getReader();
+        AVC1_BEGIN = file.getVideoDecoderConfig();
+        MP4A_BEGIN = file.getAudioDecoderConfig();
+        metadata = file.newMetadata();
+        samples = file.getSamples();
         cursor = 0;
     }
 
@@ -75,11 +96,15 @@ public class F4vReader implements RtmpReader {
 
     @Override
     public RtmpMessage[] getStartMessages() {
-        return new RtmpMessage[] {
-            getMetadata(),
-            new Video(AVC1_BEGIN_PREFIX, AVC1_BEGIN),
-            new Audio(MP4A_BEGIN_PREFIX, MP4A_BEGIN)
-        };
+        final List<RtmpMessage> messages = new ArrayList<RtmpMessage>(3);
+        messages.add(getMetadata());
+        if(AVC1_BEGIN != null) { // null for audio only files
+            messages.add(new Video(AVC1_BEGIN_PREFIX, AVC1_BEGIN));
+        }
+        if(MP4A_BEGIN != null) {
+            messages.add(new Audio(MP4A_BEGIN_PREFIX, MP4A_BEGIN));
+        }
+        return messages.toArray(new RtmpMessage[messages.size()]);
     }
 
     @Override
@@ -87,6 +112,14 @@ public class F4vReader implements RtmpReader {
         this.aggregateDuration = targetDuration;
     }
 
+    /**
+     * milliseconds of samples read in one go on a miss, 0 reads each sample
+     * on its own, see 'server.readahead.time'
+     */
+    public void setReadAheadTime(final int readAheadTime) {
+        this.readAheadTime = readAheadTime;
+    }
+
     @Override
     public long getTimePosition() {
         final int index;
@@ -95,23 +128,19 @@ public class F4vReader implements RtmpReader {
         } else {
             index = cursor;
         }
-        return samples.get(index).getTime();
+        return samples.getTime(index);
     }
 
     @Override
     public long seek(long timePosition) {
-        cursor = 0;
-        while(cursor < samples.size()) {
-            final Sample sample = samples.get(cursor);
-            if(sample.getTime() >= timePosition) {
-                break;
-            }
-            cursor++;
+        cursor = samples.find(timePosition);
+        if(cursor == samples.size()) { // past the last sample
+            cursor--;
         }
-        while(!samples.get(cursor).isSyncSample() && cursor > 0) {
+        while(!samples.isSyncSample(cursor) && cursor > 0) {
             cursor--;
         }
-        return samples.get(cursor).getTime();
+        return samples.getTime(cursor);
     }
 
     @Override
@@ -124,52 +153,100 @@ public class F4vReader implements RtmpReader {
     @Override
     public RtmpMessage next() {
         if(aggregateDuration <= 0) {
-            return getMessage(samples.get(cursor++));
+            return getMessage(cursor++);
         }
         final ChannelBuffer out = ChannelBuffers.dynamicBuffer();
         int startSampleTime = -1;
         while(cursor < samples.size()) {
-            final Sample sample = samples.get(cursor++);
+            final int sample = cursor++;
+            final int time = samples.getTime(sample);
             if(startSampleTime == -1) {
-                startSampleTime = sample.getTime();
+                startSampleTime = time;
             }
-            final RtmpMessage message = getMessage(sample);
-            final RtmpHeader header = message.getHeader();
-            final FlvAtom flvAtom = new FlvAtom(header.getMessageType(), header.getTime(), message.encode());
-            final ChannelBuffer temp = flvAtom.write();
-            if(out.readableBytes() + temp.readableBytes() > AGGREGATE_SIZE_LIMIT) {
+            final boolean video = samples.isVideo(sample);
+            final byte[] prefix = getPrefix(sample);
+            final int size = prefix.length + (video ? 3 : 0) + samples.getSize(sample);
+            if(out.readableBytes() + FlvAtom.TAG_OVERHEAD + size > AGGREGATE_SIZE_LIMIT) {
                 cursor--;
                 break;
             }
-            out.writeBytes(temp);
-            if(sample.getTime() - startSampleTime > aggregateDuration) {
+            // sample goes straight from the file into the aggregate
+            final RtmpHeader header = new RtmpHeader(
+                    video ? MessageType.VIDEO : MessageType.AUDIO, time, size);
+            FlvAtom.writeHeader(out, header);
+            out.writeBytes(prefix);
+            if(video) {
+                out.writeMedium(samples.getCompositionTimeOffset(sample));
+            }
+            out.writeBytes(readSample(sample));
+            FlvAtom.writeTrailer(out, header);
+            if(time - startSampleTime > aggregateDuration) {
                 break;
             }
         }
         return new Aggregate(startSampleTime, out);
     }
 
-    private RtmpMessage getMessage(final Sample sample) {
-        in.position(sample.getFileOffset());
-        final byte[] sampleBytes = in.readBytes(sample.getSize());        
-        final byte[] prefix;        
-        if(sample.isVideo()) {
-            if(sample.isSyncSample()) {
-                prefix = AVC1_PREFIX_KEYFRAME;
-            } else {
-                prefix = AVC1_PREFIX;
-            }
+    private byte[] getPrefix(final int sample) {
+        if(samples.isVideo(sample)) {
+            return samples.isSyncSample(sample) ? AVC1_PREFIX_KEYFRAME : AVC1_PREFIX;
+        }
+        return MP4A_PREFIX;
+    }
+
+    private RtmpMessage getMessage(final int sample) {
+        final ChannelBuffer sampleData = readSample(sample);
+        final byte[] prefix = getPrefix(sample);
+        final int time = samples.getTime(sample);
+        if(samples.isVideo(sample)) {
             // TODO move prefix logic to Audio / Video
-            return new Video(sample.getTime(), prefix, sample.getCompositionTimeOffset(), sampleBytes);
+            return new Video(time, prefix, samples.getCompositionTimeOffset(sample), sampleData);
         } else {
-            prefix = MP4A_PREFIX;
-            return new Audio(sample.getTime(), prefix, sampleBytes);
+            return new Audio(time, prefix, sampleData);
+        }
+    }
+
+    /**
+     * @return a slice of a read ahead window, the windows are never written
+     * to after the read so the slices can outlive them
+     */
+    private ChannelBuffer readSample(final int sample) {
+        final long offset = samples.getFileOffset(sample);
+        final int size = samples.getSize(sample);
+        if(readAheadTime <= 0) {
+            return in.read(offset, size); // a slice if mapped
+        }
+        for(int i = 0; i < windows.length; i++) {
+            final ChannelBuffer window = windows[i];
+            if(window != null && offset >= windowStarts[i]
+                    && offset + size <= windowStarts[i] + window.capacity()) {
+                lastWindow = i;
+                return window.slice((int) (offset - windowStarts[i]), size);
+            }
+        }
+        // one read for the file range holding the next readAheadTime worth
+        // of samples, interleaved chunks of all tracks usually sit together
+        long start = offset;
+        long end = offset + size;
+        final long endTime = (long) samples.getTime(sample) + readAheadTime;
+        for(int i = sample + 1; i < samples.size() && samples.getTime(i) <= endTime; i++) {
+            final long sampleStart = Math.min(start, samples.getFileOffset(i));
+            final long sampleEnd = Math.max(end, samples.getFileOffset(i) + samples.getSize(i));
+            if(sampleEnd - sampleStart > READ_AHEAD_SIZE_LIMIT) {
+                continue; // elsewhere in the file, will get the other window
+            }
+            start = sampleStart;
+            end = sampleEnd;
         }
+        lastWindow = 1 - lastWindow; // replace the one not used last
+        windowStarts[lastWindow] = start;
+        windows[lastWindow] = in.read(start, (int) (end - start));
+        return windows[lastWindow].slice((int) (offset - start), size);
     }
 
     @Override
     public void close() {
-        in.close();
+        file.release();
     }   
 
     public static void main(String[] args) {
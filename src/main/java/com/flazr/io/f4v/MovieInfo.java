@@ -25,7 +25,6 @@ import com.flazr.io.f4v.box.MVHD;
 import com.flazr.io.f4v.box.STSD.AudioSD;
 import com.flazr.io.f4v.box.STSD.VideoSD;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,9 +37,12 @@ public class MovieInfo {
     private FTYP ftyp;
     private MVHD mvhd;    
     private List<TrackInfo> tracks = new ArrayList<TrackInfo>();
-    private List<Sample> samples;
+    private SampleTable samples;
 
-    public List<Sample> getSamples() {
+    /**
+     * all tracks merged into one time ordered table
+     */
+    public SampleTable getSamples() {
         return samples;
     }
 
@@ -53,13 +55,11 @@ public class MovieInfo {
     }
 
     private void initSamples() {
-        samples = new ArrayList<Sample>();
+        final List<SampleTable> trackSamples = new ArrayList<SampleTable>(tracks.size());
         for(TrackInfo track : tracks) {
-            for(Chunk chunk : track.getChunks()) {
-                samples.addAll(chunk.getSamples());
-            }
+            trackSamples.add(track.initSamples());
         }
-        Collections.sort(samples); // sort by time, implements comparable
+        samples = SampleTable.merge(trackSamples);
     }
 
     public MovieInfo(final BufferReader in) {
@@ -0,0 +1,193 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.f4v;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.List;
+
+/**
+ * time ordered samples of a track or a whole movie held in parallel
+ * primitive columns, about 21 bytes per sample and no object per sample,
+ * either arrays on the heap or views of a memory mapped sidecar file
+ *
+ * times and offsets are in milliseconds, immutable once built
+ */
+public class SampleTable {
+
+    private static final byte SYNC = 1;
+    private static final byte VIDEO = 2;
+
+    private final int count;
+    private final IntBuffer times;
+    private final IntBuffer sizes;
+    private final LongBuffer fileOffsets;
+    private final IntBuffer compositionTimeOffsets; // null if all zero
+    private final ByteBuffer flags;
+
+    public SampleTable(final int count, final int[] times, final int[] sizes,
+            final long[] fileOffsets, final int[] compositionTimeOffsets, final byte[] flags) {
+        this(count, IntBuffer.wrap(times), IntBuffer.wrap(sizes), LongBuffer.wrap(fileOffsets),
+                compositionTimeOffsets == null ? null : IntBuffer.wrap(compositionTimeOffsets),
+                ByteBuffer.wrap(flags));
+    }
+
+    public SampleTable(final int count, final IntBuffer times, final IntBuffer sizes,
+            final LongBuffer fileOffsets, final IntBuffer compositionTimeOffsets, final ByteBuffer flags) {
+        this.count = count;
+        this.times = times;
+        this.sizes = sizes;
+        this.fileOffsets = fileOffsets;
+        this.compositionTimeOffsets = compositionTimeOffsets;
+        this.flags = flags;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getTime(final int index) {
+        return times.get(index);
+    }
+
+    public int getSize(final int index) {
+        return sizes.get(index);
+    }
+
+    public long getFileOffset(final int index) {
+        return fileOffsets.get(index);
+    }
+
+    public boolean hasCompositionTimeOffsets() {
+        return compositionTimeOffsets != null;
+    }
+
+    public int getCompositionTimeOffset(final int index) {
+        return compositionTimeOffsets == null ? 0 : compositionTimeOffsets.get(index);
+    }
+
+    public byte getFlags(final int index) {
+        return flags.get(index);
+    }
+
+    public boolean isSyncSample(final int index) {
+        return (flags.get(index) & SYNC) != 0;
+    }
+
+    public boolean isVideo(final int index) {
+        return (flags.get(index) & VIDEO) != 0;
+    }
+
+    /**
+     * heap bytes only, a mapped table lives in the page cache
+     */
+    public long getMemorySize() {
+        if(times.isDirect()) {
+            return 0;
+        }
+        return count * (4L + 4 + 8 + 1 + (compositionTimeOffsets == null ? 0 : 4));
+    }
+
+    /**
+     * @return index of the first sample at or after time, size() if none
+     */
+    public int find(final long time) {
+        int low = 0;
+        int high = count;
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            if(times.get(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public static byte flags(final boolean sync, final boolean video) {
+        return (byte) ((sync ? SYNC : 0) | (video ? VIDEO : 0));
+    }
+
+    /**
+     * value in time scale units to milliseconds, rounded half even
+     */
+    public static int toMillis(final long value, final long timeScale) {
+        final long scaled = value * 1000;
+        long quotient = scaled / timeScale;
+        final long remainder = Math.abs(scaled % timeScale) * 2;
+        if(remainder > timeScale || remainder == timeScale && (quotient & 1) != 0) {
+            quotient += scaled < 0 ? -1 : 1;
+        }
+        return (int) quotient;
+    }
+
+    /**
+     * k-way merge of tables that are each already in time order, samples
+     * with the same time keep the order of the tables passed in
+     */
+    public static SampleTable merge(final List<SampleTable> tables) {
+        int total = 0;
+        boolean anyComposition = false;
+        for(final SampleTable table : tables) {
+            total += table.count;
+            anyComposition |= table.compositionTimeOffsets != null;
+        }
+        final int[] times = new int[total];
+        final int[] sizes = new int[total];
+        final long[] fileOffsets = new long[total];
+        final int[] compositionTimeOffsets = anyComposition ? new int[total] : null;
+        final byte[] flags = new byte[total];
+        final int[] heads = new int[tables.size()];
+        for(int i = 0; i < total; i++) {
+            int next = -1;
+            for(int t = 0; t < heads.length; t++) {
+                final SampleTable table = tables.get(t);
+                if(heads[t] < table.count && (next == -1
+                        || table.getTime(heads[t]) < tables.get(next).getTime(heads[next]))) {
+                    next = t;
+                }
+            }
+            final SampleTable table = tables.get(next);
+            final int index = heads[next]++;
+            times[i] = table.getTime(index);
+            sizes[i] = table.getSize(index);
+            fileOffsets[i] = table.getFileOffset(index);
+            if(compositionTimeOffsets != null) {
+                compositionTimeOffsets[i] = table.getCompositionTimeOffset(index);
+            }
+            flags[i] = table.getFlags(index);
+        }
+        return new SampleTable(total, times, sizes, fileOffsets, compositionTimeOffsets, flags);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("[samples: ").append(count);
+        if(count > 0) {
+            sb.append(" duration: ").append(times.get(count - 1));
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+}
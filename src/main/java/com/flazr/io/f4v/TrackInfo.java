@@ -32,9 +32,7 @@ import com.flazr.io.f4v.box.STTS;
 import com.flazr.io.f4v.box.STTS.STTSRecord;
 import com.flazr.io.f4v.box.TKHD;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,8 +52,6 @@ public class TrackInfo {
     private STCO stco;
     private STSS stss;
 
-    private List<Chunk> chunks;
-
     public TrackInfo(Box trak) {
         ArrayList<Box> collect = new ArrayList<Box>();
         Box.recurse(trak, collect, 0);
@@ -74,8 +70,6 @@ public class TrackInfo {
                 case STSS: stss = (STSS) pay; break;
             }
         }
-        initChunks();
-        logger.debug("initialized track info table");
     }
 
     public MDHD getMdhd() {
@@ -94,96 +88,77 @@ public class TrackInfo {
         this.movie = movie;
     }
 
-    public List<Chunk> getChunks() {
-        return chunks;
-    }
-
-    private void initChunks() {
-        int stcoIndex = 0;
-        int stszIndex = 0;
-        chunks = new ArrayList<Chunk>();
-        int stscCount = stsc.getRecords().size();
-        Set<Integer> syncSampleNumbers = null;
-        if (stss != null) {
-            syncSampleNumbers = new HashSet<Integer>(stss.getSampleNumbers());
-        }
-        for (int i = 0; i < stscCount; i++) {
-            STSCRecord stscRecord = stsc.getRecords().get(i);
-            int lastChunkWithSameSize;
-            if (i + 1 == stscCount) {
-                if (i == 0) {
-                    lastChunkWithSameSize = stco.getOffsets().size();
-                } else {
-                    lastChunkWithSameSize = stscRecord.getFirstChunk();
-                }
-            } else {
-                lastChunkWithSameSize = stsc.getRecords().get(i + 1).getFirstChunk() - 1;
-            }
-            for (int j = stcoIndex; j < lastChunkWithSameSize; j++) {
-                Chunk chunk = new Chunk();
-                int sampleFileOffset = 0;
-                chunk.setSampleDescIndex(stscRecord.getSampleDescIndex());
-                chunk.setFileOffset(stco.getOffsets().get(stcoIndex++));
-                for (int k = 0; k < stscRecord.getSamplesPerChunk(); k++) {
-                    Sample sample = new Sample();
-                    sample.setSize(stsz.getSampleSizes().get(stszIndex++));
-                    sample.setFileOffset(chunk.getFileOffset() + sampleFileOffset);
-                    sampleFileOffset += sample.getSize();
-                    if (syncSampleNumbers != null && syncSampleNumbers.contains(stszIndex)) {
-                        sample.setSyncSample(true);
+    /**
+     * flattens the chunk, size, time and sync tables straight into arrays,
+     * called once by MovieInfo which merges all tracks, the box tables are
+     * dropped afterwards so only the merged table stays on the heap
+     */
+    SampleTable initSamples() {
+        final int count = stsz.getSampleCount();
+        final int[] times = new int[count];
+        final int[] sizes = new int[count];
+        final long[] fileOffsets = new long[count];
+        final byte[] flags = new byte[count];
+        final long timeScale = mdhd.getTimeScale();
+        //========================== offsets and flags =========================
+        final long[] chunkOffsets = stco.getOffsets();
+        final List<STSCRecord> stscRecords = stsc.getRecords();
+        final int[] syncSampleNumbers = stss == null ? new int[0] : stss.getSampleNumbers();
+        int syncIndex = 0;
+        int sampleIndex = 0;
+        for (int i = 0; i < stscRecords.size() && sampleIndex < count; i++) {
+            final STSCRecord stscRecord = stscRecords.get(i);
+            final int lastChunk = i + 1 < stscRecords.size()
+                    ? stscRecords.get(i + 1).getFirstChunk() - 1 : chunkOffsets.length;
+            final boolean video = stsd.getSampleType(stscRecord.getSampleDescIndex()).isVideo();
+            for (int chunk = stscRecord.getFirstChunk() - 1; chunk < lastChunk && sampleIndex < count; chunk++) {
+                long fileOffset = chunkOffsets[chunk];
+                for (int k = 0; k < stscRecord.getSamplesPerChunk() && sampleIndex < count; k++) {
+                    final int size = stsz.getSampleSize(sampleIndex);
+                    sizes[sampleIndex] = size;
+                    fileOffsets[sampleIndex] = fileOffset;
+                    fileOffset += size;
+                    while (syncIndex < syncSampleNumbers.length
+                            && syncSampleNumbers[syncIndex] < sampleIndex + 1) {
+                        syncIndex++;
                     }
-                    chunk.add(sample);
+                    final boolean sync = syncIndex < syncSampleNumbers.length
+                            && syncSampleNumbers[syncIndex] == sampleIndex + 1;
+                    flags[sampleIndex] = SampleTable.flags(sync, video);
+                    sampleIndex++;
                 }
-                chunk.setTrack(this);
-                chunks.add(chunk);
             }
-        }        
-        int chunkIndex = 0;
-        int sampleIndex = 0;
+        }
+        //================================ times ===============================
         long rawTime = 0;
-        Chunk chunk = chunks.get(chunkIndex);
-        scan:
+        sampleIndex = 0;
         for (STTSRecord sttsRecord : stts.getRecords()) {
-            for (int i = 0; i < sttsRecord.getSampleCount(); i++) {
-                if (sampleIndex == chunk.getSampleCount()) {
-                    chunkIndex++;
-                    if (chunkIndex == chunks.size()) {
-                        break scan;
-                    }
-                    chunk = chunks.get(chunkIndex);
-                    sampleIndex = 0;
-                }
-                Sample sample = chunk.getSamples().get(sampleIndex++);
-                final int rawDuration = sttsRecord.getSampleDuration();
-                final int duration = sample.convertFromTimeScale(rawDuration);
-                sample.setDuration(duration);
-                final int time = sample.convertFromTimeScale(rawTime);
-                sample.setTime(time);
-                rawTime += rawDuration;
+            for (int i = 0; i < sttsRecord.getSampleCount() && sampleIndex < count; i++) {
+                times[sampleIndex++] = SampleTable.toMillis(rawTime, timeScale);
+                rawTime += sttsRecord.getSampleDuration();
             }
         }
-        if(ctts == null) {
-            return;
-        }
-        chunkIndex = 0;
-        sampleIndex = 0;
-        chunk = chunks.get(chunkIndex);
-        scan:
-        for (CTTSRecord cttsRecord : ctts.getRecords()) {
-            for (int i = 0; i < cttsRecord.getSampleCount(); i++) {
-                if (sampleIndex == chunk.getSampleCount()) {
-                    chunkIndex++;
-                    if (chunkIndex == chunks.size()) {
-                        break scan;
-                    }
-                    chunk = chunks.get(chunkIndex);
-                    sampleIndex = 0;
+        //======================== composition offsets =========================
+        int[] compositionTimeOffsets = null;
+        if (ctts != null) {
+            compositionTimeOffsets = new int[count];
+            sampleIndex = 0;
+            for (CTTSRecord cttsRecord : ctts.getRecords()) {
+                final int offset = SampleTable.toMillis(cttsRecord.getSampleOffset(), timeScale);
+                for (int i = 0; i < cttsRecord.getSampleCount() && sampleIndex < count; i++) {
+                    compositionTimeOffsets[sampleIndex++] = offset;
                 }
-                Sample sample = chunk.getSamples().get(sampleIndex++);
-                final int compositionTimeOffset = sample.convertFromTimeScale(cttsRecord.getSampleOffset());
-                sample.setCompositionTimeOffset(compositionTimeOffset);
             }
         }
+        stts = null;
+        ctts = null;
+        stsc = null;
+        stsz = null;
+        stco = null;
+        stss = null;
+        final SampleTable samples = new SampleTable(count, times, sizes, fileOffsets, compositionTimeOffsets, flags);
+        logger.debug("initialized track info table: {}", samples);
+        return samples;
     }
 
 }
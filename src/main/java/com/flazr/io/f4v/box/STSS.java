@@ -20,9 +20,6 @@
 package com.flazr.io.f4v.box;
 
 import com.flazr.io.f4v.*;
-import java.util.ArrayList;
-import java.util.List;
-
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.slf4j.Logger;
@@ -31,17 +28,17 @@ import org.slf4j.LoggerFactory;
 public class STSS implements Payload {
 
     private static final Logger logger = LoggerFactory.getLogger(STSS.class);
-    private List<Integer> sampleNumbers;
+    private int[] sampleNumbers; // 1 based, ascending
     
     public STSS(ChannelBuffer in) {
         read(in);
     }
 
-    public List<Integer> getSampleNumbers() {
+    public int[] getSampleNumbers() {
         return sampleNumbers;
     }
 
-    public void setSampleNumbers(List<Integer> sampleNumbers) {
+    public void setSampleNumbers(int[] sampleNumbers) {
         this.sampleNumbers = sampleNumbers;
     }
 
@@ -50,11 +47,9 @@ public class STSS implements Payload {
         in.readInt(); // UI8 version + UI24 flags
         final int count = in.readInt();
         logger.debug("no of sample sync records: {}", count);
-        sampleNumbers = new ArrayList<Integer>(count);
+        sampleNumbers = new int[count];
         for (int i = 0; i < count; i++) {
-            final Integer sampleNumber = in.readInt();
-            // logger.debug("#{} sampleNumber: {}", new Object[]{i, sampleNumber});
-            sampleNumbers.add(sampleNumber);
+            sampleNumbers[i] = in.readInt();
         }
     }
 
@@ -62,8 +57,8 @@ public class STSS implements Payload {
     public ChannelBuffer write() {
         ChannelBuffer out = ChannelBuffers.dynamicBuffer();
         out.writeInt(0); // UI8 version + UI24 flags
-        out.writeInt(sampleNumbers.size());
-        for (Integer sampleNumber : sampleNumbers) {
+        out.writeInt(sampleNumbers.length);
+        for (int sampleNumber : sampleNumbers) {
             out.writeInt(sampleNumber);
         }
         return out;
@@ -20,9 +20,6 @@
 package com.flazr.io.f4v.box;
 
 import com.flazr.io.f4v.*;
-import java.util.ArrayList;
-import java.util.List;
-
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.slf4j.Logger;
@@ -31,23 +28,32 @@ import org.slf4j.LoggerFactory;
 public class STSZ implements Payload {
 
     private static final Logger logger = LoggerFactory.getLogger(STSZ.class);
-    private List<Integer> sampleSizes;
+    private int[] sampleSizes; // null when all samples have the constant size
     private int constantSize;
+    private int sampleCount;
 
     public STSZ(ChannelBuffer in) {
         read(in);
     }
 
-    public List<Integer> getSampleSizes() {
-        return sampleSizes;
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getSampleSize(final int index) {
+        return sampleSizes == null ? constantSize : sampleSizes[index];
     }
 
-    public void setConstantSize(int constantSize) {
+    public void setConstantSize(int constantSize, int sampleCount) {
         this.constantSize = constantSize;
+        this.sampleCount = sampleCount;
+        sampleSizes = null;
     }
 
-    public void setSampleSizes(List<Integer> sampleSizes) {
+    public void setSampleSizes(int[] sampleSizes) {
         this.sampleSizes = sampleSizes;
+        constantSize = 0;
+        sampleCount = sampleSizes.length;
     }
 
     @Override
@@ -55,13 +61,15 @@ public class STSZ implements Payload {
         in.readInt(); // UI8 version + UI24 flags
         constantSize = in.readInt();
         logger.debug("sample size constant size: {}", constantSize);
-        final int count = in.readInt();
-        logger.debug("no of sample size records: {}", count);
-        sampleSizes = new ArrayList<Integer>(count);
-        for (int i = 0; i < count; i++) {
-            final Integer sampleSize = in.readInt();
-            // logger.debug("#{} sampleSize: {}", new Object[]{i, sampleSize});
-            sampleSizes.add(sampleSize);
+        sampleCount = in.readInt();
+        logger.debug("no of sample size records: {}", sampleCount);
+        if(constantSize != 0) { // no table follows
+            sampleSizes = null;
+            return;
+        }
+        sampleSizes = new int[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            sampleSizes[i] = in.readInt();
         }
     }
 
@@ -70,9 +78,11 @@ public class STSZ implements Payload {
         ChannelBuffer out = ChannelBuffers.dynamicBuffer();
         out.writeInt(0); // UI8 version + UI24 flags
         out.writeInt(constantSize);
-        out.writeInt(sampleSizes.size());
-        for (Integer sampleSize : sampleSizes) {
-            out.writeInt(sampleSize);
+        out.writeInt(sampleCount);
+        if(sampleSizes != null) {
+            for (int sampleSize : sampleSizes) {
+                out.writeInt(sampleSize);
+            }
         }
         return out;
     }
@@ -32,6 +32,11 @@ public class FlvAtom implements RtmpMessage {
 
     private static final Logger logger = LoggerFactory.getLogger(FlvAtom.class);
 
+    /**
+     * bytes a tag takes in a file on top of its data: 11 byte header, 4 byte trailer
+     */
+    public static final int TAG_OVERHEAD = 15;
+
     private final RtmpHeader header;
     private ChannelBuffer data;    
 
@@ -54,7 +59,7 @@ public class FlvAtom implements RtmpMessage {
     }
 
     public FlvAtom(final BufferReader in) {
-        header = readHeader(in.read(11));
+        header = readHeader(in);
         data = in.read(header.getSize());        
         in.position(in.position() + 4); // prev offset
     }
@@ -65,14 +70,56 @@ public class FlvAtom implements RtmpMessage {
     }
 
     public ChannelBuffer write() {        
-        final ChannelBuffer out = ChannelBuffers.buffer(15 + header.getSize());
+        final ChannelBuffer out = ChannelBuffers.buffer(getEncodedSize());
+        write(out);
+        return out;
+    }
+
+    public int getEncodedSize() {
+        return TAG_OVERHEAD + header.getSize();
+    }
+
+    /**
+     * appends the complete tag to out, leaves the data readable
+     */
+    public void write(final ChannelBuffer out) {
+        writeHeader(out, header);
+        out.writeBytes(data, data.readerIndex(), data.readableBytes());
+        writeTrailer(out, header);
+    }
+
+    public static void writeHeader(final ChannelBuffer out, final RtmpHeader header) {
         out.writeByte((byte) header.getMessageType().intValue());
         out.writeMedium(header.getSize());
         out.writeMedium(header.getTime());
         out.writeInt(0); // 4 bytes of zeros (reserved)
-        out.writeBytes(data);
+    }
+
+    public static void writeTrailer(final ChannelBuffer out, final RtmpHeader header) {
         out.writeInt(header.getSize() + 11); // previous tag size
-        return out;
+    }
+
+    public static RtmpHeader readHeader(final BufferReader in) {
+        final ChannelBuffer temp = ChannelBuffers.buffer(11);
+        in.read(temp, 11);
+        return readHeader(temp);
+    }
+
+    /**
+     * positional, leaves in.position() alone
+     */
+    public static RtmpHeader readHeader(final BufferReader in, final long position) {
+        return readHeader(in, position, ChannelBuffers.buffer(11));
+    }
+
+    /**
+     * positional, for callers reading many headers: temp is any buffer of at
+     * least 11 bytes the caller keeps around, its contents are overwritten
+     */
+    public static RtmpHeader readHeader(final BufferReader in, final long position, final ChannelBuffer temp) {
+        temp.clear();
+        in.read(position, temp, 11);
+        return readHeader(temp);
     }
 
     public static RtmpHeader readHeader(final ChannelBuffer in) {
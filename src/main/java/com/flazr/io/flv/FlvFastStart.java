@@ -0,0 +1,158 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.flv;
+
+import com.flazr.amf.Amf0Object;
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.message.MessageType;
+import com.flazr.rtmp.message.Metadata;
+import com.flazr.rtmp.message.MetadataAmf0;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * puts a complete onMetaData tag with 'duration', 'filesize' and the
+ * 'keyframes' object at the front of a finished recording, so players and
+ * FlvIndex can seek without a scan
+ *
+ * the keyframes are the ones collected while recording, all numbers are
+ * amf0 doubles so the size of the new tag is known before the file
+ * positions are filled in, and the media tags are copied once by the
+ * kernel through transferTo() without being read
+ */
+public class FlvFastStart {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlvFastStart.class);
+
+    static final int FLV_HEADER_SIZE = 13; // including first previous tag size
+
+    private FlvFastStart() {}
+
+    /**
+     * @param metadataData payload of the onMetaData tag that directly follows
+     * the flv header, replaced by the new one, or null if there is none
+     * @param keyframes as written, positions before the rewrite
+     * @return false if anything failed, the recording is then left as is
+     */
+    public static boolean rewrite(final File file, final ChannelBuffer metadataData,
+            final FlvIndex keyframes, final int duration) {
+        final long start = System.currentTimeMillis();
+        final Metadata metadata;
+        final int oldTagSize;
+        if(metadataData == null) {
+            metadata = new MetadataAmf0("onMetaData");
+            oldTagSize = 0;
+        } else {
+            metadata = new MetadataAmf0(new RtmpHeader(MessageType.METADATA_AMF0, 0,
+                    metadataData.readableBytes()), metadataData.duplicate());
+            oldTagSize = FlvAtom.TAG_OVERHEAD + metadataData.readableBytes();
+        }
+        final File temp = new File(file.getPath() + ".tmp");
+        FileChannel in = null;
+        FileChannel out = null;
+        try {
+            in = new FileInputStream(file).getChannel();
+            final long size = in.size();
+            final Object[] times = new Object[keyframes.size()];
+            final Object[] positions = new Object[keyframes.size()];
+            for(int i = 0; i < times.length; i++) {
+                times[i] = keyframes.getTime(i) / 1000.0;
+                positions[i] = 0.0;
+            }
+            metadata.setValue("duration", duration / 1000.0);
+            metadata.setValue("filesize", 0.0);
+            if(times.length > 0) { // else FlvIndex falls back to one point per second
+                final Amf0Object keyframeObject = new Amf0Object();
+                keyframeObject.put("times", times);
+                keyframeObject.put("filepositions", positions);
+                metadata.setValue("keyframes", keyframeObject);
+            }
+            final int tagSize = FlvAtom.TAG_OVERHEAD + metadata.encode().readableBytes();
+            final long shift = tagSize - oldTagSize;
+            for(int i = 0; i < positions.length; i++) {
+                positions[i] = (double) (keyframes.getPosition(i) + shift);
+            }
+            metadata.setValue("filesize", (double) (size + shift));
+            final ChannelBuffer data = metadata.encode();
+            if(FlvAtom.TAG_OVERHEAD + data.readableBytes() != tagSize) {
+                throw new RuntimeException("onMetaData size changed while filling in values");
+            }
+            out = new FileOutputStream(temp).getChannel();
+            transfer(in, 0, FLV_HEADER_SIZE, out);
+            final ByteBuffer tag = new FlvAtom(MessageType.METADATA_AMF0, 0, data).write().toByteBuffer();
+            while(tag.hasRemaining()) {
+                out.write(tag);
+            }
+            transfer(in, FLV_HEADER_SIZE + oldTagSize, size - FLV_HEADER_SIZE - oldTagSize, out);
+            out.force(false);
+            out.close();
+            out = null;
+            in.close();
+            in = null;
+            if(!temp.renameTo(file)) {
+                file.delete();
+                if(!temp.renameTo(file)) {
+                    throw new RuntimeException("unable to rename " + temp);
+                }
+            }
+            logger.info("fast start rewrite of {} in {} ms, keyframes: {}", new Object[] {
+                file, System.currentTimeMillis() - start, keyframes.size()});
+            return true;
+        } catch(Exception e) {
+            logger.warn("fast start rewrite failed, keeping {} as recorded: {}", file, e.getMessage());
+            temp.delete();
+            return false;
+        } finally {
+            close(in);
+            close(out);
+        }
+    }
+
+    private static void transfer(final FileChannel in, long position, long count,
+            final FileChannel out) throws Exception {
+        while(count > 0) {
+            final long transferred = in.transferTo(position, count, out);
+            if(transferred <= 0) {
+                throw new RuntimeException("unexpected end of file at: " + position);
+            }
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static void close(final Closeable closeable) {
+        if(closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch(Exception e) {
+            logger.warn("error closing: {}", e.getMessage());
+        }
+    }
+
+}
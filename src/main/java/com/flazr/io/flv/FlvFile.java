@@ -0,0 +1,138 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.flv;
+
+import com.flazr.io.AbstractMediaFile;
+import com.flazr.io.BufferReader;
+import com.flazr.io.BufferReaders;
+import com.flazr.io.MediaFileCache;
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.message.MessageType;
+import com.flazr.rtmp.message.Metadata;
+import com.flazr.rtmp.message.MetadataAmf0;
+import java.io.File;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the part of an flv file all readers of it can share: the open file, which
+ * is only ever read positionally, the onMetaData tag and the keyframe index,
+ * each FlvReader is just a cursor over this
+ *
+ * reference counted, the file is closed when the last user calls release()
+ */
+public class FlvFile extends AbstractMediaFile {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlvFile.class);
+
+    private static final int FLV_HEADER_SIZE = 13; // including first previous tag size
+
+    private final BufferReader in;
+    private final long mediaStartPosition;
+    private final RtmpHeader metadataHeader;
+    private final ChannelBuffer metadataData;
+    private volatile FlvIndex index;
+
+    public static final MediaFileCache.Loader<FlvFile> LOADER = new MediaFileCache.Loader<FlvFile>() {
+        @Override public FlvFile load(final File file) {
+            return new FlvFile(file);
+        }
+    };
+
+    public FlvFile(final String path) {
+        this(new File(path));
+    }
+
+    public FlvFile(final File file) {
+        super(file);
+        in = BufferReaders.open(file);
+        try {
+            final RtmpHeader header = in.size() > FLV_HEADER_SIZE
+                    ? FlvAtom.readHeader(in, FLV_HEADER_SIZE) : null;
+            if(header != null && header.isMetadata()) {
+                metadataHeader = header;
+                metadataData = in.read(FLV_HEADER_SIZE + 11, header.getSize());
+                mediaStartPosition = FLV_HEADER_SIZE + FlvAtom.TAG_OVERHEAD + header.getSize();
+            } else {
+                logger.warn("flv file does not start with 'onMetaData', using empty one");
+                metadataHeader = null;
+                metadataData = null;
+                mediaStartPosition = FLV_HEADER_SIZE;
+            }
+        } catch(RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * shared, so only use the positional reads on this
+     */
+    public BufferReader getReader() {
+        return in;
+    }
+
+    public long getMediaStartPosition() {
+        return mediaStartPosition;
+    }
+
+    /**
+     * @return a new instance each time as sending a message changes its header
+     */
+    public Metadata newMetadata() {
+        if(metadataHeader == null) {
+            return new MetadataAmf0("onMetaData");
+        }
+        return (Metadata) MessageType.decode(new RtmpHeader(metadataHeader), metadataData.duplicate());
+    }
+
+    /**
+     * built on the first seek, not on open, so plain playback never scans
+     */
+    public synchronized FlvIndex getIndex() {
+        if(index == null) {
+            index = FlvIndex.load(file, in, newMetadata(), mediaStartPosition);
+        }
+        return index;
+    }
+
+    @Override
+    public long getMemorySize() {
+        final FlvIndex current = index; // no lock, the cache must not wait for a scan
+        long size = 256 + (metadataData == null ? 0 : metadataData.capacity());
+        if(current != null) {
+            size += current.size() * 12L;
+        }
+        return size;
+    }
+
+    @Override
+    public FlvFile retain() {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    protected void close() {
+        in.close();
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.flv;
+
+import com.flazr.io.BufferReader;
+import com.flazr.rtmp.message.MessageType;
+import com.flazr.rtmp.message.Metadata;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * seek points of an flv file: time and file position of every video
+ * keyframe, or of the first tag of every second if there is no video
+ */
+public class FlvIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlvIndex.class);
+
+    public static final String SIDECAR_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x464C5649; // FLVI
+    private static final int VERSION = 1;
+
+    private final int[] times;
+    private final long[] positions;
+
+    public FlvIndex(final int[] times, final long[] positions) {
+        if(times.length != positions.length) {
+            throw new IllegalArgumentException("times and positions differ in length");
+        }
+        this.times = times;
+        this.positions = positions;
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    public int getTime(final int index) {
+        return times[index];
+    }
+
+    public long getPosition(final int index) {
+        return positions[index];
+    }
+
+    /**
+     * @return index of the last seek point at or before time, the first one
+     * if time is before all of them, or -1 if the index is empty
+     */
+    public int find(final long time) {
+        if(times.length == 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = times.length - 1;
+        while(low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if(times[mid] <= time) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    //==========================================================================
+
+    /**
+     * uses the sidecar file if it matches the flv size and modification time,
+     * else the 'keyframes' object in onMetaData if it looks sane, else scans
+     * the tag headers and writes a new sidecar for the next time
+     */
+    public static FlvIndex load(final File file, final BufferReader in,
+            final Metadata metadata, final long mediaStartPosition) {
+        final File sidecar = new File(file.getPath() + SIDECAR_SUFFIX);
+        FlvIndex index = read(sidecar, file);
+        if(index != null) {
+            logger.debug("loaded index from sidecar: {}", sidecar);
+            return index;
+        }
+        index = fromMetadata(metadata, in, mediaStartPosition);
+        if(index != null) {
+            logger.debug("loaded index from metadata, seek points: {}", index.size());
+            return index;
+        }
+        final long start = System.currentTimeMillis();
+        index = scan(in, mediaStartPosition);
+        logger.info("indexed {} in {} ms, seek points: {}", new Object[] {
+            file, System.currentTimeMillis() - start, index.size()});
+        index.write(sidecar, file);
+        return index;
+    }
+
+    /**
+     * reads only tag headers and the first data byte of video tags, all
+     * reads here are positional so a shared reader is fine
+     */
+    public static FlvIndex scan(final BufferReader in, final long mediaStartPosition) {
+        final Builder keyframes = new Builder();
+        final Builder seconds = new Builder();
+        final ChannelBuffer temp = ChannelBuffers.buffer(12);
+        long position = mediaStartPosition;
+        final long size = in.size();
+        while(position + 12 <= size) {
+            temp.clear();
+            in.read(position, temp, 12); // header + first data byte (or trailer)
+            final MessageType type = MessageType.valueToEnum(temp.getByte(0));
+            final int dataSize = temp.getMedium(1);
+            final int time = temp.getMedium(4); // same as FlvAtom.readHeader()
+            if(type == MessageType.VIDEO && dataSize > 0
+                    && (temp.getByte(11) & 0xF0) == 0x10) {
+                keyframes.add(time, position);
+            }
+            if(seconds.size == 0 || time / 1000 > seconds.times[seconds.size - 1] / 1000) {
+                seconds.add(time, position);
+            }
+            position += FlvAtom.TAG_OVERHEAD + dataSize;
+        }
+        return keyframes.size > 0 ? keyframes.build() : seconds.build();
+    }
+
+    /**
+     * @return index from the onMetaData 'keyframes' object written by tools
+     * like yamdi and flvtool2, or null if absent or not pointing at video tags
+     */
+    public static FlvIndex fromMetadata(final Metadata metadata,
+            final BufferReader in, final long mediaStartPosition) {
+        final Object keyframes = metadata.getValue("keyframes");
+        if(!(keyframes instanceof Map)) {
+            return null;
+        }
+        final Map<?, ?> map = (Map<?, ?>) keyframes;
+        if(!(map.get("times") instanceof Object[]) || !(map.get("filepositions") instanceof Object[])) {
+            return null;
+        }
+        final Object[] timeValues = (Object[]) map.get("times");
+        final Object[] positionValues = (Object[]) map.get("filepositions");
+        if(timeValues.length == 0 || timeValues.length != positionValues.length) {
+            return null;
+        }
+        final int[] times = new int[timeValues.length];
+        final long[] positions = new long[timeValues.length];
+        long previous = mediaStartPosition - 1;
+        for(int i = 0; i < times.length; i++) {
+            if(!(timeValues[i] instanceof Number) || !(positionValues[i] instanceof Number)) {
+                return null;
+            }
+            times[i] = (int) Math.round(((Number) timeValues[i]).doubleValue() * 1000);
+            positions[i] = ((Number) positionValues[i]).longValue();
+            if(positions[i] <= previous || positions[i] + 11 > in.size()) {
+                logger.warn("ignoring onMetaData keyframes, bad file position: {}", positions[i]);
+                return null;
+            }
+            previous = positions[i];
+        }
+        if(!isVideoTag(in, positions[0]) || !isVideoTag(in, positions[positions.length - 1])) {
+            logger.warn("ignoring onMetaData keyframes, file positions are not video tags");
+            return null;
+        }
+        return new FlvIndex(times, positions);
+    }
+
+    private static boolean isVideoTag(final BufferReader in, final long position) {
+        return in.read(position, 1).getByte(0) == MessageType.VIDEO.intValue();
+    }
+
+    //==========================================================================
+
+    /**
+     * @return the index stored in the sidecar, or null if missing or stale
+     */
+    public static FlvIndex read(final File sidecar, final File file) {
+        if(!sidecar.exists()) {
+            return null;
+        }
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+            if(dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                logger.warn("ignoring sidecar of unknown format: {}", sidecar);
+                return null;
+            }
+            if(dis.readLong() != file.length() || dis.readLong() != file.lastModified()) {
+                logger.debug("ignoring stale sidecar: {}", sidecar);
+                return null;
+            }
+            final int count = dis.readInt();
+            final int[] times = new int[count];
+            final long[] positions = new long[count];
+            for(int i = 0; i < count; i++) {
+                times[i] = dis.readInt();
+                positions[i] = dis.readLong();
+            }
+            return new FlvIndex(times, positions);
+        } catch(Exception e) {
+            logger.warn("error reading sidecar {}: {}", sidecar, e.getMessage());
+            return null;
+        } finally {
+            close(dis);
+        }
+    }
+
+    /**
+     * writes to a temp file and renames so concurrent readers never see a
+     * partial sidecar, failure e.g. for a read only directory is only logged
+     */
+    public void write(final File sidecar, final File file) {
+        final File temp = new File(sidecar.getPath() + ".tmp");
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(file.length());
+            dos.writeLong(file.lastModified());
+            dos.writeInt(times.length);
+            for(int i = 0; i < times.length; i++) {
+                dos.writeInt(times[i]);
+                dos.writeLong(positions[i]);
+            }
+            dos.close();
+            dos = null;
+            if(!temp.renameTo(sidecar)) {
+                sidecar.delete();
+                if(!temp.renameTo(sidecar)) {
+                    throw new RuntimeException("unable to rename " + temp);
+                }
+            }
+            logger.debug("wrote sidecar: {}", sidecar);
+        } catch(Exception e) {
+            logger.warn("unable to write sidecar {}: {}", sidecar, e.getMessage());
+            temp.delete();
+        } finally {
+            close(dos);
+        }
+    }
+
+    private static void close(final Closeable closeable) {
+        if(closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch(Exception e) {
+            logger.warn("error closing: {}", e.getMessage());
+        }
+    }
+
+    static class Builder {
+
+        private int[] times = new int[64];
+        private long[] positions = new long[64];
+        private int size;
+
+        public void add(final int time, final long position) {
+            if(size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            times[size] = time;
+            positions[size] = position;
+            size++;
+        }
+
+        public FlvIndex build() {
+            return new FlvIndex(Arrays.copyOf(times, size), Arrays.copyOf(positions, size));
+        }
+
+    }
+
+}
@@ -20,42 +20,47 @@
 package com.flazr.io.flv;
 
 import com.flazr.io.BufferReader;
-import com.flazr.io.FileChannelReader;
+import com.flazr.rtmp.RtmpHeader;
 import com.flazr.rtmp.RtmpMessage;
 import com.flazr.rtmp.RtmpReader;
 import com.flazr.rtmp.message.Aggregate;
-import com.flazr.rtmp.message.MessageType;
 import com.flazr.rtmp.message.Metadata;
-import com.flazr.rtmp.message.MetadataAmf0;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * a cursor over an FlvFile, only the position is per reader so any number
+ * of readers can share one open file, see FlvReader(FlvFile)
+ */
 public class FlvReader implements RtmpReader {
 
     private static final Logger logger = LoggerFactory.getLogger(FlvReader.class);
     
+    private final FlvFile file;
     private final BufferReader in;
+    private final FlvTagReader tags;
     private final long mediaStartPosition;
     private final Metadata metadata;
+    private long position;
     private int aggregateDuration;    
 
     public FlvReader(final String path) {
-        in = new FileChannelReader(path);
-        in.position(13); // skip flv header
-        final RtmpMessage metadataAtom = next();
-        final RtmpMessage metadataTemp = 
-                MessageType.decode(metadataAtom.getHeader(), metadataAtom.encode());
-        if(metadataTemp.getHeader().isMetadata()) {
-            metadata = (Metadata) metadataTemp;
-            mediaStartPosition = in.position();
-        } else {
-            logger.warn("flv file does not start with 'onMetaData', using empty one");
-            metadata = new MetadataAmf0("onMetaData");
-            in.position(13);
-            mediaStartPosition = 13;
-        }
+        this(new FlvFile(path));
+        file.release(); // this reader now holds the only reference
+    }
+
+    /**
+     * shares the open file, which stays open until every reader is closed
+     */
+    public FlvReader(final FlvFile file) {
+        this.file = file.retain();
+        in = file.getReader();
+        tags = new FlvTagReader(in);
+        mediaStartPosition = file.getMediaStartPosition();
+        metadata = file.newMetadata();
+        position = mediaStartPosition;
         logger.debug("flv file metadata: {}", metadata);
     }
 
@@ -74,94 +79,52 @@ public class FlvReader implements RtmpReader {
         this.aggregateDuration = targetDuration;
     }
 
+    public FlvIndex getIndex() {
+        return file.getIndex();
+    }
+
     @Override
     public long getTimePosition() {
-        final int time;
         if(hasNext()) {
-            time = next().getHeader().getTime();
-            prev();
+            return tags.readHeader(position).getTime();
         } else if(hasPrev()) {
-            time = prev().getHeader().getTime();
-            next();
-        } else {
-            throw new RuntimeException("not seekable");
+            return tags.readHeader(tags.prevPosition(position)).getTime();
         }
-        return time;
-    }
-
-    private static boolean isSyncFrame(final RtmpMessage message) {
-        final byte firstByte = message.encode().getByte(0);
-        if((firstByte & 0xF0) == 0x10) {
-            return true;
-        }
-        return false;
+        throw new RuntimeException("not seekable");
     }
 
     @Override
     public long seek(final long time) {
         logger.debug("trying to seek to: {}", time);
         if(time == 0) { // special case
-            try {
-                in.position(mediaStartPosition);
-                return 0;
-            } catch(Exception e) {
-                throw new RuntimeException(e);
-            }
+            position = mediaStartPosition;
+            return 0;
         }
-        final long start = getTimePosition();        
-        if(time > start) {
-            while(hasNext()) {
-                final RtmpMessage cursor = next();
-                if(cursor.getHeader().getTime() >= time) {                    
-                    break;
-                }
-            }
-        } else {
-            while(hasPrev()) {
-                final RtmpMessage cursor = prev();
-                if(cursor.getHeader().getTime() <= time) {
-                    next();
-                    break;
-                }
-            }
-        }
-        // find the closest sync frame prior
-        try {
-            final long checkPoint = in.position();
-            while(hasPrev()) {
-                final RtmpMessage cursor = prev();
-                if(cursor.getHeader().isVideo() && isSyncFrame(cursor)) {
-                    logger.debug("returned seek frame / position: {}", cursor);
-                    return cursor.getHeader().getTime();
-                }
-            }
-            // could not find a sync frame !
-            // TODO better handling, what if file is audio only
-            in.position(checkPoint);
-            return getTimePosition();
-        } catch(Exception e) {
-            throw new RuntimeException(e);
+        final FlvIndex seekPoints = getIndex();
+        final int found = seekPoints.find(time);
+        if(found == -1) { // no media at all
+            position = mediaStartPosition;
+            return 0;
         }
+        position = seekPoints.getPosition(found);
+        // not through the window, the next() after the seek fills that
+        final int seekTime = FlvAtom.readHeader(in, position).getTime();
+        logger.debug("returned seek position: {} time: {}", position, seekTime);
+        return seekTime;
     }
 
     @Override
     public boolean hasNext() {        
-        return in.position() < in.size();
+        return position < in.size();
     }
 
-
     protected boolean hasPrev() {        
-        return in.position() > mediaStartPosition;
+        return position > mediaStartPosition;
     }
 
     protected RtmpMessage prev() {        
-        final long oldPos = in.position();
-        in.position(oldPos - 4);
-        final long newPos = oldPos - 4 - in.readInt();
-        in.position(newPos);
-        final FlvAtom flvAtom = new FlvAtom(in);
-        in.position(newPos);
-        return flvAtom;
+        position = tags.prevPosition(position);
+        return tags.readAtom(position);
     }
 
     private static final int AGGREGATE_SIZE_LIMIT = 65536;
@@ -169,22 +132,26 @@ public class FlvReader implements RtmpReader {
     @Override
     public RtmpMessage next() {
         if(aggregateDuration <= 0) {
-            return new FlvAtom(in);
+            final FlvAtom atom = tags.readAtom(position);
+            position += atom.getEncodedSize();
+            return atom;
         }
         final ChannelBuffer out = ChannelBuffers.dynamicBuffer();
         int firstAtomTime = -1;
         while(hasNext()) {
-            final FlvAtom flvAtom = new FlvAtom(in);
-            final int currentAtomTime = flvAtom.getHeader().getTime();
+            final RtmpHeader header = tags.readHeader(position);
+            final int currentAtomTime = header.getTime();
             if(firstAtomTime == -1) {
                 firstAtomTime = currentAtomTime;
             }
-            final ChannelBuffer temp = flvAtom.write();
-            if(out.readableBytes() + temp.readableBytes() > AGGREGATE_SIZE_LIMIT) {
-                prev();
+            if(out.readableBytes() + FlvAtom.TAG_OVERHEAD + header.getSize() > AGGREGATE_SIZE_LIMIT) {
                 break;
             }
-            out.writeBytes(temp);
+            // tag data goes straight from the file into the aggregate
+            FlvAtom.writeHeader(out, header);
+            out.writeBytes(tags.readData(position, header));
+            FlvAtom.writeTrailer(out, header);
+            position += FlvAtom.TAG_OVERHEAD + header.getSize();
             if(currentAtomTime - firstAtomTime > aggregateDuration) {
                 break;
             }
@@ -194,7 +161,7 @@ public class FlvReader implements RtmpReader {
 
     @Override
     public void close() {
-        in.close();
+        file.release();
     }
 
     public static void main(String[] args) {
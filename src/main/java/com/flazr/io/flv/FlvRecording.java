@@ -0,0 +1,262 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.flv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * what a FlvWriter shares with the readers following the file it is
+ * still writing, see FlvTailReader: how many bytes of complete tags are on
+ * disk, with wake ups for readers waiting on that, and the keyframes so
+ * far, so that seeking never has to scan the growing file
+ *
+ * the writer registers it by file for the duration of the recording, the
+ * keyframes may be ahead of the size, find() only looks at those within
+ *
+ * a registered recording also keeps an empty marker file next to the file,
+ * so that another process can tell the file is still being written, see
+ * isMarked(), a marker left behind by a crash only means that readers
+ * follow the file until it has not grown for 'server.tail.timeout'
+ */
+public class FlvRecording {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlvRecording.class);
+
+    public static final String MARKER_SUFFIX = ".recording";
+
+    private static final ConcurrentMap<String, FlvRecording> RECORDINGS =
+            new ConcurrentHashMap<String, FlvRecording>();
+
+    private final String key;
+    private final File marker; // null if not registered
+    private long size; // all guarded by this
+    private boolean finished;
+    private int[] times = new int[64];
+    private long[] positions = new long[64];
+    private int count;
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+
+    public FlvRecording() {
+        this(null, null);
+    }
+
+    private FlvRecording(final String key, final File marker) {
+        this.key = key;
+        this.marker = marker;
+    }
+
+    /**
+     * registers a new recording of file, replacing any earlier one
+     */
+    public static FlvRecording start(final File file) {
+        final String key = getKey(file);
+        final FlvRecording recording = new FlvRecording(key, getMarker(file));
+        final FlvRecording previous = RECORDINGS.put(key, recording);
+        if(previous != null) {
+            previous.finish(); // removes the marker, so before creating it again
+        }
+        try {
+            recording.marker.createNewFile();
+        } catch(IOException e) {
+            logger.warn("could not create marker for {}: {}", file, e.getMessage());
+        }
+        return recording;
+    }
+
+    /**
+     * @return the recording of file if being written in this process, else null
+     */
+    public static FlvRecording get(final File file) {
+        return RECORDINGS.get(getKey(file));
+    }
+
+    /**
+     * @return true if the file is being recorded, in this process or another
+     */
+    public static boolean isMarked(final File file) {
+        return getMarker(file).exists();
+    }
+
+    private static File getMarker(final File file) {
+        return new File(file.getPath() + MARKER_SUFFIX);
+    }
+
+    private static String getKey(final File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch(Exception e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * bytes of complete tags now on disk, wakes up waiting readers
+     */
+    public void setSize(final long size) {
+        final List<Runnable> woken;
+        synchronized(this) {
+            if(size <= this.size) {
+                return;
+            }
+            this.size = size;
+            notifyAll();
+            woken = takeListeners();
+        }
+        run(woken);
+    }
+
+    /**
+     * runs listener once, on the thread that makes the size grow past
+     * knownSize or finishes the recording, or right away if that has happened
+     */
+    public void addListener(final long knownSize, final Runnable listener) {
+        synchronized(this) {
+            if(size <= knownSize && !finished) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    private List<Runnable> takeListeners() {
+        if(listeners.isEmpty()) {
+            return null;
+        }
+        final List<Runnable> woken = listeners;
+        listeners = new ArrayList<Runnable>();
+        return woken;
+    }
+
+    private static void run(final List<Runnable> woken) {
+        if(woken != null) {
+            for(final Runnable listener : woken) {
+                listener.run();
+            }
+        }
+    }
+
+    public synchronized void addKeyframe(final int time, final long position) {
+        if(count == times.length) {
+            times = Arrays.copyOf(times, count * 2);
+            positions = Arrays.copyOf(positions, count * 2);
+        }
+        times[count] = time;
+        positions[count] = position;
+        count++;
+    }
+
+    /**
+     * no more growth, wakes up waiting readers and unregisters
+     */
+    public void finish() {
+        final List<Runnable> woken;
+        final boolean first;
+        synchronized(this) {
+            first = !finished;
+            finished = true;
+            if(key != null) {
+                RECORDINGS.remove(key, this);
+            }
+            notifyAll();
+            woken = takeListeners();
+        }
+        if(first && marker != null) {
+            marker.delete();
+        }
+        run(woken);
+    }
+
+    /**
+     * @return the size once more than knownSize, or whatever it is when
+     * finished or after waiting timeout milliseconds
+     */
+    public synchronized long await(final long knownSize, final long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while(size <= knownSize && !finished) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0) {
+                break;
+            }
+            wait(remaining);
+        }
+        return size;
+    }
+
+    /**
+     * @return file position of the last keyframe at or before time within
+     * the size, the first one if time is before all, or -1 if there is none
+     */
+    public synchronized long find(final long time) {
+        final int available = count(size);
+        if(available == 0) {
+            return -1;
+        }
+        int low = 0;
+        int high = available - 1;
+        while(low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if(times[mid] <= time) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return positions[low];
+    }
+
+    /**
+     * @return number of keyframes before limit, positions only ever grow
+     */
+    private int count(final long limit) {
+        int low = 0;
+        int high = count;
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            if(positions[mid] < limit) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public synchronized int getKeyframeCount() {
+        return count;
+    }
+
+}
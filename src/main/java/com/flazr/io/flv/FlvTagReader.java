@@ -0,0 +1,132 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.flv;
+
+import com.flazr.io.BufferReader;
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.message.MessageType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+/**
+ * reads flv tags through a window over the file, tags are parsed straight
+ * out of the window and their data is a slice of it, so the common case
+ * costs one read per window and no copy
+ *
+ * every refill reads into a new window instead of reusing the old one, the
+ * slices handed out stay valid for as long as the messages are queued
+ *
+ * not shared, one per cursor, the BufferReader only needs positional reads
+ */
+public class FlvTagReader {
+
+    public static final int DEFAULT_WINDOW_SIZE = 262144;
+
+    private static final int HEADER_SIZE = 11;
+
+    private final BufferReader in;
+    private final int windowSize;
+    private final ChannelBuffer headerBuffer = ChannelBuffers.buffer(HEADER_SIZE); // reused
+    private ChannelBuffer window;
+    private long windowStart;
+    private long reads;
+
+    public FlvTagReader(final BufferReader in) {
+        this(in, DEFAULT_WINDOW_SIZE);
+    }
+
+    public FlvTagReader(final BufferReader in, final int windowSize) {
+        this.in = in;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return true if the range is in the window after this, false if it is
+     * larger than a window, going backwards fills the window so that it
+     * ends where the range ends
+     */
+    private boolean fill(final long position, final int size, final boolean backwards) {
+        if(window != null && position >= windowStart
+                && position + size <= windowStart + window.capacity()) {
+            return true;
+        }
+        if(size > windowSize) {
+            return false;
+        }
+        final long start = backwards ? Math.max(0, position + size - windowSize) : position;
+        final int length = (int) Math.min(windowSize, in.size() - start);
+        window = in.read(start, length); // a slice if mapped
+        windowStart = start;
+        reads++;
+        return true;
+    }
+
+    private int index(final long position) {
+        return (int) (position - windowStart);
+    }
+
+    public RtmpHeader readHeader(final long position) {
+        if(!fill(position, HEADER_SIZE, false)) {
+            return FlvAtom.readHeader(in, position, headerBuffer);
+        }
+        final int index = index(position);
+        final MessageType messageType = MessageType.valueToEnum(window.getByte(index));
+        final int size = window.getMedium(index + 1);
+        final int time = window.getMedium(index + 4); // same as FlvAtom.readHeader()
+        return new RtmpHeader(messageType, time, size);
+    }
+
+    /**
+     * @return the data of the tag at position as a slice of the window,
+     * header is the one read for that tag
+     */
+    public ChannelBuffer readData(final long position, final RtmpHeader header) {
+        final long dataPosition = position + HEADER_SIZE;
+        if(!fill(dataPosition, header.getSize(), false)) {
+            return in.read(dataPosition, header.getSize());
+        }
+        return window.slice(index(dataPosition), header.getSize());
+    }
+
+    public FlvAtom readAtom(final long position) {
+        final RtmpHeader header = readHeader(position);
+        return new FlvAtom(header.getMessageType(), header.getTime(), readData(position, header));
+    }
+
+    /**
+     * @return position of the tag before the one at position, from the
+     * previous tag size in front of it, when walking back the window is
+     * filled so that it ends at position and holds that whole tag
+     */
+    public long prevPosition(final long position) {
+        fill(position - 4, 4, true);
+        final long tagPosition = position - 4 - window.getInt(index(position - 4));
+        fill(tagPosition, (int) (position - tagPosition), true);
+        return tagPosition;
+    }
+
+    /**
+     * @return number of reads done so far, for tests and tuning
+     */
+    public long getReadCount() {
+        return reads;
+    }
+
+}
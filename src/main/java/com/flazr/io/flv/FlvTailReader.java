@@ -0,0 +1,274 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.flv;
+
+import com.flazr.io.FileChannelReader;
+import com.flazr.rtmp.GrowingReader;
+import com.flazr.rtmp.RtmpConfig;
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.message.Aggregate;
+import com.flazr.rtmp.message.MessageType;
+import com.flazr.rtmp.message.Metadata;
+import com.flazr.rtmp.message.MetadataAmf0;
+import java.io.File;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * plays an flv file that is still being written, once hasNext() is false
+ * waitForMore() says when to look again instead of ending at the size seen
+ * on open, neither ever blocks
+ *
+ * when the file is recorded in this process the FlvRecording of the writer
+ * says how far complete tags go, wakes the player up as they are written and
+ * has the keyframes so far for seek(), else the file size is polled and the
+ * keyframes are picked up from each new stretch of the file as it appears,
+ * either way nothing is read twice and seek() is a binary search
+ *
+ * the stream ends once the recording is finished (when polling: its marker
+ * file is gone, see FlvRecording.isMarked()) and read, or when the file has
+ * not grown for 'server.tail.timeout' milliseconds
+ */
+public class FlvTailReader implements GrowingReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlvTailReader.class);
+
+    private final File file;
+    private final FileChannelReader in;
+    private final FlvTagReader tags;
+    private final FlvRecording recording;
+    private final boolean polling;
+    private final long mediaStartPosition;
+    private final Metadata metadata;
+    private final long timeout;
+    private final long pollInterval;
+    private final ChannelBuffer temp = ChannelBuffers.buffer(12); // scan() only
+    private long limit; // end of complete tags known so far
+    private long scanPosition; // polling only, keyframes found up to here
+    private long position;
+    private long lastGrowth; // when limit last moved
+    private int aggregateDuration;
+
+    public FlvTailReader(final File file) {
+        this(file, FlvRecording.get(file));
+    }
+
+    /**
+     * @param recording null to poll the file size
+     */
+    public FlvTailReader(final File file, final FlvRecording recording) {
+        this.file = file;
+        this.polling = recording == null;
+        this.recording = polling ? new FlvRecording() : recording;
+        this.timeout = RtmpConfig.SERVER_TAIL_TIMEOUT;
+        this.pollInterval = RtmpConfig.SERVER_TAIL_POLL_INTERVAL;
+        in = new FileChannelReader(file); // not through the block cache, the end of the file changes
+        tags = new FlvTagReader(in);
+        limit = FlvFastStart.FLV_HEADER_SIZE;
+        scanPosition = FlvFastStart.FLV_HEADER_SIZE;
+        lastGrowth = System.currentTimeMillis();
+        refresh();
+        if(fits(FlvFastStart.FLV_HEADER_SIZE) && tags.readHeader(FlvFastStart.FLV_HEADER_SIZE).isMetadata()) {
+            final FlvAtom atom = tags.readAtom(FlvFastStart.FLV_HEADER_SIZE);
+            metadata = (Metadata) MessageType.decode(new RtmpHeader(atom.getHeader()), atom.getData());
+            mediaStartPosition = FlvFastStart.FLV_HEADER_SIZE + atom.getEncodedSize();
+        } else {
+            logger.info("no 'onMetaData' written yet, using empty one");
+            metadata = new MetadataAmf0("onMetaData");
+            mediaStartPosition = FlvFastStart.FLV_HEADER_SIZE;
+        }
+        position = mediaStartPosition;
+        logger.info("following {}, {}", file, polling ? "polling" : "notified by writer");
+    }
+
+    /**
+     * picks up what was written since the last call, no waiting
+     */
+    private void refresh() {
+        final long size = polling ? in.getFileSize() : recording.getSize();
+        if(size <= limit) {
+            return;
+        }
+        limit = size;
+        lastGrowth = System.currentTimeMillis();
+        in.setSize(size); // the tag reader never reads past what is complete
+        if(polling) {
+            scan();
+        }
+    }
+
+    /**
+     * header and first data byte of each new complete tag, same as FlvIndex.scan()
+     */
+    private void scan() {
+        while(scanPosition + FlvAtom.TAG_OVERHEAD <= limit) {
+            temp.clear();
+            in.read(scanPosition, temp, 12); // not through the window, that stays where playing
+            final int dataSize = temp.getMedium(1);
+            if(scanPosition + FlvAtom.TAG_OVERHEAD + dataSize > limit) {
+                break;
+            }
+            if(temp.getByte(0) == MessageType.VIDEO.intValue() && dataSize > 0
+                    && (temp.getByte(11) & 0xF0) == 0x10) {
+                recording.addKeyframe(temp.getMedium(4), scanPosition);
+            }
+            scanPosition += FlvAtom.TAG_OVERHEAD + dataSize;
+        }
+        recording.setSize(scanPosition);
+    }
+
+    /**
+     * @return true if the whole tag at position is within what is known
+     */
+    private boolean fits(final long tagPosition) {
+        if(tagPosition + FlvAtom.TAG_OVERHEAD > limit) {
+            return false;
+        }
+        final int size = tags.readHeader(tagPosition).getSize();
+        return tagPosition + FlvAtom.TAG_OVERHEAD + size <= limit;
+    }
+
+    private boolean available() {
+        if(fits(position)) {
+            return true;
+        }
+        refresh();
+        return fits(position);
+    }
+
+    @Override
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public RtmpMessage[] getStartMessages() {
+        return new RtmpMessage[] { metadata };
+    }
+
+    @Override
+    public void setAggregateDuration(final int targetDuration) {
+        this.aggregateDuration = targetDuration;
+    }
+
+    @Override
+    public long getTimePosition() {
+        if(available()) {
+            return tags.readHeader(position).getTime();
+        } else if(position > mediaStartPosition) {
+            return tags.readHeader(tags.prevPosition(position)).getTime();
+        }
+        return 0;
+    }
+
+    /**
+     * to the last keyframe written at or before time, so past the end is
+     * the live edge
+     */
+    @Override
+    public long seek(final long time) {
+        refresh();
+        final long found = time == 0 ? -1 : recording.find(time);
+        if(found == -1) {
+            position = mediaStartPosition;
+            return 0;
+        }
+        position = found;
+        final int seekTime = FlvAtom.readHeader(in, position).getTime();
+        logger.debug("returned seek position: {} time: {}", position, seekTime);
+        return seekTime;
+    }
+
+    /**
+     * never waits, see waitForMore()
+     */
+    @Override
+    public boolean hasNext() {
+        return available();
+    }
+
+    /**
+     * registers wakeUp with the recording of the writer, if polling the
+     * caller just tries again after the poll interval
+     */
+    @Override
+    public long waitForMore(final Runnable wakeUp) {
+        if(available()) {
+            return 0;
+        }
+        if(polling ? !FlvRecording.isMarked(file) : recording.isFinished()) {
+            refresh();
+            return fits(position) ? 0 : -1;
+        }
+        final long idle = System.currentTimeMillis() - lastGrowth;
+        if(idle >= timeout) {
+            logger.info("file did not grow for {} ms, ending", timeout);
+            return -1;
+        }
+        if(polling) {
+            return Math.min(pollInterval, timeout - idle);
+        }
+        recording.addListener(limit, wakeUp);
+        return timeout - idle;
+    }
+
+    private static final int AGGREGATE_SIZE_LIMIT = 65536;
+
+    /**
+     * aggregates only take what is already written, they never wait
+     */
+    @Override
+    public RtmpMessage next() {
+        if(aggregateDuration <= 0) {
+            final FlvAtom atom = tags.readAtom(position);
+            position += atom.getEncodedSize();
+            return atom;
+        }
+        final ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+        int firstAtomTime = -1;
+        while(available()) {
+            final RtmpHeader header = tags.readHeader(position);
+            final int currentAtomTime = header.getTime();
+            if(firstAtomTime == -1) {
+                firstAtomTime = currentAtomTime;
+            }
+            if(out.readableBytes() + FlvAtom.TAG_OVERHEAD + header.getSize() > AGGREGATE_SIZE_LIMIT) {
+                break;
+            }
+            FlvAtom.writeHeader(out, header);
+            out.writeBytes(tags.readData(position, header));
+            FlvAtom.writeTrailer(out, header);
+            position += FlvAtom.TAG_OVERHEAD + header.getSize();
+            if(currentAtomTime - firstAtomTime > aggregateDuration) {
+                break;
+            }
+        }
+        return new Aggregate(firstAtomTime, out);
+    }
+
+    @Override
+    public void close() {
+        in.close();
+    }
+
+}
@@ -21,26 +21,48 @@ package com.flazr.io.flv;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.flazr.io.AsyncFileWriter;
+import com.flazr.io.BufferPool;
 import com.flazr.rtmp.RtmpHeader;
 import com.flazr.rtmp.RtmpMessage;
 import com.flazr.rtmp.RtmpWriter;
+import com.flazr.rtmp.message.MessageType;
+import com.flazr.rtmp.message.Video;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 
 public class FlvWriter implements RtmpWriter {
 
     private static final Logger logger = LoggerFactory.getLogger(FlvWriter.class);
 
     private final FileChannel out;
+    private final String fileName;
     private final int[] channelTimes = new int[RtmpHeader.MAX_CHANNEL_ID];
     private int primaryChannel = -1;
     private int lastLoggedSeconds;
     private final int seekTime;
     private final long startTime;  
+    private AsyncFileWriter writeBehind;
+    private long queueLimit;
+    private boolean waitingForKeyframe;
+    private boolean closed;
+    private long droppedCount;
+    private long position;
+    private FlvIndex.Builder keyframes;
+    private ChannelBuffer metadataData;
+    private int lastTime;
+    private int timeOffset;
+    private FlvRecording recording;
+    private long writeBehindStart;
+    private final CountDownLatch finished = new CountDownLatch(1);
 
     public FlvWriter(final String fileName) {
         this(0, fileName);
@@ -49,6 +71,7 @@ public class FlvWriter implements RtmpWriter {
     public FlvWriter(final int seekTime, final String fileName) {
         this.seekTime = seekTime < 0 ? 0 : seekTime;
         this.startTime = System.currentTimeMillis();
+        this.fileName = fileName;
         if(fileName == null) {
             logger.info("save file notspecified, will only consume stream");
             out = null;
@@ -58,21 +81,112 @@ public class FlvWriter implements RtmpWriter {
             File file = new File(fileName);
             FileOutputStream fos = new FileOutputStream(file);
             out = fos.getChannel();
-            out.write(FlvAtom.flvHeader().toByteBuffer());
+            final ChannelBuffer flvHeader = FlvAtom.flvHeader();
+            position = flvHeader.readableBytes();
+            out.write(flvHeader.toByteBuffer());
             logger.info("opened file for writing: {}", file.getAbsolutePath());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }        
     }
 
+    /**
+     * from now on tags are queued and written on the AsyncFileWriter pool
+     * instead of on the calling thread, see admit() for what happens once
+     * more than queueLimit bytes are waiting for the disk
+     */
+    public void setWriteBehind(final long queueLimit, final int fsyncInterval) {
+        if(out == null) {
+            return;
+        }
+        this.queueLimit = queueLimit;
+        writeBehindStart = position;
+        writeBehind = new AsyncFileWriter(out, fileName, fsyncInterval);
+        followWrites();
+    }
+
+    /**
+     * registers the file while recording so that FlvTailReader can play it
+     * as it grows, woken up as tags reach the disk
+     */
+    public void setFollowable(final boolean followable) {
+        if(!followable || out == null || recording != null) {
+            return;
+        }
+        recording = FlvRecording.start(new File(fileName));
+        recording.setSize(position);
+        followWrites();
+    }
+
+    private void followWrites() {
+        if(recording == null || writeBehind == null) {
+            return;
+        }
+        final FlvRecording target = recording;
+        final AsyncFileWriter source = writeBehind;
+        final long start = writeBehindStart;
+        source.setOnWrite(new Runnable() {
+            @Override public void run() {
+                target.setSize(start + source.getBytesWritten());
+            }
+        });
+    }
+
+    /**
+     * collect the keyframes while recording and on close() rewrite the file
+     * with a complete onMetaData tag at the front, see FlvFastStart
+     */
+    public void setFastStart(final boolean fastStart) {
+        keyframes = fastStart && out != null ? new FlvIndex.Builder() : null;
+    }
+
+    /**
+     * subtracted from all message times so that a file can start at 0 in
+     * the middle of a stream, see SegmentedFlvWriter
+     */
+    public void setTimeOffset(final int timeOffset) {
+        this.timeOffset = timeOffset;
+    }
+
+    /**
+     * @return bytes written so far including any still queued
+     */
+    public long getSize() {
+        return position;
+    }
+
+    public AsyncFileWriter getWriteBehind() {
+        return writeBehind;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
     @Override
     public void close() {
-        if(out != null) {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        if(writeBehind != null) {
+            writeBehind.close(new Runnable() { // whatever is queued is still written
+                @Override public void run() {
+                    finish(true);
+                }
+            });
+            if(droppedCount > 0) {
+                logger.warn("dropped {} messages while the disk was behind", droppedCount);
+            }
+        } else if(out != null) {
             try {
                 out.close();
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
+            finish(false);
+        } else {
+            finished.countDown();
         }
         if(primaryChannel == -1) {
             logger.warn("no media was written, closed file");
@@ -84,30 +198,103 @@ public class FlvWriter implements RtmpWriter {
                 seekTime / 1000});
     }
 
+    /**
+     * once all is on disk, the fast start rewrite copies the whole file so
+     * it only ever runs on the AsyncFileWriter pool, never on an i/o thread
+     */
+    private void finish(final boolean onWriterThread) {
+        if(recording != null) { // followers keep the file they have open
+            recording.finish();
+        }
+        if(keyframes == null) {
+            finished.countDown();
+            return;
+        }
+        final Runnable rewrite = new Runnable() {
+            @Override public void run() {
+                try {
+                    FlvFastStart.rewrite(new File(fileName), metadataData, keyframes.build(), lastTime);
+                } catch(RuntimeException e) {
+                    logger.error("fast start rewrite failed for {}: {}", fileName, e.getMessage());
+                } finally {
+                    finished.countDown();
+                }
+            }
+        };
+        if(onWriterThread) {
+            rewrite.run();
+        } else {
+            AsyncFileWriter.execute(rewrite);
+        }
+    }
+
+    /**
+     * @return false if the file is not closed yet after waiting timeout,
+     * including the fast start rewrite
+     */
+    public boolean awaitClose(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * @return true once closed, including the fast start rewrite
+     */
+    public boolean isFinished() {
+        return finished.getCount() == 0;
+    }
+
     private void logWriteProgress() {
         final int seconds = (channelTimes[primaryChannel] - seekTime) / 1000;
         if (seconds >= lastLoggedSeconds + 10) {
-            logger.info("write progress: " + seconds + " seconds");
+            if(writeBehind == null) {
+                logger.info("write progress: " + seconds + " seconds");
+            } else {
+                logger.info("write progress: {} seconds {}", seconds, writeBehind);
+            }
             lastLoggedSeconds = seconds - (seconds % 10);
         }
     }
 
     @Override
     public void write(final RtmpMessage message) {
+        if(closed) {
+            return;
+        }
         final RtmpHeader header = message.getHeader();
+        if(writeBehind != null && !admit(message)) {
+            return;
+        }
         if(header.isAggregate()) {
-            final ChannelBuffer in = message.encode();
-            while (in.readable()) {
-                final FlvAtom flvAtom = new FlvAtom(in);
-                final int absoluteTime = flvAtom.getHeader().getTime();
-                channelTimes[primaryChannel] = absoluteTime;
-                write(flvAtom);
-                // logger.debug("aggregate atom: {}", flvAtom);
+            // already complete flv tags, only the times are read and the
+            // whole aggregate is written as is without copying tag by tag
+            final ChannelBuffer in = timeOffset == 0 ? message.encode() : shift(message.encode());
+            if(primaryChannel == -1) {
+                logger.info("first media packet for channel: {}", header);
+                primaryChannel = header.getChannelId();
+            }
+            if(logger.isDebugEnabled()) {
+                logger.debug("writing aggregate: {}", in);
+            }
+            final long aggregatePosition = position;
+            final boolean written = write(in);
+            int index = in.readerIndex();
+            while (index < in.writerIndex()) {
+                final int size = in.getMedium(index + 1);
+                final int time = in.getMedium(index + 4); // same as FlvAtom.readHeader()
+                channelTimes[primaryChannel] = time;
+                if(written) {
+                    lastTime = Math.max(lastTime, time);
+                    if(in.getByte(index) == MessageType.VIDEO.intValue() && size > 0
+                            && (in.getByte(index + 11) & 0xF0) == 0x10) {
+                        addKeyframe(time, aggregatePosition + index - in.readerIndex());
+                    }
+                }
+                index += FlvAtom.TAG_OVERHEAD + size;
                 logWriteProgress();
             }
         } else { // METADATA / AUDIO / VIDEO
             final int channelId = header.getChannelId();
-            channelTimes[channelId] = seekTime + header.getTime();
+            channelTimes[channelId] = Math.max(0, seekTime + header.getTime() - timeOffset);
             if(primaryChannel == -1 && (header.isAudio() || header.isVideo())) {
                 logger.info("first media packet for channel: {}", header);
                 primaryChannel = channelId;
@@ -122,6 +309,74 @@ public class FlvWriter implements RtmpWriter {
         }
     }
 
+    /**
+     * copy of the aggregate with the time offset applied to every tag
+     */
+    private ChannelBuffer shift(final ChannelBuffer aggregate) {
+        final ChannelBuffer in = ChannelBuffers.copiedBuffer(aggregate);
+        int index = in.readerIndex();
+        while (index < in.writerIndex()) {
+            final int time = Math.max(0, in.getMedium(index + 4) - timeOffset);
+            in.setMedium(index + 4, time);
+            in.setByte(index + 7, time >>> 24);
+            index += FlvAtom.TAG_OVERHEAD + in.getMedium(index + 1);
+        }
+        return in;
+    }
+
+    /**
+     * @return true for video keyframes that are not decoder config, and for
+     * aggregates that start with one
+     */
+    public static boolean isKeyframe(final RtmpMessage message) {
+        final RtmpHeader header = message.getHeader();
+        if(header.isVideo()) {
+            final Video video = (Video) message;
+            return video.isKeyframe() && !video.isConfig();
+        }
+        if(header.isAggregate()) { // judged by its first tag
+            final ChannelBuffer in = message.encode();
+            return in.readableBytes() > 11
+                    && in.getByte(in.readerIndex()) == MessageType.VIDEO.intValue()
+                    && (in.getByte(in.readerIndex() + 11) & 0xF0) == 0x10;
+        }
+        return false;
+    }
+
+    /**
+     * same policy as SubscriberQueue: over the limit video is dropped until
+     * the next keyframe, audio, metadata and decoder config are always kept,
+     * and over twice the limit the recording is stopped
+     */
+    private boolean admit(final RtmpMessage message) {
+        final long queued = writeBehind.getQueuedBytes();
+        if(queued > queueLimit * 2) {
+            logger.error("disk can not keep up, stopping recording: {}", writeBehind);
+            close();
+            return false;
+        }
+        final RtmpHeader header = message.getHeader();
+        if(!header.isVideo() && !header.isAggregate() || header.isVideo() && ((Video) message).isConfig()) {
+            return true;
+        }
+        final boolean keyframe = isKeyframe(message);
+        if(waitingForKeyframe) {
+            if(queued > queueLimit || !keyframe) {
+                droppedCount++;
+                return false;
+            }
+            waitingForKeyframe = false;
+            return true;
+        }
+        if(queued > queueLimit) {
+            logger.warn("disk behind, dropping video until the next keyframe: {}", writeBehind);
+            waitingForKeyframe = true;
+            droppedCount++;
+            return false;
+        }
+        return true;
+    }
+
     private void write(final FlvAtom flvAtom) {
         if(logger.isDebugEnabled()) {
             logger.debug("writing: {}", flvAtom);
@@ -129,11 +384,79 @@ public class FlvWriter implements RtmpWriter {
         if(out == null) {
             return;
         }
+        final long tagPosition = position;
+        final RtmpHeader header = flvAtom.getHeader();
+        final boolean written;
+        if(writeBehind != null) { // header and trailer around the payload as received
+            final ChannelBuffer tagHeader = ChannelBuffers.buffer(11);
+            FlvAtom.writeHeader(tagHeader, header);
+            final ChannelBuffer tagTrailer = ChannelBuffers.buffer(4);
+            FlvAtom.writeTrailer(tagTrailer, header);
+            written = write(ChannelBuffers.wrappedBuffer(tagHeader, flvAtom.getData(), tagTrailer));
+        } else {
+            // tag assembled in pooled direct memory, no temporary copy by the channel
+            final ChannelBuffer buffer = BufferPool.getInstance().acquire(flvAtom.getEncodedSize());
+            try {
+                flvAtom.write(buffer);
+                written = write(buffer);
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+        if(!written || keyframes == null && recording == null) {
+            return;
+        }
+        final ChannelBuffer data = flvAtom.getData();
+        if(header.isMetadata()) {
+            if(tagPosition == FlvFastStart.FLV_HEADER_SIZE) { // replaced on rewrite
+                metadataData = ChannelBuffers.copiedBuffer(data);
+            }
+            return;
+        }
+        lastTime = Math.max(lastTime, header.getTime());
+        if(header.isVideo() && data.readable() && (data.getByte(data.readerIndex()) & 0xF0) == 0x10) {
+            addKeyframe(header.getTime(), tagPosition);
+        }
+    }
+
+    private void addKeyframe(final int time, final long tagPosition) {
+        if(keyframes != null) {
+            keyframes.add(time, tagPosition);
+        }
+        if(recording != null) {
+            recording.addKeyframe(time, tagPosition);
+        }
+    }
+
+    /**
+     * @return false if not written, only possible with write behind
+     */
+    private boolean write(final ChannelBuffer buffer) {
+        if(out == null || !buffer.readable()) {
+            return false;
+        }
+        final int size = buffer.readableBytes();
+        if(writeBehind != null) {
+            if(!writeBehind.offer(buffer)) {
+                droppedCount++;
+                return false;
+            }
+            position += size;
+            return true;
+        }
         try {
-            out.write(flvAtom.write().toByteBuffer());
+            final ByteBuffer[] bbs = buffer.toByteBuffers(); // one for pooled or plain buffers
+            while(bbs[bbs.length - 1].hasRemaining()) {
+                out.write(bbs);
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        position += size;
+        if(recording != null) {
+            recording.setSize(position);
+        }
+        return true;
     }
     
 }
@@ -0,0 +1,195 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.flv;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the list of segments of a recording, see SegmentedFlvWriter, one line
+ * per segment: start time and duration in milliseconds of stream time
+ * and the file name relative to the manifest, duration -1 for a segment
+ * still being written
+ *
+ * each segment starts at time 0, so to play from stream time t open the
+ * segment find(t) returns and seek to t - getStartTime()
+ */
+public class SegmentManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentManifest.class);
+
+    public static final String SUFFIX = ".segments";
+
+    private static final String HEADER = "#flazr segments 1";
+
+    public static class Segment {
+
+        private final long startTime;
+        private long duration;
+        private final String fileName;
+
+        public Segment(final long startTime, final long duration, final String fileName) {
+            this.startTime = startTime;
+            this.duration = duration;
+            this.fileName = fileName;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + fileName + " start: " + startTime + " duration: " + duration + "]";
+        }
+
+    }
+
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    public int size() {
+        return segments.size();
+    }
+
+    public Segment get(final int index) {
+        return segments.get(index);
+    }
+
+    public void add(final Segment segment) {
+        segments.add(segment);
+    }
+
+    /**
+     * sets the duration of the last segment, which is then complete
+     */
+    public void finish(final long duration) {
+        if(!segments.isEmpty()) {
+            segments.get(segments.size() - 1).duration = duration;
+        }
+    }
+
+    /**
+     * @return index of the last segment starting at or before time, the
+     * first one if time is before all of them, or -1 if there are none
+     */
+    public int find(final long time) {
+        if(segments.isEmpty()) {
+            return -1;
+        }
+        int low = 0;
+        int high = segments.size() - 1;
+        while(low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if(segments.get(mid).startTime <= time) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    //==========================================================================
+
+    public static SegmentManifest read(final File file) {
+        final SegmentManifest manifest = new SegmentManifest();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while((line = reader.readLine()) != null) {
+                if(line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] parts = line.split("\t", 3);
+                if(parts.length != 3) {
+                    throw new RuntimeException("bad manifest line: " + line);
+                }
+                manifest.add(new Segment(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]));
+            }
+            return manifest;
+        } catch(RuntimeException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch(Exception e) {
+                    logger.warn("error closing: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * writes to a temp file and renames so that after a crash the manifest
+     * is the one before or after a segment was added, never a partial one
+     */
+    public void write(final File file) {
+        final File temp = new File(file.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+            writer.write(HEADER + "\n");
+            for(final Segment segment : segments) {
+                writer.write(segment.startTime + "\t" + segment.duration + "\t" + segment.fileName + "\n");
+            }
+            writer.close();
+            writer = null;
+            if(!temp.renameTo(file)) {
+                file.delete();
+                if(!temp.renameTo(file)) {
+                    throw new RuntimeException("unable to rename " + temp);
+                }
+            }
+        } catch(Exception e) {
+            logger.warn("unable to write manifest {}: {}", file, e.getMessage());
+            temp.delete();
+        } finally {
+            if(writer != null) {
+                try {
+                    writer.close();
+                } catch(Exception e) {
+                    logger.warn("error closing: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+}
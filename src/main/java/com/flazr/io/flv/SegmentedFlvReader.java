@@ -0,0 +1,214 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.flv;
+
+import com.flazr.rtmp.GrowingReader;
+import com.flazr.rtmp.RtmpConfig;
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.RtmpReader;
+import com.flazr.rtmp.message.MessageType;
+import com.flazr.rtmp.message.Metadata;
+import java.io.File;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * plays a recording made by SegmentedFlvWriter as one stream, seek() opens
+ * only the segment the manifest says holds the time and playing past the
+ * end of a segment opens the next one, times are shifted by the start time
+ * of the segment so that they run on across segments
+ *
+ * the manifest is read again whenever the last segment known ends, so a
+ * recording still being made plays on into its new segments, the segment
+ * still being written is followed if the opener gives a GrowingReader for
+ * it, see FlvTailReader
+ */
+public class SegmentedFlvReader implements GrowingReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedFlvReader.class);
+
+    public static interface Opener {
+        RtmpReader open(File file);
+    }
+
+    private final File manifestFile;
+    private final File dir;
+    private final Opener opener;
+    private final Metadata metadata;
+    private SegmentManifest manifest;
+    private int index;
+    private RtmpReader current;
+    private long startTime; // of the current segment, added to its times
+    private long endedTime = -1; // when the current segment ended with no next one listed
+    private int aggregateDuration;
+
+    public SegmentedFlvReader(final File manifestFile, final Opener opener) {
+        this.manifestFile = manifestFile;
+        this.dir = manifestFile.getAbsoluteFile().getParentFile();
+        this.opener = opener;
+        manifest = SegmentManifest.read(manifestFile);
+        if(manifest.size() == 0) {
+            throw new RuntimeException("no segments in: " + manifestFile);
+        }
+        open(0);
+        metadata = withDuration(current.getMetadata());
+    }
+
+    /**
+     * the onMetaData of the first segment, with the duration of the whole
+     * recording once it is finished
+     */
+    private Metadata withDuration(final Metadata first) {
+        final SegmentManifest.Segment last = manifest.get(manifest.size() - 1);
+        if(first == null || last.getDuration() < 0) {
+            return first;
+        }
+        final Metadata copy = (Metadata) MessageType.decode(new RtmpHeader(first.getHeader()), first.encode());
+        copy.setDuration((last.getStartTime() + last.getDuration()) / 1000.0);
+        return copy;
+    }
+
+    private void open(final int segmentIndex) {
+        final SegmentManifest.Segment segment = manifest.get(segmentIndex);
+        final RtmpReader reader = opener.open(new File(dir, segment.getFileName()));
+        if(reader == null) {
+            throw new RuntimeException("unable to open segment: " + segment);
+        }
+        reader.setAggregateDuration(aggregateDuration);
+        if(current != null) {
+            current.close();
+        }
+        current = reader;
+        index = segmentIndex;
+        startTime = segment.getStartTime();
+        endedTime = -1;
+        logger.debug("playing segment: {}", segment);
+    }
+
+    /**
+     * @return false if there is no next segment (yet)
+     */
+    private boolean openNext() {
+        if(index + 1 >= manifest.size()) {
+            manifest = SegmentManifest.read(manifestFile);
+        }
+        if(index + 1 >= manifest.size()) {
+            return false;
+        }
+        open(index + 1);
+        return true;
+    }
+
+    public int getSegmentIndex() {
+        return index;
+    }
+
+    @Override
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    @Override
+    public RtmpMessage[] getStartMessages() {
+        return new RtmpMessage[] { metadata };
+    }
+
+    @Override
+    public void setAggregateDuration(final int targetDuration) {
+        this.aggregateDuration = targetDuration;
+        current.setAggregateDuration(targetDuration);
+    }
+
+    @Override
+    public long getTimePosition() {
+        return startTime + current.getTimePosition();
+    }
+
+    @Override
+    public long seek(final long time) {
+        manifest = SegmentManifest.read(manifestFile); // may have new segments
+        final int found = manifest.find(time);
+        if(found != index) {
+            open(found);
+        }
+        return startTime + current.seek(Math.max(0, time - startTime));
+    }
+
+    /**
+     * a segment still being written is only left in waitForMore(), once
+     * it says that segment has ended
+     */
+    @Override
+    public boolean hasNext() {
+        while(!current.hasNext()) {
+            if(current instanceof GrowingReader || !openNext()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * while the recording goes on and the next segment is not listed yet
+     * the manifest is polled, for at most 'server.tail.timeout'
+     */
+    @Override
+    public long waitForMore(final Runnable wakeUp) {
+        if(hasNext()) {
+            return 0;
+        }
+        if(current instanceof GrowingReader) {
+            final long delay = ((GrowingReader) current).waitForMore(wakeUp);
+            if(delay >= 0) {
+                return delay;
+            }
+            if(openNext()) {
+                return 0;
+            }
+        }
+        if(manifest.get(manifest.size() - 1).getDuration() >= 0) {
+            return -1; // recording finished
+        }
+        final long now = System.currentTimeMillis();
+        if(endedTime == -1) {
+            endedTime = now;
+        }
+        if(now - endedTime >= RtmpConfig.SERVER_TAIL_TIMEOUT) {
+            logger.info("no new segment for {} ms, ending", RtmpConfig.SERVER_TAIL_TIMEOUT);
+            return -1;
+        }
+        return RtmpConfig.SERVER_TAIL_POLL_INTERVAL;
+    }
+
+    @Override
+    public RtmpMessage next() {
+        final RtmpMessage message = current.next();
+        final RtmpHeader header = message.getHeader();
+        header.setTime((int) (startTime + header.getTime()));
+        return message;
+    }
+
+    @Override
+    public void close() {
+        current.close();
+    }
+
+}
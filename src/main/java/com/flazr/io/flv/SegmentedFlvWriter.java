@@ -0,0 +1,213 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.io.flv;
+
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.RtmpWriter;
+import com.flazr.rtmp.message.DataMessage;
+import com.flazr.rtmp.message.Metadata;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * records a stream as a series of flv files 'name-00000.flv' and so on,
+ * rolling over to a new file at the first keyframe (any audio if there is
+ * no video) once the current one is longer than the segment duration or
+ * bigger than the segment size, zero meaning no limit
+ *
+ * every segment starts at time 0 with the last onMetaData and decoder
+ * config seen so it plays on its own, 'name.segments' lists them, see
+ * SegmentManifest, and is rewritten whenever a segment is started
+ */
+public class SegmentedFlvWriter implements RtmpWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedFlvWriter.class);
+
+    private final File dir;
+    private final String name;
+    private final File manifestFile;
+    private final long segmentDuration;
+    private final long segmentSize;
+    private final SegmentManifest manifest = new SegmentManifest();
+    private long queueLimit;
+    private int fsyncInterval;
+    private boolean fastStart;
+    private boolean followable;
+    private FlvWriter writer;
+    private final List<FlvWriter> closing = new ArrayList<FlvWriter>(); // rewrites may still run
+    private int segmentStartTime;
+    private int lastTime;
+    private boolean hasVideo;
+    private RtmpMessage metadata;
+    private RtmpMessage videoConfig;
+    private RtmpMessage audioConfig;
+    private boolean closed;
+
+    /**
+     * @param path of the recording without the '.flv'
+     */
+    public SegmentedFlvWriter(final String path, final long segmentDuration, final long segmentSize) {
+        final File file = new File(path);
+        this.dir = file.getAbsoluteFile().getParentFile();
+        this.name = file.getName();
+        this.manifestFile = new File(path + SegmentManifest.SUFFIX);
+        this.segmentDuration = segmentDuration;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * applied to every segment, see FlvWriter.setWriteBehind()
+     */
+    public void setWriteBehind(final long queueLimit, final int fsyncInterval) {
+        this.queueLimit = queueLimit;
+        this.fsyncInterval = fsyncInterval;
+    }
+
+    /**
+     * applied to every segment, see FlvWriter.setFastStart()
+     */
+    public void setFastStart(final boolean fastStart) {
+        this.fastStart = fastStart;
+    }
+
+    /**
+     * applied to every segment, see FlvWriter.setFollowable()
+     */
+    public void setFollowable(final boolean followable) {
+        this.followable = followable;
+    }
+
+    public SegmentManifest getManifest() {
+        return manifest;
+    }
+
+    @Override
+    public void write(final RtmpMessage message) {
+        if(closed) {
+            return;
+        }
+        final RtmpHeader header = message.getHeader();
+        if(header.isMetadata()) {
+            if("onMetaData".equals(((Metadata) message).getName())) {
+                metadata = message;
+            }
+        } else if(header.isVideo()) {
+            hasVideo = true;
+            if(((DataMessage) message).isConfig()) {
+                videoConfig = message;
+            }
+        } else if(header.isAudio() && ((DataMessage) message).isConfig()) {
+            audioConfig = message;
+        }
+        final int time = header.getTime();
+        if(writer == null) {
+            open(time);
+        } else if(isDue(time) && isBoundary(message)) {
+            manifest.finish(time - segmentStartTime);
+            close(writer);
+            open(time);
+            for(final RtmpMessage config : new RtmpMessage[] {metadata, videoConfig, audioConfig}) {
+                if(config != null && config != message) {
+                    writer.write(config); // at time 0, before the keyframe
+                }
+            }
+        }
+        writer.write(message);
+        lastTime = Math.max(lastTime, time);
+    }
+
+    private synchronized void close(final FlvWriter segment) {
+        segment.close();
+        for(final Iterator<FlvWriter> iterator = closing.iterator(); iterator.hasNext();) {
+            if(iterator.next().isFinished()) {
+                iterator.remove();
+            }
+        }
+        closing.add(segment);
+    }
+
+    /**
+     * @return false if any segment is not closed yet after waiting timeout,
+     * see FlvWriter.awaitClose()
+     */
+    public boolean awaitClose(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final List<FlvWriter> segments;
+        synchronized(this) {
+            segments = new ArrayList<FlvWriter>(closing);
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for(final FlvWriter segment : segments) {
+            if(!segment.awaitClose(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDue(final int time) {
+        return segmentDuration > 0 && time - segmentStartTime >= segmentDuration
+                || segmentSize > 0 && writer.getSize() >= segmentSize;
+    }
+
+    private boolean isBoundary(final RtmpMessage message) {
+        final RtmpHeader header = message.getHeader();
+        if(hasVideo) {
+            return FlvWriter.isKeyframe(message);
+        }
+        return header.isAudio() || header.isAggregate();
+    }
+
+    private void open(final int time) {
+        final String fileName = name + "-" + String.format("%05d", manifest.size()) + ".flv";
+        writer = new FlvWriter(new File(dir, fileName).getPath());
+        if(queueLimit > 0) {
+            writer.setWriteBehind(queueLimit, fsyncInterval);
+        }
+        writer.setFastStart(fastStart);
+        writer.setFollowable(followable);
+        writer.setTimeOffset(time);
+        segmentStartTime = time;
+        manifest.add(new SegmentManifest.Segment(time, -1, fileName));
+        manifest.write(manifestFile);
+        logger.info("started segment {} at time: {}", fileName, time);
+    }
+
+    @Override
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        if(writer == null) {
+            return;
+        }
+        close(writer);
+        manifest.finish(lastTime - segmentStartTime);
+        manifest.write(manifestFile);
+        logger.info("closed recording, segments: {}", manifest.size());
+    }
+
+}
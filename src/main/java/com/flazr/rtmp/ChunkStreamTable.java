@@ -0,0 +1,119 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp;
+
+import java.util.Arrays;
+
+/**
+ * per connection state keyed by chunk stream id, clients use a handful of ids
+ * so ids below 64 (one byte on the wire) go into a small array and the rest
+ * into an open addressing map that is only allocated when first needed
+ */
+public class ChunkStreamTable<T> {
+
+    private static final int DIRECT_SIZE = 64;
+    private static final int INITIAL_CAPACITY = 8; // power of two
+
+    private final Object[] direct = new Object[DIRECT_SIZE];
+    private int[] keys; // zero means empty slot, ids here are always >= 64
+    private Object[] values;
+    private int size;
+
+    public T get(final int channelId) {
+        if(channelId < DIRECT_SIZE) {
+            @SuppressWarnings("unchecked") // only put() stores here, always a T
+            final T value = (T) direct[channelId];
+            return value;
+        }
+        if(keys == null) {
+            return null;
+        }
+        final int mask = keys.length - 1;
+        for(int i = hash(channelId) & mask; keys[i] != 0; i = (i + 1) & mask) {
+            if(keys[i] == channelId) {
+                @SuppressWarnings("unchecked") // only put() stores here, always a T
+                final T value = (T) values[i];
+                return value;
+            }
+        }
+        return null;
+    }
+
+    public void put(final int channelId, final T value) {
+        if(channelId < 0 || channelId >= RtmpHeader.MAX_CHANNEL_ID) {
+            throw new IllegalArgumentException("invalid chunk stream id: " + channelId);
+        }
+        if(channelId < DIRECT_SIZE) {
+            direct[channelId] = value;
+            return;
+        }
+        if(keys == null) {
+            keys = new int[INITIAL_CAPACITY];
+            values = new Object[INITIAL_CAPACITY];
+        } else if((size + 1) * 2 > keys.length) {
+            resize();
+        }
+        if(insert(keys, values, channelId, value)) {
+            size++;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(direct, null);
+        keys = null;
+        values = null;
+        size = 0;
+    }
+
+    private void resize() {
+        final int[] newKeys = new int[keys.length * 2];
+        final Object[] newValues = new Object[keys.length * 2];
+        for(int i = 0; i < keys.length; i++) {
+            if(keys[i] != 0) {
+                insert(newKeys, newValues, keys[i], values[i]);
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    /**
+     * @return true if the key was not present before
+     */
+    private static boolean insert(final int[] keys, final Object[] values, final int key, final Object value) {
+        final int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while(keys[i] != 0) {
+            if(keys[i] == key) {
+                values[i] = value;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        return true;
+    }
+
+    private static int hash(final int key) {
+        return key * 0x9E3779B9 >>> 16;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp;
+
+/**
+ * a reader of media still being written, hasNext() being false may only
+ * mean nothing more is there yet, see FlvTailReader, neither method blocks
+ * so that RtmpPusher can give its thread back while waiting
+ */
+public interface GrowingReader extends RtmpReader {
+
+    /**
+     * call when hasNext() is false
+     *
+     * @param wakeUp may be run once, from any thread, as soon as there may
+     * be more to read, the caller still has to try again after the delay
+     * @return milliseconds after which to try hasNext() again, -1 if the
+     * stream has ended
+     */
+    long waitForMore(Runnable wakeUp);
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp;
+
+import com.flazr.rtmp.message.Metadata;
+import com.flazr.util.SpscQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * keeps 'server.prefetch.time' milliseconds of media read ahead of the
+ * playhead on a small dedicated pool, so a cold disk read stalls that pool
+ * and not the pusher or netty threads every other session depends on
+ *
+ * the wrapped reader is only used while holding its lock, the prefetch task
+ * takes it per message so a seek never waits for more than one read, ready
+ * messages go to the consumer through a lock free queue
+ *
+ * an underrun, the queue being empty when the consumer wants a message, is
+ * served by reading on the consumer thread like without prefetching
+ */
+public class PrefetchReader implements RtmpReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(PrefetchReader.class);
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            RtmpConfig.SERVER_PREFETCH_THREADS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "Prefetch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private static final AtomicLong TOTAL_PREFETCHED = new AtomicLong();
+    private static final AtomicLong TOTAL_UNDERRUNS = new AtomicLong();
+
+    private final RtmpReader reader; // guarded by itself
+    private final int prefetchTime;
+    private final SpscQueue<RtmpMessage> queue = new SpscQueue<RtmpMessage>(QUEUE_CAPACITY);
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong underruns = new AtomicLong();
+    private volatile int aggregateDuration;
+    private volatile long queuedTime = -1; // of the last message queued
+    private volatile long playTime; // of the last message taken
+    private volatile boolean ended; // reader has no more, or failed
+    private volatile boolean closed;
+
+    private final Runnable task = new Runnable() {
+        @Override public void run() {
+            prefetch();
+        }
+    };
+
+    /**
+     * @return the reader wrapped if prefetching is configured, else as is
+     */
+    public static RtmpReader wrap(final RtmpReader reader) {
+        if(RtmpConfig.SERVER_PREFETCH_TIME <= 0) {
+            return reader;
+        }
+        return new PrefetchReader(reader, RtmpConfig.SERVER_PREFETCH_TIME);
+    }
+
+    public PrefetchReader(final RtmpReader reader, final int prefetchTime) {
+        this.reader = reader;
+        this.prefetchTime = prefetchTime;
+        schedule();
+    }
+
+    private boolean needsMore() {
+        return !closed && !ended && queue.size() < QUEUE_CAPACITY
+                && (queuedTime == -1 || queuedTime - playTime < prefetchTime);
+    }
+
+    private void schedule() {
+        if(needsMore() && scheduled.compareAndSet(false, true)) {
+            EXECUTOR.execute(task);
+        }
+    }
+
+    private void prefetch() {
+        try {
+            while(true) {
+                synchronized(reader) {
+                    if(!needsMore()) {
+                        break;
+                    }
+                    if(!reader.hasNext()) {
+                        ended = true;
+                        break;
+                    }
+                    reader.setAggregateDuration(aggregateDuration);
+                    final RtmpMessage message = reader.next();
+                    queue.offer(message); // only this task offers, needsMore() checked the size
+                    queuedTime = message.getHeader().getTime();
+                    TOTAL_PREFETCHED.incrementAndGet();
+                }
+            }
+        } catch(Exception e) { // the consumer reads for itself and gets to see it
+            logger.warn("prefetch failed: {}", e.getMessage());
+            ended = true;
+        } finally {
+            scheduled.set(false);
+        }
+        schedule(); // the consumer may have moved on since the last check
+    }
+
+    //==========================================================================
+
+    @Override
+    public Metadata getMetadata() {
+        synchronized(reader) {
+            return reader.getMetadata();
+        }
+    }
+
+    @Override
+    public RtmpMessage[] getStartMessages() {
+        synchronized(reader) {
+            return reader.getStartMessages();
+        }
+    }
+
+    /**
+     * applies to what is read from now on, so lags behind by the messages
+     * already prefetched
+     */
+    @Override
+    public void setAggregateDuration(final int targetDuration) {
+        aggregateDuration = targetDuration;
+    }
+
+    @Override
+    public long getTimePosition() {
+        synchronized(reader) {
+            final RtmpMessage message = queue.peek();
+            return message == null ? reader.getTimePosition() : message.getHeader().getTime();
+        }
+    }
+
+    @Override
+    public long seek(final long timePosition) {
+        final long result;
+        synchronized(reader) {
+            while(queue.poll() != null);
+            result = reader.seek(timePosition);
+            queuedTime = -1;
+            playTime = result;
+            ended = false;
+        }
+        schedule();
+        return result;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(!queue.isEmpty()) {
+            return true;
+        }
+        synchronized(reader) {
+            return !queue.isEmpty() || !closed && reader.hasNext();
+        }
+    }
+
+    @Override
+    public RtmpMessage next() {
+        RtmpMessage message = queue.poll();
+        if(message == null) {
+            underruns.incrementAndGet();
+            TOTAL_UNDERRUNS.incrementAndGet();
+            synchronized(reader) {
+                message = queue.poll(); // queued while waiting for the lock
+                if(message == null) {
+                    reader.setAggregateDuration(aggregateDuration);
+                    message = reader.next();
+                }
+            }
+        }
+        playTime = message.getHeader().getTime();
+        schedule();
+        return message;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized(reader) {
+            while(queue.poll() != null);
+            reader.close();
+        }
+        logger.debug("closed, underruns: {}", underruns.get());
+    }
+
+    //==========================================================================
+
+    /**
+     * @return milliseconds of media queued ahead of the playhead
+     */
+    public long getPrefetchDepth() {
+        final long queued = queuedTime;
+        return queued == -1 ? 0 : Math.max(0, queued - playTime);
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getUnderruns() {
+        return underruns.get();
+    }
+
+    public static long getTotalPrefetched() {
+        return TOTAL_PREFETCHED.get();
+    }
+
+    public static long getTotalUnderruns() {
+        return TOTAL_UNDERRUNS.get();
+    }
+
+}
@@ -35,6 +35,27 @@ public class RtmpConfig {
 
     public static String SERVER_HOME_DIR = "home";
     public static int TIMER_TICK_SIZE = 100;
+    public static int PUSHER_TICK_SIZE = 10;
+    public static long SERVER_GOP_CACHE_LIMIT = 0;
+    public static long SERVER_SUBSCRIBER_QUEUE_LIMIT = 1048576;
+    public static boolean SERVER_MAPPED_FILES = false;
+    public static long SERVER_MEDIA_CACHE_LIMIT = 67108864;
+    public static int SERVER_MEDIA_CACHE_FILES = 1024;
+    public static int SERVER_READAHEAD_TIME = 1000;
+    public static int SERVER_PREFETCH_TIME = 2000;
+    public static int SERVER_PREFETCH_THREADS = 4;
+    public static long SERVER_BLOCK_CACHE_SIZE = 0;
+    public static long SERVER_RECORD_QUEUE_LIMIT = 0;
+    public static int SERVER_RECORD_FSYNC_INTERVAL = 1000;
+    public static int SERVER_RECORD_THREADS = 2;
+    public static boolean SERVER_RECORD_FAST_START = false;
+    public static long SERVER_RECORD_SEGMENT_DURATION = 0;
+    public static long SERVER_RECORD_SEGMENT_SIZE = 0;
+    public static int SERVER_TAIL_TIMEOUT = 10000;
+    public static int SERVER_TAIL_POLL_INTERVAL = 250;
+    public static long SERVER_DVR_LIMIT = 0;
+    public static int SERVER_DVR_WINDOW = 1800000;
+    public static int PUSHER_THREAD_POOL_SIZE = Runtime.getRuntime().availableProcessors();
     public static int SERVER_PORT = 1935;
     public static int SERVER_STOP_PORT = 1934;
     public static int PROXY_PORT = 8000;
@@ -47,6 +68,10 @@ public class RtmpConfig {
         addShutdownHook(SERVER_STOP_PORT);
     }
 
+    public static void configureServerIndexer() {
+        configure(Type.SERVER);
+    }
+
     public static int configureServerStop() {
         configure(Type.SERVER_STOP);
         return SERVER_STOP_PORT;
@@ -103,6 +128,44 @@ public class RtmpConfig {
                     }
                     Integer serverPort = parseInt(props.getProperty("server.port"));
                     if(serverPort != null) SERVER_PORT = serverPort;
+                    Integer pusherThreads = parseInt(props.getProperty("server.pusher.threads"));
+                    if(pusherThreads != null) PUSHER_THREAD_POOL_SIZE = pusherThreads;
+                    Long gopCacheLimit = parseLong(props.getProperty("server.gop.cache.limit"));
+                    if(gopCacheLimit != null) SERVER_GOP_CACHE_LIMIT = gopCacheLimit;
+                    Long subscriberQueueLimit = parseLong(props.getProperty("server.subscriber.queue.limit"));
+                    if(subscriberQueueLimit != null) SERVER_SUBSCRIBER_QUEUE_LIMIT = subscriberQueueLimit;
+                    Long mediaCacheLimit = parseLong(props.getProperty("server.media.cache.limit"));
+                    if(mediaCacheLimit != null) SERVER_MEDIA_CACHE_LIMIT = mediaCacheLimit;
+                    Integer mediaCacheFiles = parseInt(props.getProperty("server.media.cache.files"));
+                    if(mediaCacheFiles != null) SERVER_MEDIA_CACHE_FILES = mediaCacheFiles;
+                    Integer readAheadTime = parseInt(props.getProperty("server.readahead.time"));
+                    if(readAheadTime != null) SERVER_READAHEAD_TIME = readAheadTime;
+                    Integer prefetchTime = parseInt(props.getProperty("server.prefetch.time"));
+                    if(prefetchTime != null) SERVER_PREFETCH_TIME = prefetchTime;
+                    Integer prefetchThreads = parseInt(props.getProperty("server.prefetch.threads"));
+                    if(prefetchThreads != null) SERVER_PREFETCH_THREADS = prefetchThreads;
+                    Long blockCacheSize = parseLong(props.getProperty("server.block.cache.size"));
+                    if(blockCacheSize != null) SERVER_BLOCK_CACHE_SIZE = blockCacheSize;
+                    Long recordQueueLimit = parseLong(props.getProperty("server.record.queue.limit"));
+                    if(recordQueueLimit != null) SERVER_RECORD_QUEUE_LIMIT = recordQueueLimit;
+                    Integer recordFsyncInterval = parseInt(props.getProperty("server.record.fsync.interval"));
+                    if(recordFsyncInterval != null) SERVER_RECORD_FSYNC_INTERVAL = recordFsyncInterval;
+                    Integer recordThreads = parseInt(props.getProperty("server.record.threads"));
+                    if(recordThreads != null) SERVER_RECORD_THREADS = recordThreads;
+                    Long segmentDuration = parseLong(props.getProperty("server.record.segment.duration"));
+                    if(segmentDuration != null) SERVER_RECORD_SEGMENT_DURATION = segmentDuration;
+                    Long segmentSize = parseLong(props.getProperty("server.record.segment.size"));
+                    if(segmentSize != null) SERVER_RECORD_SEGMENT_SIZE = segmentSize;
+                    Integer tailTimeout = parseInt(props.getProperty("server.tail.timeout"));
+                    if(tailTimeout != null) SERVER_TAIL_TIMEOUT = tailTimeout;
+                    Integer tailPollInterval = parseInt(props.getProperty("server.tail.poll.interval"));
+                    if(tailPollInterval != null) SERVER_TAIL_POLL_INTERVAL = tailPollInterval;
+                    Long dvrLimit = parseLong(props.getProperty("server.dvr.limit"));
+                    if(dvrLimit != null) SERVER_DVR_LIMIT = dvrLimit;
+                    Integer dvrWindow = parseInt(props.getProperty("server.dvr.window"));
+                    if(dvrWindow != null) SERVER_DVR_WINDOW = dvrWindow;
+                    SERVER_MAPPED_FILES = Boolean.parseBoolean(props.getProperty("server.mapped.files", "false"));
+                    SERVER_RECORD_FAST_START = Boolean.parseBoolean(props.getProperty("server.record.faststart", "false"));
                     SERVER_HOME_DIR = props.getProperty("server.home", "home");
                     File homeFile = new File(SERVER_HOME_DIR);
                     if(!homeFile.exists()) {
@@ -180,4 +243,16 @@ public class RtmpConfig {
         }
     }
 
+    /**
+     * for sizes in bytes, which may well be 2 GB or more
+     */
+    private static Long parseLong(String s) {
+        try {
+            return Long.parseLong(s);
+        } catch(Exception e) {
+            logger.warn("unable to parse into long value: {}", e.getMessage());
+            return null;
+        }
+    }
+
 }
@@ -19,80 +19,143 @@
 
 package com.flazr.rtmp;
 
-import com.flazr.rtmp.RtmpDecoder.DecoderState;
 import com.flazr.rtmp.message.ChunkSize;
 import com.flazr.rtmp.message.MessageType;
+import java.util.ArrayList;
+import java.util.List;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
-import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.handler.codec.replay.ReplayingDecoder;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class RtmpDecoder extends ReplayingDecoder<DecoderState> {
+/**
+ * chunk stream decoder that never replays: readable bytes are checked up front,
+ * a parsed header is kept until its chunk payload arrives, and message payloads
+ * are assembled from slices of the inbound buffers instead of being copied
+ */
+public class RtmpDecoder extends SimpleChannelUpstreamHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(RtmpDecoder.class);
 
-    public static enum DecoderState {        
-        GET_HEADER,
-        GET_PAYLOAD
-    }
-
-    public RtmpDecoder() {
-        super(DecoderState.GET_HEADER);                
-    }
-    
+    private ChannelBuffer cumulation;
     private RtmpHeader header;
     private int channelId;
-    private ChannelBuffer payload;
     private int chunkSize = 128;
 
-    private final RtmpHeader[] incompleteHeaders = new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID];
-    private final ChannelBuffer[] incompletePayloads = new ChannelBuffer[RtmpHeader.MAX_CHANNEL_ID];
-    private final RtmpHeader[] completedHeaders = new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID];
+    private final ChunkStreamTable<RtmpHeader> incompleteHeaders = new ChunkStreamTable<RtmpHeader>();
+    private final ChunkStreamTable<PartialPayload> incompletePayloads = new ChunkStreamTable<PartialPayload>();
+    private final ChunkStreamTable<RtmpHeader> completedHeaders = new ChunkStreamTable<RtmpHeader>();
+
+    /**
+     * chunks of a message collected so far, composed only once the
+     * message is complete so that the cost stays linear in chunk count
+     */
+    private static class PartialPayload {
+
+        private final List<ChannelBuffer> chunks = new ArrayList<ChannelBuffer>();
+        private int size;
+
+        private void add(final ChannelBuffer chunk) {
+            chunks.add(chunk);
+            size += chunk.readableBytes();
+        }
+
+        private ChannelBuffer compose() {
+            if(chunks.size() == 1) {
+                return chunks.get(0);
+            }
+            return ChannelBuffers.wrappedBuffer(chunks.toArray(new ChannelBuffer[chunks.size()]));
+        }
+
+    }
 
     @Override
-    protected Object decode(final ChannelHandlerContext ctx, final Channel channel, final ChannelBuffer in, final DecoderState state) {
-        switch(state) {            
-            case GET_HEADER:
-                header = new RtmpHeader(in, incompleteHeaders);
-                channelId = header.getChannelId();
-                if(incompletePayloads[channelId] == null) { // new chunk stream
-                    incompleteHeaders[channelId] = header;
-                    incompletePayloads[channelId] = ChannelBuffers.buffer(header.getSize());
-                }
-                payload = incompletePayloads[channelId];
-                checkpoint(DecoderState.GET_PAYLOAD);
-            case GET_PAYLOAD:              
-                final byte[] bytes = new byte[Math.min(payload.writableBytes(), chunkSize)];
-                in.readBytes(bytes);
-                payload.writeBytes(bytes);                
-                checkpoint(DecoderState.GET_HEADER);
-                if(payload.writable()) { // more chunks remain
-                    return null;
-                }
-                incompletePayloads[channelId] = null;
-                final RtmpHeader prevHeader = completedHeaders[channelId];                
-                if (!header.isLarge()) {
-                    header.setTime(prevHeader.getTime() + header.getDeltaTime());
-                }
-                final RtmpMessage message = MessageType.decode(header, payload);
-                if(logger.isDebugEnabled()) {
-                    logger.debug("<< {}", message);
-                }
-                payload = null;
-                if(header.isChunkSize()) {
-                    final ChunkSize csMessage = (ChunkSize) message;
-                    logger.debug("decoder new chunk size: {}", csMessage);
-                    chunkSize = csMessage.getChunkSize();
-                }
-                completedHeaders[channelId] = header;
-                return message;
-            default:               
-                throw new RuntimeException("unexpected decoder state: " + state);
+    public void messageReceived(final ChannelHandlerContext ctx, final MessageEvent e) {
+        if(!(e.getMessage() instanceof ChannelBuffer)) {
+            ctx.sendUpstream(e);
+            return;
+        }
+        final ChannelBuffer in = (ChannelBuffer) e.getMessage();
+        if(!in.readable()) {
+            return;
+        }
+        // inbound buffers are never written to again, so slices taken
+        // from them stay valid, compose instead of copying leftovers
+        if(cumulation == null || !cumulation.readable()) {
+            cumulation = in;
+        } else {
+            cumulation = ChannelBuffers.wrappedBuffer(cumulation, in);
+        }
+        while(cumulation.readable()) {
+            final int oldReaderIndex = cumulation.readerIndex();
+            final RtmpMessage message = decode(cumulation);
+            if(message != null) {
+                Channels.fireMessageReceived(ctx, message, e.getRemoteAddress());
+            } else if(cumulation.readerIndex() == oldReaderIndex) {
+                break; // need more bytes
+            }
+        }
+        if(!cumulation.readable()) {
+            cumulation = null;
+        }
+    }
+
+    @Override
+    public void channelClosed(final ChannelHandlerContext ctx, final ChannelStateEvent e) throws Exception {
+        cumulation = null;
+        super.channelClosed(ctx, e);
+    }
+
+    /**
+     * consumes at most one chunk
+     * @return the message if this chunk completed one, else null
+     */
+    private RtmpMessage decode(final ChannelBuffer in) {
+        if(header == null) {
+            if(RtmpHeader.peekEncodedSize(in) == -1) {
+                return null;
+            }
+            header = new RtmpHeader(in, incompleteHeaders);
+            channelId = header.getChannelId();
+            if(incompletePayloads.get(channelId) == null) { // new chunk stream
+                incompleteHeaders.put(channelId, header);
+                incompletePayloads.put(channelId, new PartialPayload());
+            }
+        }
+        final PartialPayload soFar = incompletePayloads.get(channelId);
+        final int messageSize = incompleteHeaders.get(channelId).getSize();
+        final int chunkLength = Math.min(messageSize - soFar.size, chunkSize);
+        if(in.readableBytes() < chunkLength) {
+            return null; // header stays parsed, resume on next read
+        }
+        soFar.add(in.readSlice(chunkLength));
+        final RtmpHeader chunkHeader = header;
+        header = null;
+        if(soFar.size < messageSize) { // more chunks remain
+            return null;
+        }
+        incompletePayloads.put(channelId, null);
+        final ChannelBuffer payload = soFar.compose();
+        final RtmpHeader prevHeader = completedHeaders.get(channelId);
+        if (!chunkHeader.isLarge()) {
+            chunkHeader.setTime(prevHeader.getTime() + chunkHeader.getDeltaTime());
+        }
+        final RtmpMessage message = MessageType.decode(chunkHeader, payload);
+        if(logger.isDebugEnabled()) {
+            logger.debug("<< {}", message);
+        }
+        if(chunkHeader.isChunkSize()) {
+            final ChunkSize csMessage = (ChunkSize) message;
+            logger.debug("decoder new chunk size: {}", csMessage);
+            chunkSize = csMessage.getChunkSize();
         }
-        
+        completedHeaders.put(channelId, chunkHeader);
+        return message;
     }
 
 }
@@ -19,10 +19,14 @@
 
 package com.flazr.rtmp;
 
+import com.flazr.io.BufferPool;
 import com.flazr.rtmp.message.ChunkSize;
 import com.flazr.rtmp.message.Control;
+import java.util.Map;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipelineCoverage;
 import org.jboss.netty.channel.Channels;
@@ -37,19 +41,57 @@ public class RtmpEncoder extends SimpleChannelDownstreamHandler {
     private static final Logger logger = LoggerFactory.getLogger(RtmpEncoder.class);
 
     private int chunkSize = 128;    
-    private RtmpHeader[] channelPrevHeaders = new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID];    
+    private boolean gathering;
+    private final ChunkStreamTable<RtmpHeader> channelPrevHeaders = new ChunkStreamTable<RtmpHeader>();
+
+    public RtmpEncoder() {
+        this(false);
+    }
+
+    /**
+     * @param gathering if true, encoded messages are composite buffers of the
+     * header, slices of the original payload and the shared continuation header
+     * of the channel, instead of a copy of the payload in a fresh buffer
+     */
+    public RtmpEncoder(final boolean gathering) {
+        this.gathering = gathering;
+    }
+
+    public void setGathering(final boolean gathering) {
+        this.gathering = gathering;
+    }
+
+    public boolean isGathering() {
+        return gathering;
+    }
 
     private void clearPrevHeaders() {
         logger.debug("clearing prev stream headers");
-        channelPrevHeaders = new RtmpHeader[RtmpHeader.MAX_CHANNEL_ID];
+        channelPrevHeaders.clear();
     }
 
     @Override
     public void writeRequested(final ChannelHandlerContext ctx, final MessageEvent e) {        
-        Channels.write(ctx, e.getFuture(), encode((RtmpMessage) e.getMessage()));
+        if(e.getMessage() instanceof ChannelBuffer) { // already encoded, see write() below
+            ctx.sendDownstream(e);
+            return;
+        }
+        synchronized(this) { // same lock as write(), header state must follow wire order
+            final ChannelBuffer out = encode((RtmpMessage) e.getMessage(), true);
+            BufferPool.releaseOnComplete(e.getFuture(), out);
+            Channels.write(ctx, e.getFuture(), out);
+        }
     }
 
     public ChannelBuffer encode(final RtmpMessage message) {
+        return encode(message, false);
+    }
+
+    /**
+     * @param pooled if true a copied payload goes into a pooled direct buffer
+     * which the caller has to release once it has been written
+     */
+    private synchronized ChannelBuffer encode(final RtmpMessage message, final boolean pooled) {
         final ChannelBuffer in = message.encode();
         final RtmpHeader header = message.getHeader();
         if(header.isChunkSize()) {
@@ -62,9 +104,52 @@ public class RtmpEncoder extends SimpleChannelDownstreamHandler {
                 clearPrevHeaders();
             }
         }
-        final int channelId = header.getChannelId();
         header.setSize(in.readableBytes());
-        final RtmpHeader prevHeader = channelPrevHeaders[channelId];       
+        compress(header);
+        if(logger.isDebugEnabled()) {
+            logger.debug(">> {}", message);
+        }                
+        return encodeChunks(header, in, pooled);
+    }
+
+    /**
+     * encode-once path for fan-out: the header is compressed against this
+     * connection's state on a private copy, and the chunked bytes are looked up
+     * in (or added to) the cache shared by all subscribers of one broadcast,
+     * keyed by chunk size and header compression, so identical bytes are only
+     * produced once and every subscriber gets a read-only duplicate, the
+     * cache can be null if the message goes to a single subscriber, runs
+     * from the publisher thread so the write is done holding the encoder lock
+     */
+    public synchronized ChannelFuture write(final Channel channel, final RtmpHeader messageHeader,
+            final ChannelBuffer payload, final Map<Long, ChannelBuffer> encodedCache) {
+        final RtmpHeader header = new RtmpHeader(messageHeader);
+        header.setSize(payload.readableBytes());
+        compress(header);
+        if(logger.isDebugEnabled()) {
+            logger.debug(">> (shared) {}", header);
+        }
+        if(!gathering) { // output will be rewritten in place e.g. rtmpe, cannot share
+            final ChannelBuffer out = encodeChunks(header, payload.duplicate(), true);
+            final ChannelFuture future = Channels.write(channel, out);
+            BufferPool.releaseOnComplete(future, out);
+            return future;
+        }
+        final Long key = (long) chunkSize << 34 | (long) header.getHeaderType().intValue() << 32
+                | header.getDeltaTime() & 0xffffffffL;
+        ChannelBuffer encoded = encodedCache == null ? null : encodedCache.get(key);
+        if(encoded == null) {
+            encoded = encodeChunks(header, payload.duplicate(), false);
+            if(encodedCache != null) {
+                encodedCache.put(key, encoded);
+            }
+        }
+        return Channels.write(channel, ChannelBuffers.unmodifiableBuffer(encoded));
+    }
+
+    private void compress(final RtmpHeader header) {
+        final int channelId = header.getChannelId();
+        final RtmpHeader prevHeader = channelPrevHeaders.get(channelId);       
         if(prevHeader != null // first stream message is always large
                 && header.getStreamId() > 0 // all control messages always large
                 && header.getTime() > 0) { // if time is zero, always large
@@ -84,12 +169,16 @@ public class RtmpEncoder extends SimpleChannelDownstreamHandler {
 			// otherwise force to LARGE
             header.setHeaderType(RtmpHeader.Type.LARGE);
         }
-        channelPrevHeaders[channelId] = header;        
-        if(logger.isDebugEnabled()) {
-            logger.debug(">> {}", message);
-        }                
-        final ChannelBuffer out = ChannelBuffers.buffer(
-                RtmpHeader.MAX_ENCODED_SIZE + header.getSize() + header.getSize() / chunkSize);
+        channelPrevHeaders.put(channelId, header);        
+    }
+
+    private ChannelBuffer encodeChunks(final RtmpHeader header, final ChannelBuffer in, final boolean pooled) {
+        if(gathering) {
+            return encodeGathering(header, in);
+        }
+        final int capacity = RtmpHeader.MAX_ENCODED_SIZE + header.getSize() + header.getSize() / chunkSize;
+        final ChannelBuffer out = pooled ? BufferPool.getInstance().acquire(capacity) : ChannelBuffers.buffer(capacity);
+        final ChannelBuffer tinyHeader = header.getTinyHeaderBuffer();
         boolean first = true;
         while(in.readable()) {
             final int size = Math.min(chunkSize, in.readableBytes());
@@ -97,11 +186,27 @@ public class RtmpEncoder extends SimpleChannelDownstreamHandler {
                 header.encode(out);
                 first = false;
             } else {                
-                out.writeBytes(header.getTinyHeader());
+                out.writeBytes(tinyHeader, tinyHeader.readerIndex(), tinyHeader.readableBytes());
             }
             in.readBytes(out, size);
         }
         return out;
     }
 
+    private ChannelBuffer encodeGathering(final RtmpHeader header, final ChannelBuffer in) {
+        if(!in.readable()) { // same as the copying path, nothing goes out
+            return ChannelBuffers.EMPTY_BUFFER;
+        }
+        final ChannelBuffer first = ChannelBuffers.buffer(RtmpHeader.MAX_ENCODED_SIZE);
+        header.encode(first);
+        final int chunkCount = (in.readableBytes() + chunkSize - 1) / chunkSize;
+        final ChannelBuffer[] parts = new ChannelBuffer[chunkCount * 2];
+        final ChannelBuffer tinyHeader = header.getTinyHeaderBuffer();
+        for(int i = 0; i < parts.length; i += 2) {
+            parts[i] = i == 0 ? first : tinyHeader;
+            parts[i + 1] = in.readSlice(Math.min(chunkSize, in.readableBytes()));
+        }
+        return ChannelBuffers.wrappedBuffer(parts);
+    }
+
 }
@@ -23,6 +23,7 @@ import com.flazr.rtmp.message.*;
 import com.flazr.util.ValueToEnum;
 import com.flazr.util.Utils;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,7 +66,7 @@ public class RtmpHeader {
     private MessageType messageType;
     private int streamId;
 
-    public RtmpHeader(ChannelBuffer in, RtmpHeader[] incompleteHeaders) {
+    public RtmpHeader(ChannelBuffer in, ChunkStreamTable<RtmpHeader> incompleteHeaders) {
         //=================== TYPE AND CHANNEL (1 - 3 bytes) ===================
         final int firstByteInt = in.readByte();
         final int typeAndChannel;
@@ -85,7 +86,7 @@ public class RtmpHeader {
         }
         headerType = Type.valueToEnum(headerTypeInt);
         //========================= REMAINING HEADER ===========================
-        final RtmpHeader prevHeader = incompleteHeaders[channelId];
+        final RtmpHeader prevHeader = incompleteHeaders.get(channelId);
         // logger.debug("so far: {}, prev {}", this, prevHeader);
         switch(headerType) {
             case LARGE:
@@ -126,12 +127,56 @@ public class RtmpHeader {
         }        
     }
 
+    /**
+     * looks at the chunk header at the reader index without consuming anything
+     * @return the encoded size of the header, or -1 if not enough bytes are readable yet
+     */
+    public static int peekEncodedSize(final ChannelBuffer in) {
+        final int readable = in.readableBytes();
+        if(readable < 1) {
+            return -1;
+        }
+        final int index = in.readerIndex();
+        final int firstByteInt = in.getByte(index) & 0xff;
+        final int channelSize;
+        switch(firstByteInt & 0x3f) {
+            case 0: channelSize = 2; break;
+            case 1: channelSize = 3; break;
+            default: channelSize = 1;
+        }
+        final int remainingSize;
+        switch(Type.valueToEnum(firstByteInt >> 6)) {
+            case LARGE: remainingSize = 11; break;
+            case MEDIUM: remainingSize = 7; break;
+            case SMALL: remainingSize = 3; break;
+            default: remainingSize = 0;
+        }
+        int size = channelSize + remainingSize;
+        if(readable < size) {
+            return -1;
+        }
+        if(remainingSize > 0 && in.getUnsignedMedium(index + channelSize) == MAX_NORMAL_HEADER_TIME) {
+            size += 4; // extended time
+        }
+        return readable < size ? -1 : size;
+    }
+
     public RtmpHeader(MessageType messageType, int time, int size) {
         this(messageType);
         this.time = time;
         this.size = size;
     }
 
+    public RtmpHeader(final RtmpHeader header) {
+        headerType = header.headerType;
+        channelId = header.channelId;
+        deltaTime = header.deltaTime;
+        time = header.time;
+        size = header.size;
+        messageType = header.messageType;
+        streamId = header.streamId;
+    }
+
     public RtmpHeader(MessageType messageType) {
         this.messageType = messageType;
         headerType = Type.LARGE;
@@ -266,6 +311,28 @@ public class RtmpHeader {
         return encodeHeaderTypeAndChannel(Type.TINY.intValue(), channelId);
     }
 
+    private static final int MAX_CACHED_TINY_HEADER_CHANNEL_ID = 320;
+
+    private static final ChannelBuffer[] TINY_HEADERS = new ChannelBuffer[MAX_CACHED_TINY_HEADER_CHANNEL_ID + 1];
+
+    static {
+        for(int i = 0; i < TINY_HEADERS.length; i++) {
+            TINY_HEADERS[i] = ChannelBuffers.unmodifiableBuffer(ChannelBuffers.wrappedBuffer(
+                    encodeHeaderTypeAndChannel(Type.TINY.intValue(), i)));
+        }
+    }
+
+    /**
+     * continuation header for this chunk stream, shared and read-only for
+     * the common channel ids so it can go into any number of outgoing buffers
+     */
+    public ChannelBuffer getTinyHeaderBuffer() {
+        if(channelId <= MAX_CACHED_TINY_HEADER_CHANNEL_ID) {
+            return TINY_HEADERS[channelId];
+        }
+        return ChannelBuffers.wrappedBuffer(getTinyHeader());
+    }
+
     private static byte[] encodeHeaderTypeAndChannel(final int headerType, final int channelId) {
         if (channelId <= 63) {
             return new byte[] {(byte) ((headerType << 6) + channelId)};
@@ -160,6 +160,8 @@ public abstract class RtmpPublisher {
         }
         final long writeTime = System.currentTimeMillis();
         final RtmpMessage message;
+        // only guards this session's cursor against a seek from start(), file
+        // reads are positional so sessions sharing an open file never contend
         synchronized(reader) { //=============== SYNCHRONIZE ! =================
             if(reader.hasNext()) {
                 message = reader.next();
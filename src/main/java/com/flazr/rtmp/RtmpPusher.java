@@ -1,18 +1,35 @@
 package com.flazr.rtmp;
 
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public abstract class RtmpPusher implements Runnable {
+/**
+ * paces a reader onto a stream, all pushers share one small pool of timer
+ * threads instead of each sleeping on its own thread
+ */
+public abstract class RtmpPusher {
     
     private static final Logger logger = LoggerFactory.getLogger(RtmpPusher.class);
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newScheduledThreadPool(
+            RtmpConfig.PUSHER_THREAD_POOL_SIZE, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                @Override public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "RtmpPusher-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
     
-    private boolean stopped;     
-    private boolean paused;
+    private volatile boolean stopped;     
+    private volatile boolean paused;
     private long startTime = -1;
-    private final ExecutorService executor;  
     private final RtmpReader reader;
     private boolean started;    
     private long playDuration = -1;
@@ -20,19 +37,23 @@ public abstract class RtmpPusher implements Runnable {
     private long currentPosition;
     private long startPosition;
     private int streamId;
+    private int generation;
+    private boolean waiting; // for a growing reader, two wake ups pending
+    private RtmpMessage pending;
+    private ScheduledFuture<?> future;
     
     public RtmpPusher(RtmpReader reader) {
         this.reader = reader;
-        executor = Executors.newSingleThreadExecutor();
     }
     
     public void setBufferDuration(int bufferDuration) {
         this.bufferDuration = bufferDuration;
     }    
     
-    public void start(int streamId, long playPosition, long playDuration, RtmpMessage ... messages) {  
+    public synchronized void start(int streamId, long playPosition, long playDuration, RtmpMessage ... messages) {  
         this.streamId = streamId;
         this.playDuration = playDuration;
+        pending = null;
         if (playPosition > 0) { // could be -2, TODO why?
             currentPosition = reader.seek(playPosition);
         }
@@ -46,7 +67,10 @@ public abstract class RtmpPusher implements Runnable {
         started = true;
         paused = false;
         stopped = false;
-        executor.execute(this);                
+        generation++; // any wake up still pending for an earlier start is now obsolete
+        waiting = false;
+        logger.info("publish started");
+        schedule(0);
     }      
     
     private void onMessageInternal(RtmpMessage message) {
@@ -56,6 +80,18 @@ public abstract class RtmpPusher implements Runnable {
         } 
         onMessage(message);
     }
+
+    private void schedule(final long delay) {
+        future = SCHEDULER.schedule(pushTask(generation), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private Runnable pushTask(final int scheduledGeneration) {
+        return new Runnable() {
+            @Override public void run() {
+                push(scheduledGeneration);
+            }
+        };
+    }
     
     public void pause() {
         paused = true;
@@ -73,11 +109,22 @@ public abstract class RtmpPusher implements Runnable {
         return started;
     }           
 
-    @Override
-    public void run() {
-        logger.info("publish thread started");
-        while (reader.hasNext() && !stopped && !paused) {
-            final RtmpMessage message = reader.next();   
+    /**
+     * writes everything that is due by the end of the current tick, then
+     * schedules a wake up on the tick boundary just before the next frame
+     */
+    private synchronized void push(final int scheduledGeneration) {
+        if (scheduledGeneration != generation) {
+            logger.debug("obsolete wake up, ignoring");
+            return;
+        }
+        if (waiting) { // the other wake up for the same wait is now obsolete
+            waiting = false;
+            generation++;
+        }
+        while ((pending != null || reader.hasNext()) && !stopped && !paused) {
+            final RtmpMessage message = pending == null ? reader.next() : pending;
+            pending = null;
             if (message.getHeader().isVideo()) { // TODO if only audio stream                
                 final long now = System.currentTimeMillis();
                 currentPosition = message.getHeader().getTime();
@@ -93,32 +140,48 @@ public abstract class RtmpPusher implements Runnable {
                     break;
                 }
                 final long delay = playedTime - elapsedTime - bufferDuration;                
-                if (delay > 0) { // sleep
-                    try {
-                        Thread.sleep(delay);
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
+                final long tickSize = RtmpConfig.PUSHER_TICK_SIZE;
+                final long wakeUpDelay = (now + delay) / tickSize * tickSize - now;
+                if (wakeUpDelay > 0) { // not due in this tick
+                    pending = message;
+                    schedule(wakeUpDelay);
+                    return;
                 }
             }
             onMessageInternal(message);            
         }                  
+        if (!stopped && !paused && reader instanceof GrowingReader) {
+            final Runnable task = pushTask(generation);
+            final long delay = ((GrowingReader) reader).waitForMore(new Runnable() {
+                @Override public void run() {
+                    SCHEDULER.execute(task);
+                }
+            });
+            if (delay >= 0) {
+                waiting = true;
+                schedule(delay);
+                return;
+            }
+        }
         started = false;    
         if (paused) {
-            logger.info("pause signal success, publish thread stopped");
+            logger.info("pause signal success, publish stopped");
         } else {
             if (stopped) {
-                logger.info("stop signal success, publish thread stopped");
+                logger.info("stop signal success, publish stopped");
             } else {
-                logger.info("stream ended, publish thread stopped");
+                logger.info("stream ended, publish stopped");
             }
             onStop(currentPosition);
         }
     }   
     
-    public void close() {
+    public synchronized void close() {
         stopped = true;        
-        executor.shutdown();
+        generation++;
+        if (future != null) {
+            future.cancel(false);
+        }
         reader.close();
     }        
     
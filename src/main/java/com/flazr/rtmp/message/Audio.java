@@ -44,6 +44,12 @@ public class Audio extends DataMessage {
         header.setSize(data.readableBytes());
     }
 
+    public Audio(final int time, final byte[] prefix, final ChannelBuffer audioData) {
+        header.setTime(time);
+        data = ChannelBuffers.wrappedBuffer(ChannelBuffers.wrappedBuffer(prefix), audioData);
+        header.setSize(data.readableBytes());
+    }
+
     public Audio(final int time, final ChannelBuffer in) {
         super(time, in);
     }
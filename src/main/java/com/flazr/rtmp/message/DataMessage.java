@@ -25,7 +25,6 @@ import org.jboss.netty.buffer.ChannelBuffers;
 
 public abstract class DataMessage extends AbstractMessage {
 
-    private boolean encoded;
     protected ChannelBuffer data;
 
     public DataMessage() {
@@ -47,15 +46,13 @@ public abstract class DataMessage extends AbstractMessage {
         data = in;
     }
 
+    /**
+     * hands out a view of the payload as received, so any number of writers
+     * (e.g. broadcast, recording) can consume it without copying
+     */
     @Override
     public ChannelBuffer encode() {
-        if(encoded) {
-            // in case used multiple times e.g. broadcast
-            data.resetReaderIndex();            
-        } else {
-            encoded = true;
-        }
-        return data;
+        return data.duplicate();
     }
 
     @Override
@@ -36,6 +36,13 @@ public abstract class Metadata extends AbstractMessage {
     protected String name;
     protected Object[] data;
 
+    /**
+     * payload as received, metadata that is only relayed never has to be
+     * parsed and goes back out as the same bytes until something changes it
+     */
+    private ChannelBuffer raw;
+    private boolean unparsed; // no initializers, decode() runs from the super constructor
+
     public Metadata(String name, Object... data) {
         this.name = name;
         this.data = data;
@@ -46,15 +53,56 @@ public abstract class Metadata extends AbstractMessage {
         super(header, in);
     }
 
-    public Object getData(int index) {
+    protected void setRaw(final ChannelBuffer in) {
+        raw = in;
+        unparsed = true;
+        name = null;
+        data = null;
+    }
+
+    /**
+     * @return the undecoded payload, or null if this was created or changed locally
+     */
+    protected ChannelBuffer getRaw() {
+        return raw == null ? null : raw.duplicate();
+    }
+
+    protected abstract String decodeName(ChannelBuffer in);
+
+    protected abstract void decodeValues(ChannelBuffer in);
+
+    private void parse() {
+        if(unparsed) {
+            unparsed = false;
+            decodeValues(raw.duplicate());
+        }
+    }
+
+    private void modified() {
+        parse();
+        raw = null;
+    }
+
+    private Object peekData(int index) {
+        parse();
         if(data == null || data.length < index + 1) {
             return null;
         }
         return data[index];
     }
 
-    private Object getValue(String key) {
-        final Map<String, Object> map = getMap(0);
+    public Object getData(int index) {
+        modified(); // caller may change what is returned
+        return peekData(index);
+    }
+
+    /**
+     * read only access, unlike getData() this does not drop the raw payload
+     * so change values through setValue()
+     */
+    public Object getValue(String key) {
+        @SuppressWarnings("unchecked") // amf0 objects decode to Map<String, Object>
+        final Map<String, Object> map = (Map<String, Object>) peekData(0);
         if(map == null) {
             return null;
         }
@@ -62,18 +110,22 @@ public abstract class Metadata extends AbstractMessage {
     }
 
     public void setValue(String key, Object value) {
+        modified();
         if(data == null || data.length == 0) {
             data = new Object[]{new LinkedHashMap<String, Object>()};
         }
         if(data[0] == null) {
             data[0] = new LinkedHashMap<String, Object>();
         }
-        final Map<String, Object> map = (Map) data[0];
+        @SuppressWarnings("unchecked") // amf0 objects decode to Map<String, Object>
+        final Map<String, Object> map = (Map<String, Object>) data[0];
         map.put(key, value);
     }
 
     public Map<String, Object> getMap(int index) {
-        return (Map<String, Object>) getData(index);
+        @SuppressWarnings("unchecked") // amf0 objects decode to Map<String, Object>
+        final Map<String, Object> map = (Map<String, Object>) getData(index);
+        return map;
     }
 
     public String getString(String key) {
@@ -89,14 +141,7 @@ public abstract class Metadata extends AbstractMessage {
     }
 
     public double getDuration() {
-        if(data == null || data.length == 0) {
-            return -1;
-        }
-        final Map<String, Object> map = getMap(0);
-        if(map == null) {
-            return -1;
-        }
-        final Object o = map.get("duration");
+        final Object o = getValue("duration");
         if(o == null) {
             return -1;
         }
@@ -104,11 +149,12 @@ public abstract class Metadata extends AbstractMessage {
     }
 
     public void setDuration(final double duration) {
+        modified();
         if(data == null || data.length == 0) {
             data = new Object[] {map(pair("duration", duration))};
         }
-        final Object meta = data[0];
-        final Map<String, Object> map = (Map) meta;
+        @SuppressWarnings("unchecked") // amf0 objects decode to Map<String, Object>
+        final Map<String, Object> map = (Map<String, Object>) data[0];
         if(map == null) {
             data[0] = map(pair("duration", duration));
             return;
@@ -225,11 +271,15 @@ public abstract class Metadata extends AbstractMessage {
     //==========================================================================
 
     public String getName() {
+        if(name == null && raw != null) {
+            name = decodeName(raw.duplicate());
+        }
         return name;
     }
 
     @Override
     public String toString() {
+        parse();
         StringBuilder sb = new StringBuilder();
         sb.append(super.toString());
         sb.append("name: ").append(name);
@@ -43,6 +43,10 @@ public class MetadataAmf0 extends Metadata {
 
     @Override
     public ChannelBuffer encode() {
+        final ChannelBuffer raw = getRaw();
+        if(raw != null) {
+            return raw;
+        }
         ChannelBuffer out = ChannelBuffers.dynamicBuffer();
         Amf0Value.encode(out, name);
         Amf0Value.encode(out, data);
@@ -51,6 +55,16 @@ public class MetadataAmf0 extends Metadata {
 
     @Override
     public void decode(ChannelBuffer in) {
+        setRaw(in);
+    }
+
+    @Override
+    protected String decodeName(ChannelBuffer in) {
+        return (String) Amf0Value.decode(in);
+    }
+
+    @Override
+    protected void decodeValues(ChannelBuffer in) {
         name = (String) Amf0Value.decode(in);
         List<Object> list = new ArrayList<Object>();
         while(in.readable()) {
@@ -31,6 +31,42 @@ public class Video extends DataMessage {
         return data.readableBytes() > 3 && data.getInt(0) == 0x17000000;
     }
 
+    public boolean isKeyframe() {
+        return data.readable() && (data.getByte(0) & 0xF0) == 0x10;
+    }
+
+    /**
+     * true for frames no other frame depends on: h.263 disposable inter frames,
+     * and avc frames whose slice nal unit has a nal_ref_idc of zero
+     */
+    public boolean isDisposable() {
+        final int size = data.readableBytes();
+        if(size < 1) {
+            return false;
+        }
+        final int firstByte = data.getByte(0) & 0xff;
+        if(firstByte >> 4 == 3) {
+            return true;
+        }
+        if(firstByte != 0x27 || size < 10 || data.getByte(1) != 1) { // avc inter frame nalu only
+            return false;
+        }
+        int index = 5; // 1 frame type / codec + 1 packet type + 3 composition time
+        while(index + 4 < size) {
+            final int nalSize = data.getInt(index);
+            final int nalHeader = data.getByte(index + 4);
+            final int nalType = nalHeader & 0x1f;
+            if(nalType == 1 || nalType == 5) { // coded slice
+                return (nalHeader & 0x60) == 0;
+            }
+            if(nalSize <= 0 || nalSize > size - index - 4) { // would run past the frame, or overflow
+                return false;
+            }
+            index += 4 + nalSize;
+        }
+        return false;
+    }
+
     public Video(final RtmpHeader header, final ChannelBuffer in) {
         super(header, in);
     }
@@ -45,6 +81,13 @@ public class Video extends DataMessage {
         header.setSize(data.readableBytes());
     }
 
+    public Video(final int time, final byte[] prefix, final int compositionOffset, final ChannelBuffer videoData) {
+        header.setTime(time);
+        data = ChannelBuffers.wrappedBuffer(ChannelBuffers.wrappedBuffer(prefix),
+                ChannelBuffers.wrappedBuffer(Utils.toInt24(compositionOffset)), videoData);
+        header.setSize(data.readableBytes());
+    }
+
     public Video(final int time, final ChannelBuffer in) {
         super(time, in);
     }
@@ -0,0 +1,339 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp.server;
+
+import com.flazr.io.flv.FlvAtom;
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.message.MessageType;
+import com.flazr.rtmp.message.Video;
+import java.util.ArrayList;
+import java.util.List;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * the last 'server.dvr.window' milliseconds of a live stream held off-heap,
+ * media and metadata copied into fixed size direct blocks as records of
+ * type (1 byte), time (4), size (4) and payload, aggregates split into their
+ * tags, with an index of the keyframes so readers can start anywhere in it
+ *
+ * positions are offsets into the stream since the buffer was created, so
+ * they stay valid while blocks are evicted from the front, whole blocks are
+ * dropped and never reused, so a message handed out is never overwritten
+ */
+public class DvrBuffer {
+
+    private static final Logger logger = LoggerFactory.getLogger(DvrBuffer.class);
+
+    protected static final int BLOCK_SIZE = 262144;
+    protected static final int RECORD_OVERHEAD = 9;
+
+    private static class Block {
+
+        private final long sequence;
+        private final ChannelBuffer data;
+        private long start;
+        private int lastTime;
+
+        public Block(final long sequence, final int capacity) {
+            this.sequence = sequence;
+            data = ChannelBuffers.directBuffer(capacity);
+        }
+
+    }
+
+    private final String name;
+    private final DvrMemory memory;
+    private final int window;
+    private final List<Block> blocks = new ArrayList<Block>();
+    private long startOffset; // first byte still held
+    private long endOffset; // where the next record goes
+    private int endTime = -1;
+    private int[] keyframeTimes = new int[64];
+    private long[] keyframeOffsets = new long[64];
+    private int keyframeHead;
+    private int keyframeTail;
+
+    public DvrBuffer(final String name, final DvrMemory memory, final int window) {
+        this.name = name;
+        this.memory = memory;
+        this.window = window;
+        memory.add(this);
+    }
+
+    /**
+     * @param payload the encoded message, copied, not consumed
+     */
+    public void append(final RtmpMessage message, final ChannelBuffer payload) {
+        final RtmpHeader header = message.getHeader();
+        if(!header.isAggregate()) {
+            append(header.getMessageType(), header.getTime(), payload, isKeyframe(message));
+            return;
+        }
+        int index = payload.readerIndex();
+        while(index + FlvAtom.TAG_OVERHEAD <= payload.writerIndex()) {
+            final MessageType type = MessageType.valueToEnum(payload.getByte(index));
+            final int size = payload.getMedium(index + 1);
+            final int time = payload.getMedium(index + 4); // same as FlvWriter
+            final ChannelBuffer data = payload.slice(index + 11, size);
+            final RtmpMessage tag = MessageType.decode(new RtmpHeader(type, time, size), data.duplicate());
+            append(type, time, data, isKeyframe(tag));
+            index += FlvAtom.TAG_OVERHEAD + size;
+        }
+    }
+
+    private static boolean isKeyframe(final RtmpMessage message) {
+        if(!message.getHeader().isVideo()) {
+            return false;
+        }
+        final Video video = (Video) message;
+        return video.isKeyframe() && !video.isConfig();
+    }
+
+    private void append(final MessageType type, final int time, final ChannelBuffer payload, final boolean keyframe) {
+        final int size = RECORD_OVERHEAD + payload.readableBytes();
+        Block fresh = null;
+        while(true) {
+            boolean written = false;
+            long released = 0;
+            synchronized(this) {
+                if(fresh != null) {
+                    fresh.start = endOffset;
+                    blocks.add(fresh);
+                }
+                final Block block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+                if(block != null && block.data.writableBytes() >= size) {
+                    final long offset = endOffset;
+                    block.data.writeByte(type.intValue());
+                    block.data.writeInt(time);
+                    block.data.writeInt(payload.readableBytes());
+                    block.data.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+                    block.lastTime = time;
+                    endOffset += size;
+                    endTime = time;
+                    if(keyframe) {
+                        addKeyframe(time, offset);
+                    }
+                    while(blocks.size() > 1 && blocks.get(0).lastTime < endTime - window) {
+                        released += removeFirst();
+                    }
+                    written = true;
+                }
+            }
+            if(released > 0) {
+                memory.release(released);
+            }
+            if(written) {
+                return;
+            }
+            // reserved outside of the lock as making room may evict from this buffer
+            final int capacity = Math.max(BLOCK_SIZE, size);
+            if(!memory.reserve(capacity)) {
+                logger.warn("dvr limit too small for {} bytes, clearing: {}", size, name);
+                clear();
+                return;
+            }
+            fresh = new Block(memory.nextSequence(), capacity);
+        }
+    }
+
+    private void addKeyframe(final int time, final long offset) {
+        if(keyframeTail == keyframeTimes.length) {
+            final int count = keyframeTail - keyframeHead;
+            if(count < keyframeTimes.length / 2) { // compact
+                System.arraycopy(keyframeTimes, keyframeHead, keyframeTimes, 0, count);
+                System.arraycopy(keyframeOffsets, keyframeHead, keyframeOffsets, 0, count);
+            } else {
+                final int[] times = new int[keyframeTimes.length * 2];
+                final long[] offsets = new long[keyframeOffsets.length * 2];
+                System.arraycopy(keyframeTimes, keyframeHead, times, 0, count);
+                System.arraycopy(keyframeOffsets, keyframeHead, offsets, 0, count);
+                keyframeTimes = times;
+                keyframeOffsets = offsets;
+            }
+            keyframeHead = 0;
+            keyframeTail = count;
+        }
+        keyframeTimes[keyframeTail] = time;
+        keyframeOffsets[keyframeTail] = offset;
+        keyframeTail++;
+    }
+
+    /**
+     * @return bytes of memory no longer used, caller holds the lock
+     */
+    private int removeFirst() {
+        final Block block = blocks.remove(0);
+        startOffset = blocks.isEmpty() ? endOffset : blocks.get(0).start;
+        while(keyframeHead < keyframeTail && keyframeOffsets[keyframeHead] < startOffset) {
+            keyframeHead++;
+        }
+        return block.data.capacity();
+    }
+
+    /**
+     * called by the memory budget holding its lock
+     *
+     * @return bytes of memory no longer used, zero if the buffer was empty
+     */
+    protected synchronized int evictFirst() {
+        if(blocks.isEmpty()) {
+            return 0;
+        }
+        return removeFirst();
+    }
+
+    /**
+     * @return age of the oldest block across all buffers, lower is older
+     */
+    protected synchronized long getFirstSequence() {
+        return blocks.isEmpty() ? Long.MAX_VALUE : blocks.get(0).sequence;
+    }
+
+    /**
+     * drops everything, for when a new publisher starts a new time line
+     */
+    public void clear() {
+        long released = 0;
+        synchronized(this) {
+            while(!blocks.isEmpty()) {
+                released += removeFirst();
+            }
+            endTime = -1;
+        }
+        if(released > 0) {
+            memory.release(released);
+        }
+    }
+
+    /**
+     * positions the reader on the last keyframe at or before time, or the
+     * first keyframe held if time is before that, the end if there is none
+     */
+    protected synchronized void seek(final DvrReader reader, final long time) {
+        if(keyframeHead == keyframeTail) {
+            reader.offset = endOffset;
+            reader.time = Math.max(0, endTime);
+            return;
+        }
+        int low = keyframeHead;
+        int high = keyframeTail;
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            if(keyframeTimes[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        final int index = Math.max(keyframeHead, low - 1);
+        reader.offset = keyframeOffsets[index];
+        reader.time = keyframeTimes[index];
+    }
+
+    /**
+     * @return the next message for the reader, null when it is at the end,
+     * a reader that fell out of the window continues at its first keyframe
+     */
+    protected synchronized RtmpMessage read(final DvrReader reader) {
+        if(reader.offset < startOffset) {
+            logger.debug("reader fell behind the window, skipping ahead: {}", name);
+            seek(reader, -1);
+        }
+        if(reader.offset >= endOffset) {
+            return null;
+        }
+        int low = 0;
+        int high = blocks.size() - 1;
+        while(low < high) { // last block starting at or before offset
+            final int mid = (low + high + 1) >>> 1;
+            if(blocks.get(mid).start <= reader.offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        final ChannelBuffer data = blocks.get(low).data;
+        final int index = (int) (reader.offset - blocks.get(low).start);
+        final MessageType type = MessageType.valueToEnum(data.getByte(index));
+        final int time = data.getInt(index + 1);
+        final int size = data.getInt(index + 5);
+        reader.offset += RECORD_OVERHEAD + size;
+        reader.time = time;
+        return MessageType.decode(new RtmpHeader(type, time, size), data.slice(index + RECORD_OVERHEAD, size));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return time of the first keyframe held, -1 if there is none
+     */
+    public synchronized int getStartTime() {
+        return keyframeHead == keyframeTail ? -1 : keyframeTimes[keyframeHead];
+    }
+
+    /**
+     * @return time of the last message held, -1 if empty
+     */
+    public synchronized int getEndTime() {
+        return endTime;
+    }
+
+    public synchronized long getStartOffset() {
+        return startOffset;
+    }
+
+    public synchronized long getEndOffset() {
+        return endOffset;
+    }
+
+    public synchronized int getKeyframeCount() {
+        return keyframeTail - keyframeHead;
+    }
+
+    public synchronized int getBlockCount() {
+        return blocks.size();
+    }
+
+    public synchronized long getMemorySize() {
+        long size = 0;
+        for(final Block block : blocks) {
+            size += block.data.capacity();
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("[dvr: ").append(name);
+        sb.append(" time: ").append(getStartTime()).append('-').append(endTime);
+        sb.append(" keyframes: ").append(keyframeTail - keyframeHead);
+        sb.append(" blocks: ").append(blocks.size());
+        sb.append(']');
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * memory budget shared by the dvr buffers of all live streams of an
+ * application, see 'server.dvr.limit', when a new block does not fit the
+ * oldest block across all buffers is evicted first, whichever stream it is in
+ */
+public class DvrMemory {
+
+    private static final Logger logger = LoggerFactory.getLogger(DvrMemory.class);
+
+    private final long limit;
+    private final List<DvrBuffer> buffers = new CopyOnWriteArrayList<DvrBuffer>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long used; // guarded by this
+
+    public DvrMemory(final long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * evicts oldest blocks until size fits, lock order is always this and
+     * then a buffer, so buffers must not call this holding their own lock
+     *
+     * @return false if size does not fit even with every other block evicted
+     */
+    public synchronized boolean reserve(final int size) {
+        if(size > limit) {
+            return false;
+        }
+        while(used + size > limit) {
+            DvrBuffer oldest = null;
+            long oldestSequence = Long.MAX_VALUE;
+            for(final DvrBuffer buffer : buffers) {
+                final long first = buffer.getFirstSequence();
+                if(first < oldestSequence) {
+                    oldest = buffer;
+                    oldestSequence = first;
+                }
+            }
+            if(oldest == null) {
+                return false;
+            }
+            final int evicted = oldest.evictFirst();
+            used -= evicted;
+            if(evicted > 0) {
+                evictions.incrementAndGet();
+                logger.debug("evicted {} bytes from: {}", evicted, oldest);
+            }
+        }
+        used += size;
+        return true;
+    }
+
+    public synchronized void release(final long size) {
+        used -= size;
+    }
+
+    protected long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    protected void add(final DvrBuffer buffer) {
+        buffers.add(buffer);
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("[dvr: ").append(getUsed()).append('/').append(limit);
+        sb.append(" buffers: ").append(buffers.size());
+        sb.append(" evictions: ").append(evictions.get());
+        sb.append(']');
+        return sb.toString();
+    }
+
+}
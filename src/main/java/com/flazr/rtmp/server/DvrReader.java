@@ -0,0 +1,128 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp.server;
+
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.RtmpReader;
+import com.flazr.rtmp.message.MessageType;
+import com.flazr.rtmp.message.Metadata;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.rtmp.message.Video;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * cursor over the dvr window of a live stream, starts at the first keyframe
+ * held and never blocks, hasNext() is false once it has caught up with live
+ */
+public class DvrReader implements RtmpReader {
+
+    private final DvrBuffer buffer;
+    private final List<RtmpMessage> configMessages;
+    private RtmpMessage next;
+    protected long offset; // guarded by the buffer
+    protected int time;
+
+    /**
+     * @param configMessages onMetaData and decoder config of the publisher,
+     * copied so that sending them later does not change the originals
+     */
+    public DvrReader(final DvrBuffer buffer, final List<RtmpMessage> configMessages) {
+        this.buffer = buffer;
+        this.configMessages = new ArrayList<RtmpMessage>(configMessages);
+        buffer.seek(this, -1);
+    }
+
+    private static RtmpMessage copy(final RtmpMessage message) {
+        return MessageType.decode(new RtmpHeader(message.getHeader()), message.encode());
+    }
+
+    @Override
+    public Metadata getMetadata() {
+        for(final RtmpMessage message : configMessages) {
+            if(message.getHeader().isMetadata()) {
+                return (Metadata) copy(message);
+            }
+        }
+        return new MetadataAmf0("onMetaData");
+    }
+
+    @Override
+    public RtmpMessage[] getStartMessages() {
+        final List<RtmpMessage> list = new ArrayList<RtmpMessage>();
+        boolean videoConfigPresent = false;
+        for(final RtmpMessage message : configMessages) {
+            if(message.getHeader().isVideo()) {
+                videoConfigPresent = true;
+            }
+            list.add(copy(message));
+        }
+        if(!videoConfigPresent) {
+            list.add(Video.empty());
+        }
+        return list.toArray(new RtmpMessage[list.size()]);
+    }
+
+    /**
+     * ignored, messages go out as they were published
+     */
+    @Override
+    public void setAggregateDuration(final int targetDuration) {
+    }
+
+    @Override
+    public long getTimePosition() {
+        return time;
+    }
+
+    @Override
+    public long seek(final long timePosition) {
+        next = null;
+        buffer.seek(this, timePosition);
+        return time;
+    }
+
+    @Override
+    public void close() {
+        next = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(next == null) {
+            next = buffer.read(this);
+        }
+        return next != null;
+    }
+
+    @Override
+    public RtmpMessage next() {
+        hasNext();
+        final RtmpMessage message = next;
+        next = null;
+        return message;
+    }
+
+    public DvrBuffer getBuffer() {
+        return buffer;
+    }
+
+}
@@ -19,15 +19,26 @@
 
 package com.flazr.rtmp.server;
 
+import com.flazr.io.MediaFileCache;
+import com.flazr.io.f4v.F4vFile;
 import com.flazr.io.f4v.F4vReader;
+import com.flazr.io.flv.FlvFile;
 import com.flazr.io.flv.FlvReader;
+import com.flazr.io.flv.FlvRecording;
+import com.flazr.io.flv.FlvTailReader;
 import com.flazr.io.flv.FlvWriter;
+import com.flazr.io.flv.SegmentManifest;
+import com.flazr.io.flv.SegmentedFlvReader;
+import com.flazr.io.flv.SegmentedFlvWriter;
+import com.flazr.rtmp.PrefetchReader;
 import com.flazr.rtmp.RtmpConfig;
 import com.flazr.rtmp.RtmpReader;
 import com.flazr.rtmp.RtmpWriter;
 import com.flazr.util.Utils;
+import java.io.File;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,10 +48,17 @@ public class ServerApplication {
 
     private final String name;
     private final Map<String, ServerStream> streams;
+    private final long gopCacheLimit;
+    private final AtomicLong gopCacheBytes = new AtomicLong();
+    private final AtomicLong gopCacheHits = new AtomicLong();
+    private final AtomicLong gopCacheMisses = new AtomicLong();
+    private final DvrMemory dvrMemory;
 
     public ServerApplication(final String rawName) {
         this.name = cleanName(rawName);        
         streams = new ConcurrentHashMap<String, ServerStream>();        
+        gopCacheLimit = RtmpConfig.SERVER_GOP_CACHE_LIMIT;
+        dvrMemory = RtmpConfig.SERVER_DVR_LIMIT > 0 ? new DvrMemory(RtmpConfig.SERVER_DVR_LIMIT) : null;
     }
 
     public String getName() {
@@ -52,16 +70,27 @@ public class ServerApplication {
         final String path = RtmpConfig.SERVER_HOME_DIR + "/apps/" + name + "/";
         final String readerPlayName;
         try {
+            final MediaFileCache cache = MediaFileCache.getInstance();
             if(streamName.startsWith("mp4:")) {
                 readerPlayName = streamName.substring(4);
-                return new F4vReader(path + readerPlayName);
+                final F4vFile file = cache.acquire(new File(path + readerPlayName), F4vFile.LOADER);
+                try {
+                    return PrefetchReader.wrap(new F4vReader(file));
+                } finally {
+                    file.release();
+                }
             } else {                
                 if(streamName.lastIndexOf('.') < streamName.length() - 4) {
                     readerPlayName = streamName + ".flv";
                 } else {
                     readerPlayName = streamName;
                 }
-                return new FlvReader(path + readerPlayName);
+                final File flvFile = new File(path + readerPlayName);
+                final File manifestFile = new File(path + streamName + SegmentManifest.SUFFIX); // see getWriter()
+                if(manifestFile.exists() && (!flvFile.exists() || manifestFile.lastModified() >= flvFile.lastModified())) {
+                    return new SegmentedFlvReader(manifestFile, FLV_OPENER); // the later of the two recordings
+                }
+                return openFlv(flvFile);
             }
         } catch(Exception e) {
             logger.info("reader creation failed: {}", e.getMessage());
@@ -69,10 +98,48 @@ public class ServerApplication {
         }
     }
 
+    private static final SegmentedFlvReader.Opener FLV_OPENER = new SegmentedFlvReader.Opener() {
+        @Override public RtmpReader open(final File file) {
+            return openFlv(file);
+        }
+    };
+
+    private static RtmpReader openFlv(final File flvFile) {
+        final FlvRecording recording = FlvRecording.get(flvFile);
+        if(recording != null) { // still being recorded, not cached and not prefetched
+            return new FlvTailReader(flvFile, recording);
+        }
+        if(FlvRecording.isMarked(flvFile)) { // recorded by another process, size is polled
+            return new FlvTailReader(flvFile, null);
+        }
+        final FlvFile file = MediaFileCache.getInstance().acquire(flvFile, FlvFile.LOADER);
+        try {
+            return PrefetchReader.wrap(new FlvReader(file));
+        } finally {
+            file.release();
+        }
+    }
+
     public RtmpWriter getWriter(final String rawName) {
         final String streamName = Utils.trimSlashes(rawName);
         final String path = RtmpConfig.SERVER_HOME_DIR + "/apps/" + name + "/";
-        return new FlvWriter(path + streamName + ".flv");
+        if(RtmpConfig.SERVER_RECORD_SEGMENT_DURATION > 0 || RtmpConfig.SERVER_RECORD_SEGMENT_SIZE > 0) {
+            final SegmentedFlvWriter writer = new SegmentedFlvWriter(path + streamName,
+                    RtmpConfig.SERVER_RECORD_SEGMENT_DURATION, RtmpConfig.SERVER_RECORD_SEGMENT_SIZE);
+            if(RtmpConfig.SERVER_RECORD_QUEUE_LIMIT > 0) {
+                writer.setWriteBehind(RtmpConfig.SERVER_RECORD_QUEUE_LIMIT, RtmpConfig.SERVER_RECORD_FSYNC_INTERVAL);
+            }
+            writer.setFastStart(RtmpConfig.SERVER_RECORD_FAST_START);
+            writer.setFollowable(true);
+            return writer;
+        }
+        final FlvWriter writer = new FlvWriter(path + streamName + ".flv");
+        if(RtmpConfig.SERVER_RECORD_QUEUE_LIMIT > 0) {
+            writer.setWriteBehind(RtmpConfig.SERVER_RECORD_QUEUE_LIMIT, RtmpConfig.SERVER_RECORD_FSYNC_INTERVAL);
+        }
+        writer.setFastStart(RtmpConfig.SERVER_RECORD_FAST_START);
+        writer.setFollowable(true);
+        return writer;
     }
 
     public static ServerApplication get(final String rawName) {
@@ -93,12 +160,74 @@ public class ServerApplication {
         final String streamName = cleanName(rawName);
         ServerStream stream = streams.get(streamName);
         if(stream == null) {
-            stream = new ServerStream(streamName, type);
+            stream = new ServerStream(streamName, type, this);
             streams.put(streamName, stream);
         }
         return stream;
     }
 
+    //============================ GOP CACHE ===================================
+
+    /**
+     * @return total bytes the live streams of this application may hold
+     * in their gop caches, zero or less means gop caching is disabled
+     */
+    public long getGopCacheLimit() {
+        return gopCacheLimit;
+    }
+
+    protected boolean reserveGopCache(final int size) {
+        while(true) {
+            final long current = gopCacheBytes.get();
+            if(current + size > gopCacheLimit) {
+                return false;
+            }
+            if(gopCacheBytes.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    protected void releaseGopCache(final long size) {
+        gopCacheBytes.addAndGet(-size);
+    }
+
+    protected void gopCacheHit() {
+        gopCacheHits.incrementAndGet();
+    }
+
+    protected void gopCacheMiss() {
+        gopCacheMisses.incrementAndGet();
+    }
+
+    public long getGopCacheBytes() {
+        return gopCacheBytes.get();
+    }
+
+    public long getGopCacheHits() {
+        return gopCacheHits.get();
+    }
+
+    public long getGopCacheMisses() {
+        return gopCacheMisses.get();
+    }
+
+    public double getGopCacheHitRate() {
+        final long hits = gopCacheHits.get();
+        final long total = hits + gopCacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    //============================ DVR =========================================
+
+    /**
+     * @return budget shared by the dvr windows of all live streams of this
+     * application, null if time shifting is disabled
+     */
+    public DvrMemory getDvrMemory() {
+        return dvrMemory;
+    }
+
     private static String cleanName(final String raw) {
         return Utils.trimSlashes(raw).toLowerCase();
     }
@@ -108,6 +237,14 @@ public class ServerApplication {
         final StringBuilder sb = new StringBuilder();
         sb.append("[name: '").append(name);
         sb.append("' streams: ").append(streams);
+        if(gopCacheLimit > 0) {
+            sb.append(" gop cache: ").append(gopCacheBytes.get()).append('/').append(gopCacheLimit);
+            sb.append(" hits: ").append(gopCacheHits.get());
+            sb.append(" misses: ").append(gopCacheMisses.get());
+        }
+        if(dvrMemory != null) {
+            sb.append(' ').append(dvrMemory);
+        }
         sb.append(']');
         return sb.toString();
     }
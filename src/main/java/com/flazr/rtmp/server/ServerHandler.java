@@ -73,8 +73,9 @@ public class ServerHandler extends SimpleChannelHandler {
     private int streamId;
     private int bufferDuration;
 
-    private RtmpPusher pusher;    
+    private volatile RtmpPusher pusher;
     private ServerStream subscriberStream;
+    private ServerStream dvrStream; // live stream being played that can time shift
     private RtmpWriter recorder;
 
     private boolean aggregateModeEnabled = true;
@@ -228,7 +229,7 @@ public class ServerHandler extends SimpleChannelHandler {
     }
 
     private void broadcast(final RtmpMessage message) {
-        subscriberStream.getSubscribers().write(message);
+        subscriberStream.broadcast(message);
         if (recorder != null) {
             recorder.write(message);
         }
@@ -277,6 +278,13 @@ public class ServerHandler extends SimpleChannelHandler {
         logger.debug("play name {}, start {}, length {}, reset {}",
                 new Object[]{clientPlayName, playStart, playLength, playReset});
         if (stream.isLive()) {                  
+            dvrStream = stream.getDvr() == null ? null : stream;
+            if (dvrStream != null && isInWindow(stream.getDvr(), playStart)) {
+                logger.info("client requested live stream: {}, playing from dvr at: {}", clientPlayName, playStart);
+                playName = clientPlayName;
+                playDvr(channel, playStart, getStartMessages(playResetCommand));
+                return;
+            }
             for(final RtmpMessage message : getStartMessages(playResetCommand)) {
                 writeToStream(channel, message);
             }
@@ -291,7 +299,7 @@ public class ServerHandler extends SimpleChannelHandler {
             if(!videoConfigPresent) {
                 writeToStream(channel, Video.empty());
             }
-            stream.getSubscribers().add(channel);
+            stream.subscribe(channel);
             logger.info("client requested live stream: {}, added to stream: {}", clientPlayName, stream);
             return;
         }
@@ -319,13 +327,71 @@ public class ServerHandler extends SimpleChannelHandler {
         pusher.start(streamId, playStart, playLength, getStartMessages(playResetCommand));
     }
 
+    /**
+     * start 0 is what many players send for live, so only a later time
+     * that is actually held means time shifting
+     */
+    private static boolean isInWindow(final DvrBuffer dvr, final int playStart) {
+        final int startTime = dvr.getStartTime();
+        return playStart > 0 && startTime >= 0 && playStart >= startTime && playStart <= dvr.getEndTime();
+    }
+
+    /**
+     * plays the dvr window of the live stream from time on, when the pusher
+     * runs out it has caught up with live and the channel becomes a plain
+     * subscriber again, unless the publisher is gone
+     *
+     * @param startMessages null to create the pusher paused
+     */
+    private void playDvr(final Channel channel, final long time, final RtmpMessage[] startMessages) {
+        final ServerStream stream = dvrStream;
+        stream.unsubscribe(channel);
+        if (pusher != null) {
+            pusher.close();
+        }
+        final DvrReader reader = new DvrReader(stream.getDvr(), stream.getConfigMessages());
+        pusher = new RtmpPusher(reader) {
+            @Override
+            public void onMessage(RtmpMessage message) {
+                Channels.write(channel, message);
+            }
+            @Override
+            public void onStop(long timePosition) {
+                if (pusher != this) { // replaced by a seek in the meantime
+                    return;
+                }
+                pusher = null;
+                if (stream.getPublisher() != null && channel.isOpen()) {
+                    logger.info("dvr caught up with live, subscribing: {}", stream);
+                    stream.subscribe(channel, reader, streamId);
+                    return;
+                }
+                Channels.write(channel, Metadata.onPlayStatus(timePosition / 1000, bytesWritten));
+                Channels.write(channel, Command.playStop(playName, clientId));
+                Channels.write(channel, Control.streamEof(streamId));
+            }
+        };
+        pusher.setBufferDuration(bufferDuration);
+        if (startMessages == null) {
+            pusher.pause();
+        } else {
+            pusher.start(streamId, time, -1, startMessages);
+        }
+    }
+
     private void pauseResponse(final Channel channel, final Command command) {
+        final boolean paused = ((Boolean) command.getArg(0));
+        final int clientTimePosition = ((Double) command.getArg(1)).intValue();
+        final RtmpPusher pusher = this.pusher; // set to null by the pusher when a dvr catches up
         if (pusher == null) {
+            if (dvrStream != null && paused) {
+                logger.debug("pausing live, client time position: {}", clientTimePosition);
+                playDvr(channel, clientTimePosition, null);
+                return;
+            }
             logger.debug("cannot pause when live");
             return;
         }
-        final boolean paused = ((Boolean) command.getArg(0));
-        final int clientTimePosition = ((Double) command.getArg(1)).intValue();
         logger.debug("pause request: {}, client time position: {}", paused, clientTimePosition);
         if (!paused) {            
             logger.debug("doing unpause, seeking and playing");            
@@ -337,14 +403,19 @@ public class ServerHandler extends SimpleChannelHandler {
     }
 
     private void seekResponse(final Channel channel, final Command command) {
-        if (pusher == null) {
+        final RtmpPusher pusher = this.pusher; // set to null by the pusher when a dvr catches up
+        if (pusher == null && dvrStream == null) {
             logger.debug("cannot seek when live");
             return;
         }
         final int clientTimePosition = ((Double) command.getArg(0)).intValue();
-        if (!pusher.isPaused()) {
+        if (pusher == null || !pusher.isPaused()) {
             final Command seekNotify = Command.seekNotify(streamId, clientTimePosition, playName, clientId);
-            pusher.start(streamId, clientTimePosition, -1, getStartMessages(seekNotify));
+            if (dvrStream != null) {
+                playDvr(channel, clientTimePosition, getStartMessages(seekNotify));
+            } else {
+                pusher.start(streamId, clientTimePosition, -1, getStartMessages(seekNotify));
+            }
         } else {
             logger.debug("ignoring seek when paused, client time position: {}", clientTimePosition);
         }
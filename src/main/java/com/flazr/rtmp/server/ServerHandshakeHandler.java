@@ -19,6 +19,7 @@
 
 package com.flazr.rtmp.server;
 
+import com.flazr.rtmp.RtmpEncoder;
 import com.flazr.rtmp.RtmpHandshake;
 import com.flazr.rtmp.RtmpPublisher;
 import com.flazr.util.Utils;
@@ -75,6 +76,10 @@ public class ServerHandshakeHandler extends FrameDecoder implements ChannelDowns
             }
             if(!rtmpe) {
                 channel.getPipeline().remove(this);
+            } else {
+                // the cipher rewrites outgoing buffers in place, so they
+                // must not share payload slices with other channels
+                ctx.getPipeline().get(RtmpEncoder.class).setGathering(false);
             }
         }
         return in;
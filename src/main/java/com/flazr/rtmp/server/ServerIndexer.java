@@ -0,0 +1,130 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp.server;
+
+import com.flazr.io.f4v.F4vFile;
+import com.flazr.io.flv.FlvFile;
+import com.flazr.rtmp.RtmpConfig;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * writes the sidecar index of every flv and mp4 / f4v file under the server
+ * home 'apps' directory (or the directory given as the first argument) so
+ * that the first viewer after a restart does not pay for parsing, files with
+ * an up to date sidecar are only checked, the second argument is the number
+ * of threads, default one per processor
+ */
+public class ServerIndexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerIndexer.class);
+
+    private static final String[] F4V_EXTENSIONS = {".mp4", ".f4v", ".m4v", ".m4a", ".mov", ".3gp"};
+
+    public static void main(String[] args) throws Exception {
+        final File dir;
+        if(args.length > 0) {
+            dir = new File(args[0]);
+        } else {
+            RtmpConfig.configureServerIndexer();
+            dir = new File(RtmpConfig.SERVER_HOME_DIR + "/apps");
+        }
+        final int threads = args.length > 1 ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        final List<File> files = new ArrayList<File>();
+        collect(dir, files);
+        logger.info("indexing {} files under {} using {} threads", new Object[] {
+            files.size(), dir.getAbsolutePath(), threads});
+        final long start = System.currentTimeMillis();
+        final AtomicInteger failed = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for(final File file : files) {
+            executor.execute(new Runnable() {
+                @Override public void run() {
+                    try {
+                        index(file);
+                    } catch(Exception e) {
+                        failed.incrementAndGet();
+                        logger.warn("unable to index {}: {}", file, e.getMessage());
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        logger.info("indexed {} files in {} ms, failed: {}", new Object[] {
+            files.size() - failed.get(), System.currentTimeMillis() - start, failed.get()});
+    }
+
+    private static void collect(final File dir, final List<File> files) {
+        final File[] children = dir.listFiles();
+        if(children == null) {
+            logger.warn("not a readable directory: {}", dir);
+            return;
+        }
+        for(final File child : children) {
+            if(child.isDirectory()) {
+                collect(child, files);
+            } else if(isFlv(child) || isF4v(child)) {
+                files.add(child);
+            }
+        }
+    }
+
+    private static boolean isFlv(final File file) {
+        return file.getName().toLowerCase().endsWith(".flv");
+    }
+
+    private static boolean isF4v(final File file) {
+        final String name = file.getName().toLowerCase();
+        for(final String extension : F4V_EXTENSIONS) {
+            if(name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * opening an F4vFile loads or writes its sidecar, an flv one is only
+     * loaded or written when the keyframe index is first asked for
+     */
+    private static void index(final File file) {
+        if(isFlv(file)) {
+            final FlvFile flv = new FlvFile(file);
+            try {
+                flv.getIndex();
+            } finally {
+                flv.release();
+            }
+        } else {
+            new F4vFile(file).release();
+        }
+        logger.debug("indexed: {}", file);
+    }
+
+}
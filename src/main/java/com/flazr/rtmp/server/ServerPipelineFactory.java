@@ -34,7 +34,7 @@ public class ServerPipelineFactory implements ChannelPipelineFactory {
         ChannelPipeline pipeline = Channels.pipeline();        
         pipeline.addLast("handshaker", new ServerHandshakeHandler());
         pipeline.addLast("decoder", new RtmpDecoder());
-        pipeline.addLast("encoder", new RtmpEncoder());
+        pipeline.addLast("encoder", new RtmpEncoder(true));
 //        pipeline.addLast("executor", new ExecutionHandler(
 //                new OrderedMemoryAwareThreadPoolExecutor(16, 1048576, 1048576)));
         pipeline.addLast("handler", new ServerHandler());
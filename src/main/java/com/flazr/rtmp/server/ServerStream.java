@@ -18,12 +18,25 @@
  */
 package com.flazr.rtmp.server;
 
+import com.flazr.io.flv.FlvWriter;
 import com.flazr.rtmp.PublishType;
+import com.flazr.rtmp.RtmpConfig;
+import com.flazr.rtmp.RtmpEncoder;
+import com.flazr.rtmp.RtmpHeader;
 import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.RtmpReader;
 import com.flazr.util.Utils;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.slf4j.Logger;
@@ -35,11 +48,40 @@ public class ServerStream {
     private final PublishType publishType;
     private final ChannelGroup subscribers;
     private final List<RtmpMessage> configMessages;
+    private final ServerApplication application;
+    private final DvrBuffer dvr;
+    private final List<CachedMessage> gopMessages = new ArrayList<CachedMessage>();
+    private long gopBytes;
+    private final Map<Channel, SubscriberQueue> subscriberQueues = new ConcurrentHashMap<Channel, SubscriberQueue>();
+    private final AtomicLong droppedDisposable = new AtomicLong();
+    private final AtomicLong droppedVideo = new AtomicLong();
+    private final AtomicLong disconnected = new AtomicLong();
     private Channel publisher;
 
     private static final Logger logger = LoggerFactory.getLogger(ServerStream.class);
 
-    public ServerStream(final String rawName, final String typeString) {        
+    /**
+     * media of the current group of pictures, header is a private copy
+     * and payload is never read from directly, only duplicated
+     */
+    private static class CachedMessage {
+
+        private final RtmpHeader header;
+        private final ChannelBuffer payload;
+
+        public CachedMessage(final RtmpHeader header, final ChannelBuffer payload) {
+            this.header = new RtmpHeader(header);
+            this.payload = payload.duplicate();
+        }
+
+    }
+
+    public ServerStream(final String rawName, final String typeString) {
+        this(rawName, typeString, null);
+    }
+
+    public ServerStream(final String rawName, final String typeString, final ServerApplication application) {
+        this.application = application;
         this.name = Utils.trimSlashes(rawName).toLowerCase();
         if(typeString != null) {
             this.publishType = PublishType.parse(typeString); // TODO record, append
@@ -50,6 +92,11 @@ public class ServerStream {
             subscribers = null;
             configMessages = null;
         }
+        if(isLive() && application != null && application.getDvrMemory() != null) {
+            dvr = new DvrBuffer(name, application.getDvrMemory(), RtmpConfig.SERVER_DVR_WINDOW);
+        } else {
+            dvr = null;
+        }
         logger.info("Created ServerStream {}", this);
     }
 
@@ -69,6 +116,13 @@ public class ServerStream {
         return name;
     }
 
+    /**
+     * @return the time shift window of this live stream, null if disabled
+     */
+    public DvrBuffer getDvr() {
+        return dvr;
+    }
+
     public List<RtmpMessage> getConfigMessages() {
         return configMessages;
     }
@@ -77,9 +131,166 @@ public class ServerStream {
         configMessages.add(message);
     }
 
-    public void setPublisher(Channel publisher) {
+    /**
+     * writes a media or metadata message to all subscribers, chunking the
+     * payload once per distinct encoder state instead of once per subscriber
+     */
+    public synchronized void broadcast(final RtmpMessage message) {
+        final ChannelBuffer payload = message.encode();
+        final Map<Long, ChannelBuffer> encodedCache = new HashMap<Long, ChannelBuffer>(4);
+        for(final Channel channel : subscribers) {
+            final RtmpEncoder encoder = channel.getPipeline().get(RtmpEncoder.class);
+            if(encoder == null) {
+                logger.warn("no encoder in pipeline, skipping subscriber: {}", channel);
+                continue;
+            }
+            final SubscriberQueue queue = subscriberQueues.get(channel);
+            if(queue == null) {
+                encoder.write(channel, message.getHeader(), payload, encodedCache);
+                continue;
+            }
+            switch(queue.offer(message)) {
+                case SEND:
+                    queue.written(encoder.write(channel, message.getHeader(), payload, encodedCache),
+                            payload.readableBytes());
+                    break;
+                case DROP_DISPOSABLE:
+                    droppedDisposable.incrementAndGet();
+                    break;
+                case DROP_VIDEO:
+                    droppedVideo.incrementAndGet();
+                    break;
+                case DISCONNECT:
+                    logger.warn("subscriber too slow, {} bytes pending, disconnecting: {}",
+                            queue.getPendingBytes(), channel);
+                    subscriberQueues.remove(channel);
+                    disconnected.incrementAndGet();
+                    channel.close();
+                    break;
+            }
+        }
+        if(message.getHeader().isMedia()) {
+            cacheGop(message, payload);
+        }
+        if(dvr != null) {
+            dvr.append(message, payload);
+        }
+    }
+
+    /**
+     * sends the cached group of pictures (if any) and adds the channel to the
+     * subscribers, with no live message slipping in between
+     */
+    public synchronized void subscribe(final Channel channel) {
+        if(application != null && application.getGopCacheLimit() > 0) {
+            final RtmpEncoder encoder = channel.getPipeline().get(RtmpEncoder.class);
+            if(gopMessages.isEmpty() || encoder == null) {
+                application.gopCacheMiss();
+            } else {
+                logger.info("writing cached gop: {} messages, {} bytes", gopMessages.size(), gopBytes);
+                for(final CachedMessage cached : gopMessages) {
+                    encoder.write(channel, cached.header, cached.payload.duplicate(), null);
+                }
+                application.gopCacheHit();
+            }
+        }
+        addSubscriber(channel);
+    }
+
+    /**
+     * for a subscriber that has been playing from the dvr window and caught
+     * up with live, sends what the reader still has and adds the channel to
+     * the subscribers, no gop as the reader already sent it
+     */
+    public synchronized void subscribe(final Channel channel, final RtmpReader catchUp, final int streamId) {
+        while(catchUp.hasNext()) {
+            final RtmpMessage message = catchUp.next();
+            message.getHeader().setStreamId(streamId);
+            Channels.write(channel, message);
+        }
+        addSubscriber(channel);
+    }
+
+    private void addSubscriber(final Channel channel) {
+        subscribers.add(channel);
+        if(RtmpConfig.SERVER_SUBSCRIBER_QUEUE_LIMIT > 0) {
+            subscriberQueues.put(channel, new SubscriberQueue(RtmpConfig.SERVER_SUBSCRIBER_QUEUE_LIMIT));
+            channel.getCloseFuture().addListener(new ChannelFutureListener() {
+                @Override public void operationComplete(final ChannelFuture future) {
+                    subscriberQueues.remove(future.getChannel());
+                }
+            });
+        }
+    }
+
+    /**
+     * stops sending live messages to the channel, say to play from the dvr
+     */
+    public synchronized void unsubscribe(final Channel channel) {
+        subscribers.remove(channel);
+        subscriberQueues.remove(channel);
+    }
+
+    /**
+     * @return count of disposable video frames dropped for slow subscribers
+     */
+    public long getDroppedDisposable() {
+        return droppedDisposable.get();
+    }
+
+    /**
+     * @return count of video frames dropped for slow subscribers waiting for a keyframe
+     */
+    public long getDroppedVideo() {
+        return droppedVideo.get();
+    }
+
+    /**
+     * @return count of subscribers disconnected for being too slow
+     */
+    public long getDisconnected() {
+        return disconnected.get();
+    }
+
+    private void cacheGop(final RtmpMessage message, final ChannelBuffer payload) {
+        if(application == null || application.getGopCacheLimit() <= 0) {
+            return;
+        }
+        final RtmpHeader header = message.getHeader();
+        if(FlvWriter.isKeyframe(message)) { // aggregates too, relays send those
+            clearGop(); // new group of pictures
+        } else if(gopMessages.isEmpty()) {
+            return; // nothing decodable until the next keyframe
+        }
+        final int size = payload.readableBytes();
+        if(!application.reserveGopCache(size)) {
+            logger.debug("gop cache limit reached, dropping gop for: {}", name);
+            clearGop();
+            return;
+        }
+        gopMessages.add(new CachedMessage(header, payload));
+        gopBytes += size;
+    }
+
+    private void clearGop() {
+        if(gopBytes > 0) {
+            application.releaseGopCache(gopBytes);
+        }
+        gopMessages.clear();
+        gopBytes = 0;
+    }
+
+    public synchronized long getGopCacheBytes() {
+        return gopBytes;
+    }
+
+    public synchronized void setPublisher(Channel publisher) {
         this.publisher = publisher;
         configMessages.clear();
+        clearGop();
+        if(dvr != null && publisher != null) { // times of a new publisher start over
+            dvr.clear();
+        }
     }
 
     public Channel getPublisher() {
@@ -94,6 +305,12 @@ public class ServerStream {
         sb.append(" publisher: ").append(publisher);
         sb.append(" subscribers: ").append(subscribers);
         sb.append(" config: ").append(configMessages);
+        sb.append(" gop: ").append(gopMessages.size()).append('/').append(gopBytes);
+        sb.append(" dropped: ").append(droppedDisposable.get()).append('/').append(droppedVideo.get());
+        sb.append(" disconnected: ").append(disconnected.get());
+        if(dvr != null) {
+            sb.append(" dvr: ").append(dvr);
+        }
         sb.append(']');
         return sb.toString();
     }
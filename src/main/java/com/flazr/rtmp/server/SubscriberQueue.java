@@ -0,0 +1,94 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.rtmp.server;
+
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.message.Video;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+
+/**
+ * tracks the bytes written to a live subscriber that the socket has not
+ * taken yet, and decides what to drop when the subscriber falls behind:
+ * first disposable video, then all video until the next keyframe once the
+ * limit is crossed, and the connection itself at twice the limit
+ */
+public class SubscriberQueue {
+
+    public static enum Decision { SEND, DROP_DISPOSABLE, DROP_VIDEO, DISCONNECT }
+
+    private final long limit;
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private boolean waitingForKeyframe;
+
+    public SubscriberQueue(final long limit) {
+        this.limit = limit;
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    public boolean isWaitingForKeyframe() {
+        return waitingForKeyframe;
+    }
+
+    public Decision offer(final RtmpMessage message) {
+        final long pending = pendingBytes.get();
+        if(pending > limit * 2) {
+            return Decision.DISCONNECT;
+        }
+        final RtmpHeader header = message.getHeader();
+        if(!header.isVideo()) {
+            return Decision.SEND;
+        }
+        final Video video = (Video) message;
+        if(video.isConfig()) {
+            return Decision.SEND;
+        }
+        if(waitingForKeyframe) {
+            if(pending > limit || !video.isKeyframe()) {
+                return Decision.DROP_VIDEO;
+            }
+            waitingForKeyframe = false;
+            return Decision.SEND;
+        }
+        if(pending > limit) {
+            waitingForKeyframe = true;
+            return Decision.DROP_VIDEO;
+        }
+        if(pending > limit / 2 && video.isDisposable()) {
+            return Decision.DROP_DISPOSABLE;
+        }
+        return Decision.SEND;
+    }
+
+    public void written(final ChannelFuture future, final int size) {
+        pendingBytes.addAndGet(size);
+        future.addListener(new ChannelFutureListener() {
+            @Override public void operationComplete(final ChannelFuture cf) {
+                pendingBytes.addAndGet(-size);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Flazr <http://flazr.com> Copyright (C) 2009  Peter Thomas.
+ *
+ * This file is part of Flazr.
+ *
+ * Flazr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Flazr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Flazr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.flazr.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * bounded lock free queue for exactly one producer and one consumer thread
+ * at a time, a ring of power of two size where each side only ever writes
+ * its own index, so offer and poll are a couple of ordered stores
+ */
+public class SpscQueue<T> {
+
+    private final AtomicReferenceArray<T> ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next to poll, consumer only
+    private final AtomicLong tail = new AtomicLong(); // next to offer, producer only
+
+    public SpscQueue(final int capacity) {
+        if(capacity < 1 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity has to be a power of two: " + capacity);
+        }
+        ring = new AtomicReferenceArray<T>(capacity);
+        mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * producer side
+     * @return false if full
+     */
+    public boolean offer(final T value) {
+        final long index = tail.get();
+        if(index - head.get() > mask) {
+            return false;
+        }
+        ring.lazySet((int) index & mask, value);
+        tail.lazySet(index + 1); // publishes the value
+        return true;
+    }
+
+    /**
+     * consumer side
+     * @return null if empty
+     */
+    public T poll() {
+        final long index = head.get();
+        if(index == tail.get()) {
+            return null;
+        }
+        final int slot = (int) index & mask;
+        final T value = ring.get(slot);
+        ring.lazySet(slot, null);
+        head.lazySet(index + 1); // hands the slot back to the producer
+        return value;
+    }
+
+    /**
+     * consumer side
+     */
+    public T peek() {
+        final long index = head.get();
+        if(index == tail.get()) {
+            return null;
+        }
+        return ring.get((int) index & mask);
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+}
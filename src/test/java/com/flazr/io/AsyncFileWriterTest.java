@@ -0,0 +1,125 @@
+package com.flazr.io;
+
+import static org.junit.Assert.*;
+
+import com.flazr.io.flv.FlvWriter;
+import com.flazr.rtmp.message.Audio;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.rtmp.message.Video;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class AsyncFileWriterTest {
+
+    private static final String FILE_PATH = "target/temp";
+
+    private static byte[] readFile(final File file) throws Exception {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testBuffersAreWrittenInOrderAcrossBatches() throws Exception {
+        new File(FILE_PATH).mkdirs();
+        final File file = new File(FILE_PATH + "/async.bin");
+        final AsyncFileWriter writer = new AsyncFileWriter(
+                new FileOutputStream(file).getChannel(), file.getName(), 0);
+        final byte[] expected = new byte[3 * AsyncFileWriter.BATCH_SIZE + 123];
+        int position = 0;
+        int size = 1;
+        while(position < expected.length) {
+            final int length = Math.min(size, expected.length - position);
+            final byte[] bytes = new byte[length];
+            for(int i = 0; i < length; i++) {
+                bytes[i] = expected[position + i] = (byte) (position + i);
+            }
+            final ChannelBuffer buffer = ChannelBuffers.wrappedBuffer(
+                    ChannelBuffers.wrappedBuffer(bytes, 0, length / 2),
+                    ChannelBuffers.wrappedBuffer(bytes, length / 2, length - length / 2));
+            while(!writer.offer(buffer)) {
+                Thread.sleep(1); // queue full
+            }
+            position += length;
+            size = size * 7 % 65521 + 1;
+        }
+        writer.close();
+        assertTrue(writer.awaitClose(10, TimeUnit.SECONDS));
+        assertFalse(writer.isFailed());
+        assertFalse(writer.offer(ChannelBuffers.wrappedBuffer(new byte[1])));
+        assertEquals(0, writer.getQueuedBytes());
+        assertEquals(expected.length, writer.getBytesWritten());
+        assertTrue(writer.getSyncCount() > 0);
+        assertTrue(Arrays.equals(expected, readFile(file)));
+    }
+
+    @Test
+    public void testCloseWhileOfferingWritesEverythingAccepted() throws Exception {
+        new File(FILE_PATH).mkdirs();
+        final File file = new File(FILE_PATH + "/async-close.bin");
+        for(int round = 0; round < 2000; round++) {
+            final AsyncFileWriter writer = new AsyncFileWriter(
+                    new FileOutputStream(file).getChannel(), file.getName(), -1);
+            final long[] accepted = new long[1];
+            final Thread producer = new Thread() {
+                @Override public void run() {
+                    for(int i = 0; i < 100; i++) {
+                        if(writer.offer(ChannelBuffers.wrappedBuffer(new byte[100]))) {
+                            accepted[0] += 100;
+                        }
+                        Thread.yield(); // one small write per drain, many drains
+                    }
+                }
+            };
+            producer.start();
+            writer.close();
+            producer.join();
+            assertTrue(writer.awaitClose(10, TimeUnit.SECONDS));
+            assertFalse(writer.isFailed());
+            assertEquals(accepted[0], writer.getBytesWritten());
+            assertEquals(accepted[0], file.length());
+        }
+    }
+
+    private static File record(final String name, final boolean writeBehind) throws Exception {
+        final File file = new File(FILE_PATH + "/" + name);
+        final FlvWriter writer = new FlvWriter(file.getPath());
+        if(writeBehind) {
+            writer.setWriteBehind(Long.MAX_VALUE / 4, -1);
+        }
+        writer.write(new MetadataAmf0("onMetaData"));
+        for(int i = 0; i < 500; i++) {
+            writer.write(new Audio(i * 20, ChannelBuffers.wrappedBuffer(
+                    new byte[] {(byte) 0xAF, 1, (byte) i, 2})));
+            writer.write(new Video(i * 20, ChannelBuffers.wrappedBuffer(
+                    new byte[] {(byte) (i % 25 == 0 ? 0x17 : 0x27), 1, 0, 0, (byte) i})));
+        }
+        writer.close();
+        if(writeBehind) {
+            assertTrue(writer.getWriteBehind().awaitClose(10, TimeUnit.SECONDS));
+            assertEquals(0, writer.getDroppedCount());
+        }
+        return file;
+    }
+
+    @Test
+    public void testWriteBehindGivesTheSameFileAsWritingInline() throws Exception {
+        new File(FILE_PATH).mkdirs();
+        final byte[] inline = readFile(record("inline.flv", false));
+        final byte[] behind = readFile(record("behind.flv", true));
+        assertTrue(inline.length > 10000);
+        assertTrue(Arrays.equals(inline, behind));
+    }
+
+}
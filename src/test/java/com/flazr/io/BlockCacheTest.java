@@ -0,0 +1,71 @@
+package com.flazr.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+public class BlockCacheTest {
+
+    private static File writeFile(final Random random) throws Exception {
+        final File dir = new File("target/temp");
+        dir.mkdirs();
+        final File file = new File(dir, "blocks.bin");
+        final byte[] bytes = new byte[BlockCache.BLOCK_SIZE * 10 + 1234]; // last block partial
+        random.nextBytes(bytes);
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(bytes);
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void testReadsMatchTheFileAndRepeatReadsHit() throws Exception {
+        final Random random = new Random(42);
+        final File file = writeFile(random);
+        final int length = (int) file.length();
+        final BlockCache cache = new BlockCache(BlockCache.BLOCK_SIZE * 4);
+        final BufferReader direct = new FileChannelReader(file);
+        final BufferReader cached = new CachedBufferReader(file, cache);
+        for(int i = 0; i < 500; i++) {
+            final int size = 1 + random.nextInt(BlockCache.BLOCK_SIZE * 2); // spans blocks
+            final long position = random.nextInt(length - size);
+            assertEquals(direct.read(position, size), cached.read(position, size));
+        }
+        assertEquals(direct.read(length - 10, 10), cached.read(length - 10, 10));
+        assertTrue(cache.getEvictions() > 0); // more blocks than slots
+        final long hits = cache.getHits();
+        cached.read(0, 100);
+        cached.read(50, 100);
+        assertEquals(hits + 1, cache.getHits());
+        cached.position(0);
+        assertEquals(direct.read(0, 4).getInt(0), cached.readInt());
+        assertEquals(4, cached.position());
+        assertEquals(0, cache.getBypasses());
+        direct.close();
+        cached.close();
+    }
+
+    @Test
+    public void testReturnedBuffersSurviveEvictionAndGc() throws Exception {
+        final File file = writeFile(new Random(7));
+        final BlockCache cache = new BlockCache(BlockCache.BLOCK_SIZE * 2);
+        final BufferReader direct = new FileChannelReader(file);
+        final BufferReader cached = new CachedBufferReader(file, cache);
+        final long position = BlockCache.BLOCK_SIZE - 50; // across the end of block 0
+        final ChannelBuffer held = cached.read(position, 100); // like a queued message
+        for(int block = 2; block < 10; block++) { // reloads both slots
+            cached.read((long) block * BlockCache.BLOCK_SIZE, 10);
+            System.gc();
+        }
+        assertTrue(cache.getEvictions() >= 2);
+        assertEquals(0, cache.getBypasses()); // nothing left pinned
+        assertEquals(direct.read(position, 100), held);
+        direct.close();
+        cached.close();
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.flazr.io;
+
+import static org.junit.Assert.*;
+
+import com.flazr.io.flv.FlvReader;
+import com.flazr.io.flv.FlvWriter;
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.rtmp.message.Video;
+import java.io.File;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testSizeClassesAreReused() {
+        final BufferPool pool = new BufferPool(1024 * 1024);
+        final ChannelBuffer first = pool.acquire(1000);
+        assertEquals(1000, first.capacity());
+        assertEquals(0, first.readableBytes());
+        assertTrue(first.isDirect());
+        BufferPool.release(first);
+        final ChannelBuffer second = pool.acquire(600); // same 1 KB class
+        assertEquals(600, second.capacity());
+        assertEquals(1, pool.getAllocated());
+        assertEquals(1, pool.getReused());
+        BufferPool.release(second);
+        assertFalse(pool.acquire(BufferPool.MAX_POOLED_SIZE + 1).isDirect());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testDoubleRelease() {
+        final ChannelBuffer buffer = new BufferPool(1024).acquire(10);
+        BufferPool.release(buffer);
+        BufferPool.release(buffer);
+    }
+
+    @Test
+    public void testLeakDetection() {
+        final BufferPool pool = new BufferPool(1024);
+        pool.setLeakDetection(true);
+        final ChannelBuffer buffer = pool.acquire(10);
+        assertEquals(1, pool.getOutstanding());
+        BufferPool.release(buffer);
+        assertEquals(0, pool.getOutstanding());
+    }
+
+    @Test
+    public void testFlvWriteAndAggregateReadReleaseEverything() throws Exception {
+        final BufferPool pool = BufferPool.getInstance();
+        pool.setLeakDetection(true);
+        final File file = File.createTempFile("buffer-pool-test", ".flv");
+        try {
+            final FlvWriter writer = new FlvWriter(file.getAbsolutePath());
+            writer.write(new MetadataAmf0("onMetaData"));
+            for(int i = 0; i < 100; i++) {
+                final Video video = new Video(new byte[] {0x17, 1, 0, 0, 0, (byte) i});
+                video.getHeader().setTime(i * 40);
+                writer.write(video);
+            }
+            writer.close();
+            final FlvReader reader = new FlvReader(file.getAbsolutePath());
+            reader.setAggregateDuration(1000);
+            int count = 0;
+            while(reader.hasNext()) {
+                final RtmpMessage aggregate = reader.next();
+                assertTrue(aggregate.getHeader().isAggregate());
+                count += aggregate.encode().readableBytes() / 21; // 15 overhead + 6 data
+            }
+            reader.close();
+            assertEquals(100, count);
+            assertEquals(0, pool.getOutstanding());
+        } finally {
+            pool.setLeakDetection(false);
+            file.delete();
+        }
+    }
+
+}
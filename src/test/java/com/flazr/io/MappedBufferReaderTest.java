@@ -0,0 +1,77 @@
+package com.flazr.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class MappedBufferReaderTest {
+
+    private static File writeFile(final int size) throws Exception {
+        final File file = File.createTempFile("mapped-reader-test", ".bin");
+        final byte[] bytes = new byte[size];
+        for(int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        final FileOutputStream fos = new FileOutputStream(file);
+        fos.write(bytes);
+        fos.close();
+        return file;
+    }
+
+    @Test
+    public void testReadsAcrossWindowsMatchFileChannelReader() throws Exception {
+        final File file = writeFile(100);
+        try {
+            final BufferReader expected = new FileChannelReader(file);
+            final BufferReader mapped = new MappedBufferReader(file, 16); // 7 windows
+            assertEquals(expected.size(), mapped.size());
+            for(int position = 0; position + 20 <= 100; position += 7) {
+                expected.position(position);
+                mapped.position(position);
+                assertEquals(expected.readInt(), mapped.readInt());
+                assertEquals(expected.readUnsignedInt(), mapped.readUnsignedInt());
+                assertEquals(expected.read(5), mapped.read(5));
+                assertArrayEquals(expected.readBytes(3), mapped.readBytes(3));
+                final ChannelBuffer out = ChannelBuffers.buffer(4);
+                mapped.read(out, 4);
+                assertEquals(expected.read(4), out);
+                assertEquals(expected.position(), mapped.position());
+                assertEquals(expected.read(position, 20), mapped.read(position, 20));
+                assertEquals(expected.position(), mapped.position()); // positional reads leave it alone
+            }
+            expected.close();
+            mapped.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEmptyReadAtEndOfWholeWindows() throws Exception {
+        final File file = writeFile(32);
+        try {
+            final BufferReader mapped = new MappedBufferReader(file, 16); // exactly 2 windows
+            assertEquals(0, mapped.read(mapped.size(), 0).readableBytes());
+            mapped.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected=RuntimeException.class)
+    public void testReadPastEndFails() throws Exception {
+        final File file = writeFile(10);
+        try {
+            final BufferReader mapped = new MappedBufferReader(file);
+            mapped.position(8);
+            mapped.readInt();
+        } finally {
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.flazr.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import org.junit.Test;
+
+public class MediaFileCacheTest {
+
+    private static class TestFile implements MediaFile {
+
+        private final File file;
+        private int references = 1;
+
+        public TestFile(final File file) {
+            this.file = file;
+        }
+
+        @Override public File getFile() {
+            return file;
+        }
+
+        @Override public long getMemorySize() {
+            return 100;
+        }
+
+        @Override public synchronized TestFile retain() {
+            assertTrue(references > 0);
+            references++;
+            return this;
+        }
+
+        @Override public synchronized void release() {
+            references--;
+            assertTrue(references >= 0);
+        }
+
+        public synchronized boolean isClosed() {
+            return references == 0;
+        }
+
+    }
+
+    private static final MediaFileCache.Loader<TestFile> LOADER = new MediaFileCache.Loader<TestFile>() {
+        @Override public TestFile load(final File file) {
+            return new TestFile(file);
+        }
+    };
+
+    private static File writeFile(final String name, final int length) throws Exception {
+        final File dir = new File("target/temp");
+        dir.mkdirs();
+        final File file = new File(dir, name);
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[length]);
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void testSecondAcquireIsHitAndChangedFileIsReloaded() throws Exception {
+        final File file = writeFile("cache-a.bin", 10);
+        final MediaFileCache cache = new MediaFileCache(1000);
+        final TestFile first = cache.acquire(file, LOADER);
+        first.release();
+        final TestFile second = cache.acquire(file, LOADER);
+        second.release();
+        assertSame(first, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        writeFile("cache-a.bin", 20); // size changes even if mtime does not
+        final TestFile third = cache.acquire(file, LOADER);
+        assertNotSame(first, third);
+        assertTrue(first.isClosed());
+        assertEquals(1, cache.getEntryCount());
+        third.release();
+        cache.clear();
+        assertTrue(third.isClosed());
+    }
+
+    @Test
+    public void testEvictionKeepsFilesInUseOpen() throws Exception {
+        final File a = writeFile("cache-a.bin", 10);
+        final File b = writeFile("cache-b.bin", 10);
+        final File c = writeFile("cache-c.bin", 10);
+        final MediaFileCache cache = new MediaFileCache(250);
+        final TestFile inUse = cache.acquire(a, LOADER);
+        cache.acquire(b, LOADER).release();
+        cache.acquire(c, LOADER).release();
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(200, cache.getMemorySize());
+        assertFalse(inUse.isClosed()); // evicted but still being read
+        inUse.release();
+        assertTrue(inUse.isClosed());
+        assertNotSame(inUse, cache.acquire(a, LOADER)); // miss again
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void testOpenFilesAreBoundedByCount() throws Exception {
+        final File a = writeFile("cache-a.bin", 10);
+        final File b = writeFile("cache-b.bin", 10);
+        final File c = writeFile("cache-c.bin", 10);
+        final MediaFileCache cache = new MediaFileCache(1000, 2); // memory alone would keep all three
+        final TestFile first = cache.acquire(a, LOADER);
+        first.release();
+        cache.acquire(b, LOADER).release();
+        cache.acquire(c, LOADER).release();
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getEntryCount());
+        assertTrue(first.isClosed());
+        cache.clear();
+    }
+
+}
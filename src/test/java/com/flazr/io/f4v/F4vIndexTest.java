@@ -0,0 +1,52 @@
+package com.flazr.io.f4v;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import org.junit.Test;
+
+public class F4vIndexTest {
+
+    private static File writeMovie(final int length) throws Exception {
+        final File dir = new File("target/temp");
+        dir.mkdirs();
+        final File file = new File(dir, "index-test.f4v");
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[length]);
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void testSidecarRoundTripAndStaleness() throws Exception {
+        final File movie = writeMovie(1000);
+        final File sidecar = new File(movie.getPath() + F4vIndex.SIDECAR_SUFFIX);
+        final SampleTable samples = new SampleTable(3, new int[] {0, 0, 40},
+                new int[] {500, 20, 300}, new long[] {48, 548, 5000000000L},
+                new int[] {80, 0, 40}, new byte[] {SampleTable.flags(true, true),
+                SampleTable.flags(false, false), SampleTable.flags(false, true)});
+        final byte[] metadata = {2, 0, 10, 'o', 'n', 'M', 'e', 't', 'a', 'D', 'a', 't', 'a'};
+        new F4vIndex(samples, new byte[] {1, 2, 3}, null, metadata).write(sidecar, movie);
+        final F4vIndex index = F4vIndex.read(sidecar, movie);
+        assertNotNull(index);
+        final SampleTable mapped = index.getSamples();
+        assertEquals(3, mapped.size());
+        assertEquals(0, mapped.getMemorySize()); // lives in the page cache
+        for(int i = 0; i < 3; i++) {
+            assertEquals(samples.getTime(i), mapped.getTime(i));
+            assertEquals(samples.getSize(i), mapped.getSize(i));
+            assertEquals(samples.getFileOffset(i), mapped.getFileOffset(i));
+            assertEquals(samples.getCompositionTimeOffset(i), mapped.getCompositionTimeOffset(i));
+            assertEquals(samples.getFlags(i), mapped.getFlags(i));
+        }
+        assertEquals(2, mapped.find(1));
+        assertArrayEquals(new byte[] {1, 2, 3}, index.getVideoDecoderConfig());
+        assertNull(index.getAudioDecoderConfig());
+        assertArrayEquals(metadata, index.getMetadata());
+        writeMovie(1001);
+        assertNull(F4vIndex.read(sidecar, movie));
+        sidecar.delete();
+    }
+
+}
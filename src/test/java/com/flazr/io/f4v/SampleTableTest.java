@@ -0,0 +1,57 @@
+package com.flazr.io.f4v;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class SampleTableTest {
+
+    private static SampleTable table(final boolean video, final int ... times) {
+        final int count = times.length;
+        final int[] sizes = new int[count];
+        final long[] offsets = new long[count];
+        final byte[] flags = new byte[count];
+        for(int i = 0; i < count; i++) {
+            sizes[i] = video ? 1000 + i : 100 + i;
+            offsets[i] = times[i] * 10L + (video ? 0 : 1);
+            flags[i] = SampleTable.flags(video && i == 0, video);
+        }
+        return new SampleTable(count, times, sizes, offsets, video ? new int[count] : null, flags);
+    }
+
+    @Test
+    public void testMergeKeepsTimeOrderAndTrackOrderForTies() {
+        final SampleTable merged = SampleTable.merge(Arrays.asList(
+                table(true, 0, 40, 80, 120), table(false, 0, 23, 46, 69, 92, 116)));
+        assertEquals(10, merged.size());
+        for(int i = 1; i < merged.size(); i++) {
+            assertTrue(merged.getTime(i - 1) <= merged.getTime(i));
+        }
+        assertTrue(merged.isVideo(0)); // tie at 0, video track came first
+        assertTrue(merged.isSyncSample(0));
+        assertFalse(merged.isVideo(1));
+        assertEquals(101, merged.getSize(2)); // audio at 23
+        assertEquals(231, merged.getFileOffset(2));
+        assertEquals(0, merged.getCompositionTimeOffset(2));
+        assertEquals(4, merged.find(46));
+        assertEquals(10, merged.find(200));
+    }
+
+    @Test
+    public void testToMillisMatchesBigDecimalHalfEven() {
+        final long[] timeScales = {1000, 44100, 48000, 90000, 2997, 600};
+        for(final long timeScale : timeScales) {
+            for(long value = -5000; value < 500000; value += 37) {
+                final int expected = new BigDecimal(value * 1000).divide(
+                        new BigDecimal(timeScale), RoundingMode.HALF_EVEN).intValue();
+                assertEquals(expected, SampleTable.toMillis(value, timeScale));
+            }
+        }
+        assertEquals(2, SampleTable.toMillis(5, 2000)); // 2.5 rounds to even
+        assertEquals(4, SampleTable.toMillis(7, 2000)); // 3.5 rounds to even
+    }
+
+}
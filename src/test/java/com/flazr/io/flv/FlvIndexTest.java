@@ -0,0 +1,122 @@
+package com.flazr.io.flv;
+
+import static org.junit.Assert.*;
+
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.message.AbstractMessage;
+import com.flazr.rtmp.message.Audio;
+import com.flazr.rtmp.message.Metadata;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.rtmp.message.Video;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class FlvIndexTest {
+
+    private static final String FILE_PATH = "target/temp";
+    private static final String FILE_NAME = FILE_PATH + "/index-test.flv";
+
+    private File writeFile(final MetadataAmf0 metadata, final int frames) {
+        return writeFile(metadata, frames, false);
+    }
+
+    private File writeFile(final MetadataAmf0 metadata, final int frames, final boolean fastStart) {
+        final File temp = new File(FILE_PATH);
+        if(!temp.exists()) {
+            temp.mkdir();
+        }
+        final File file = new File(FILE_NAME);
+        new File(FILE_NAME + FlvIndex.SIDECAR_SUFFIX).delete();
+        final FlvWriter writer = new FlvWriter(FILE_NAME);
+        writer.setFastStart(fastStart);
+        writer.write(metadata);
+        for(int i = 0; i < frames; i++) {
+            final int time = i * 40;
+            final Video video = new Video(new byte[] {(byte) (i % 25 == 0 ? 0x17 : 0x27), 1, 0, 0, 0});
+            video.getHeader().setTime(time);
+            writer.write(video);
+            final Audio audio = new Audio(new byte[] {(byte) 0xaf, 1, 0});
+            audio.getHeader().setTime(time);
+            writer.write(audio);
+        }
+        writer.close();
+        try {
+            assertTrue(writer.awaitClose(10, TimeUnit.SECONDS)); // fast start runs on a writer thread
+        } catch(InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        return file;
+    }
+
+    private static void assertSeek(final FlvReader reader, final long time, final int expected) {
+        assertEquals(expected, reader.seek(time));
+        final RtmpMessage message = reader.next();
+        assertTrue(message.getHeader().isVideo());
+        assertEquals(expected, message.getHeader().getTime());
+        assertEquals(0x17, message.encode().getByte(0));
+    }
+
+    @Test
+    public void testSeekToKeyframeAndSidecarReuse() {
+        final File file = writeFile(new MetadataAmf0("onMetaData"), 250);
+        FlvReader reader = new FlvReader(FILE_NAME);
+        assertSeek(reader, 2500, 2000);
+        assertSeek(reader, 999, 0);
+        assertSeek(reader, 1000, 1000);
+        assertSeek(reader, 100000, 9000);
+        assertEquals(10, reader.getIndex().size());
+        reader.close();
+        final File sidecar = new File(FILE_NAME + FlvIndex.SIDECAR_SUFFIX);
+        assertTrue(sidecar.exists());
+        assertEquals(10, FlvIndex.read(sidecar, file).size());
+        reader = new FlvReader(FILE_NAME);
+        assertSeek(reader, 5000, 5000);
+        reader.close();
+        writeFile(new MetadataAmf0("onMetaData"), 50); // sidecar now stale
+        new FlvIndex(new int[0], new long[0]).write(sidecar, new File(FILE_NAME + ".other"));
+        assertNull(FlvIndex.read(sidecar, file));
+        reader = new FlvReader(FILE_NAME);
+        assertSeek(reader, 5000, 1000);
+        reader.close();
+    }
+
+    @Test
+    public void testFastStartPutsDurationSizeAndKeyframesInMetadata() {
+        final File file = writeFile(new MetadataAmf0("onMetaData",
+                AbstractMessage.map(AbstractMessage.pair("width", 320.0))), 250, true);
+        final FlvFile flvFile = new FlvFile(file);
+        final Metadata metadata = flvFile.newMetadata();
+        assertEquals(320.0, metadata.getDouble("width"), 0);
+        assertEquals(9.96, metadata.getDouble("duration"), 0);
+        assertEquals(file.length(), metadata.getDouble("filesize").longValue());
+        final FlvIndex scanned = FlvIndex.scan(flvFile.getReader(), flvFile.getMediaStartPosition());
+        final FlvIndex index = FlvIndex.fromMetadata(metadata,
+                flvFile.getReader(), flvFile.getMediaStartPosition());
+        assertNotNull(index);
+        assertEquals(10, index.size());
+        for(int i = 0; i < index.size(); i++) {
+            assertEquals(scanned.getTime(i), index.getTime(i));
+            assertEquals(scanned.getPosition(i), index.getPosition(i));
+        }
+        final FlvReader reader = new FlvReader(flvFile);
+        assertSeek(reader, 2500, 2000);
+        reader.close();
+        flvFile.release();
+        assertFalse(new File(FILE_NAME + FlvIndex.SIDECAR_SUFFIX).exists()); // no scan needed
+    }
+
+    @Test
+    public void testBadMetadataKeyframesAreIgnored() {
+        final MetadataAmf0 metadata = new MetadataAmf0("onMetaData",
+                AbstractMessage.map(AbstractMessage.pair("keyframes", AbstractMessage.map(
+                AbstractMessage.pair("times", new Object[] {0.0, 1.0}),
+                AbstractMessage.pair("filepositions", new Object[] {13.0, 14.0})))));
+        writeFile(metadata, 100);
+        final FlvReader reader = new FlvReader(FILE_NAME);
+        assertSeek(reader, 1500, 1000);
+        assertEquals(4, reader.getIndex().size());
+        reader.close();
+    }
+
+}
@@ -2,6 +2,8 @@ package com.flazr.io.flv;
 
 import static org.junit.Assert.*;
 
+import com.flazr.io.BufferReader;
+import com.flazr.io.BufferReaders;
 import com.flazr.rtmp.RtmpMessage;
 import com.flazr.rtmp.message.Audio;
 import com.flazr.rtmp.message.MessageType;
@@ -9,6 +11,10 @@ import com.flazr.rtmp.message.MetadataAmf0;
 import com.flazr.rtmp.message.Video;
 import com.flazr.util.Utils;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.junit.Test;
 
 public class FlvReaderTest {
@@ -64,4 +70,69 @@ public class FlvReaderTest {
         reader.close();
     }
 
+    @Test
+    public void testAggregatesWrittenBackGiveTheSameFile() throws Exception {
+        writeFile(true);
+        final String copyName = FILE_PATH + "/copy.flv";
+        final FlvReader reader = new FlvReader(FILE_NAME);
+        reader.setAggregateDuration(1000);
+        final FlvWriter writer = new FlvWriter(copyName);
+        writer.write(reader.getMetadata());
+        while(reader.hasNext()) {
+            writer.write(reader.next());
+        }
+        writer.close();
+        reader.close();
+        final BufferReader original = BufferReaders.open(FILE_NAME);
+        final BufferReader copy = BufferReaders.open(copyName);
+        assertEquals(original.size(), copy.size());
+        assertEquals(original.read(0, (int) original.size()), copy.read(0, (int) copy.size()));
+        original.close();
+        copy.close();
+    }
+
+    @Test
+    public void testReadersShareOneOpenFile() throws Exception {
+        writeFile(true);
+        final FlvFile file = new FlvFile(FILE_NAME);
+        final FlvReader first = new FlvReader(file);
+        final List<ChannelBuffer> expected = new ArrayList<ChannelBuffer>();
+        while(first.hasNext()) {
+            expected.add(first.next().encode());
+        }
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[4];
+        for(int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    try {
+                        for(int round = 0; round < 100; round++) {
+                            final FlvReader reader = new FlvReader(file);
+                            for(final ChannelBuffer data : expected) {
+                                assertEquals(data, reader.next().encode());
+                            }
+                            assertFalse(reader.hasNext());
+                            reader.close();
+                        }
+                    } catch(Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for(final Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        first.close();
+        file.release(); // last reference, closes the file
+        try {
+            new FlvReader(file);
+            fail("file should be closed");
+        } catch(IllegalStateException e) {
+            // expected
+        }
+    }
+
 }
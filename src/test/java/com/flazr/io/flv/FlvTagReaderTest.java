@@ -0,0 +1,65 @@
+package com.flazr.io.flv;
+
+import static org.junit.Assert.*;
+
+import com.flazr.io.BufferReader;
+import com.flazr.io.BufferReaders;
+import com.flazr.rtmp.RtmpHeader;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.rtmp.message.Video;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+public class FlvTagReaderTest {
+
+    private static final String FILE_NAME = "target/temp/tags.flv";
+
+    private static final int TAG_COUNT = 200;
+
+    private static void writeFile() {
+        new File("target/temp").mkdirs();
+        final FlvWriter writer = new FlvWriter(FILE_NAME);
+        writer.write(new MetadataAmf0("onMetaData"));
+        for(int i = 0; i < TAG_COUNT; i++) {
+            final byte[] bytes = new byte[i == 100 ? 8000 : 100 + i]; // one larger than the window
+            bytes[0] = (byte) i;
+            final Video video = new Video(bytes);
+            video.getHeader().setTime(i * 40);
+            writer.write(video);
+        }
+        writer.close();
+    }
+
+    @Test
+    public void testReadsForwardsAndBackwardsMatchDirectReads() {
+        writeFile();
+        final FlvFile file = new FlvFile(FILE_NAME);
+        final BufferReader in = BufferReaders.open(FILE_NAME);
+        final FlvTagReader tags = new FlvTagReader(file.getReader(), 4096);
+        final List<Long> positions = new ArrayList<Long>();
+        long position = file.getMediaStartPosition();
+        while(position < in.size()) {
+            positions.add(position);
+            final RtmpHeader expected = FlvAtom.readHeader(in, position);
+            final FlvAtom atom = tags.readAtom(position);
+            assertEquals(expected.getTime(), atom.getHeader().getTime());
+            assertEquals(in.read(position + 11, expected.getSize()), atom.getData());
+            position += atom.getEncodedSize();
+        }
+        assertEquals(TAG_COUNT, positions.size());
+        assertTrue("reads: " + tags.getReadCount(), tags.getReadCount() < 15);
+        for(int i = positions.size() - 1; i >= 0; i--) {
+            position = tags.prevPosition(position);
+            assertEquals(positions.get(i).longValue(), position);
+            final ChannelBuffer data = tags.readAtom(position).getData();
+            assertEquals((byte) i, data.getByte(data.readerIndex()));
+        }
+        assertTrue("reads: " + tags.getReadCount(), tags.getReadCount() < 30);
+        in.close();
+        file.release();
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.flazr.io.flv;
+
+import static org.junit.Assert.*;
+
+import com.flazr.rtmp.RtmpConfig;
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.message.Audio;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.rtmp.message.Video;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class FlvTailReaderTest {
+
+    private static final String FILE_PATH = "target/temp";
+
+    private static void writeFrames(final FlvWriter writer, final int from, final int to, final long sleep) {
+        for(int i = from; i < to; i++) {
+            final int time = i * 40;
+            writer.write(new Video(time, ChannelBuffers.wrappedBuffer(
+                    new byte[] {(byte) (i % 25 == 0 ? 0x17 : 0x27), 1, 0, 0, 0})));
+            writer.write(new Audio(time, ChannelBuffers.wrappedBuffer(new byte[] {(byte) 0xaf, 1, 0})));
+            if(sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch(InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    private static Thread writeLater(final FlvWriter writer, final int from, final int to) {
+        final Thread thread = new Thread() {
+            @Override public void run() {
+                writeFrames(writer, from, to, 1);
+                writer.close();
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * the way RtmpPusher drives it, the reader itself never blocks
+     */
+    private static List<RtmpMessage> readToEnd(final FlvTailReader reader) throws InterruptedException {
+        final List<RtmpMessage> messages = new ArrayList<RtmpMessage>();
+        final Semaphore woken = new Semaphore(0);
+        while(true) {
+            while(reader.hasNext()) {
+                messages.add(reader.next());
+            }
+            final long delay = reader.waitForMore(new Runnable() {
+                @Override public void run() {
+                    woken.release();
+                }
+            });
+            if(delay < 0) {
+                return messages;
+            }
+            woken.tryAcquire(delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testFollowsRecordingNotifiedByWriter() throws Exception {
+        new File(FILE_PATH).mkdirs();
+        final File file = new File(FILE_PATH + "/tail.flv");
+        final FlvWriter writer = new FlvWriter(file.getPath());
+        writer.setWriteBehind(Long.MAX_VALUE / 4, -1);
+        writer.setFollowable(true);
+        writer.write(new MetadataAmf0("onMetaData"));
+        writeFrames(writer, 0, 100, 0);
+        final FlvRecording recording = FlvRecording.get(file);
+        assertNotNull(recording);
+        assertTrue(FlvRecording.isMarked(file));
+        while(recording.getSize() < writer.getSize()) { // write behind still busy
+            recording.await(recording.getSize(), 1000);
+        }
+        final FlvTailReader reader = new FlvTailReader(file);
+        assertEquals("onMetaData", reader.getMetadata().getName());
+        assertEquals(3000, reader.seek(100000)); // live edge
+        assertEquals(2000, reader.seek(2500));
+        assertEquals(0, reader.seek(0));
+        final Thread thread = writeLater(writer, 100, 200);
+        int lastTime = -1;
+        final long start = System.currentTimeMillis();
+        final List<RtmpMessage> messages = readToEnd(reader);
+        for(final RtmpMessage message : messages) {
+            assertTrue(message.getHeader().getTime() >= lastTime);
+            lastTime = message.getHeader().getTime();
+        }
+        assertTrue(System.currentTimeMillis() - start < RtmpConfig.SERVER_TAIL_TIMEOUT); // ended by the writer
+        thread.join();
+        assertEquals(400, messages.size());
+        assertEquals(199 * 40, lastTime);
+        assertNull(FlvRecording.get(file));
+        assertFalse(FlvRecording.isMarked(file));
+        assertEquals(7000, reader.seek(7100));
+        reader.close();
+    }
+
+    @Test
+    public void testFollowsFileByPolling() throws Exception {
+        new File(FILE_PATH).mkdirs();
+        final File file = new File(FILE_PATH + "/tail-polled.flv");
+        final int pollInterval = RtmpConfig.SERVER_TAIL_POLL_INTERVAL;
+        RtmpConfig.SERVER_TAIL_POLL_INTERVAL = 10;
+        try {
+            final File marker = new File(file.getPath() + FlvRecording.MARKER_SUFFIX);
+            assertTrue(marker.createNewFile() || marker.exists()); // as if recorded by another process
+            final FlvWriter writer = new FlvWriter(file.getPath()); // not followable
+            writer.write(new MetadataAmf0("onMetaData"));
+            writeFrames(writer, 0, 50, 0);
+            assertNull(FlvRecording.get(file));
+            assertTrue(FlvRecording.isMarked(file));
+            final FlvTailReader reader = new FlvTailReader(file);
+            assertEquals(1000, reader.seek(1500));
+            final Thread thread = new Thread() {
+                @Override public void run() {
+                    writeFrames(writer, 50, 150, 1);
+                    writer.close();
+                    marker.delete();
+                }
+            };
+            thread.start();
+            final long start = System.currentTimeMillis();
+            final int count = readToEnd(reader).size();
+            thread.join();
+            assertEquals(2 * (150 - 25), count);
+            assertTrue(System.currentTimeMillis() - start < RtmpConfig.SERVER_TAIL_TIMEOUT); // ended by the marker
+            assertEquals(5000, reader.seek(5500));
+            reader.close();
+        } finally {
+            RtmpConfig.SERVER_TAIL_POLL_INTERVAL = pollInterval;
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.flazr.io.flv;
+
+import static org.junit.Assert.*;
+
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.RtmpReader;
+import com.flazr.rtmp.message.Audio;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.rtmp.message.Video;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class SegmentedFlvReaderTest {
+
+    private static final String FILE_PATH = "target/temp/segments-play";
+
+    private static final SegmentedFlvReader.Opener OPENER = new SegmentedFlvReader.Opener() {
+        @Override public RtmpReader open(final File file) {
+            final FlvFile flvFile = new FlvFile(file.getPath());
+            try {
+                return new FlvReader(flvFile);
+            } finally {
+                flvFile.release();
+            }
+        }
+    };
+
+    @Test
+    public void testPlaysAndSeeksAcrossSegments() throws Exception {
+        new File(FILE_PATH).mkdirs();
+        final SegmentedFlvWriter writer = new SegmentedFlvWriter(FILE_PATH + "/live", 10000, 0);
+        writer.write(new MetadataAmf0("onMetaData"));
+        writer.write(new Video(0, ChannelBuffers.wrappedBuffer(new byte[] {0x17, 0, 0, 0, 1})));
+        writer.write(new Audio(0, ChannelBuffers.wrappedBuffer(new byte[] {(byte) 0xaf, 0, 0x13, 0x10})));
+        for(int i = 0; i < 625; i++) {
+            final int time = i * 40;
+            writer.write(new Video(time, ChannelBuffers.wrappedBuffer(
+                    new byte[] {(byte) (i % 30 == 0 ? 0x17 : 0x27), 1, 0, 0, 0})));
+            writer.write(new Audio(time, ChannelBuffers.wrappedBuffer(new byte[] {(byte) 0xaf, 1, 0})));
+        }
+        writer.close();
+        assertTrue(writer.awaitClose(10, TimeUnit.SECONDS));
+        final SegmentedFlvReader reader = new SegmentedFlvReader(
+                new File(FILE_PATH + "/live" + SegmentManifest.SUFFIX), OPENER);
+        assertEquals(24.96, reader.getMetadata().getDouble("duration"), 0); // whole recording
+        int count = 0;
+        int lastTime = 0;
+        while(reader.hasNext()) {
+            final int time = reader.next().getHeader().getTime();
+            assertTrue(time >= lastTime);
+            lastTime = time;
+            count++;
+        }
+        assertEquals(2 + 625 * 2 + 2 * 2, count); // config again at the start of segments 1 and 2
+        assertEquals(24960, lastTime);
+        assertEquals(2, reader.getSegmentIndex());
+        assertEquals(-1, reader.waitForMore(null));
+        assertEquals(14400, reader.seek(15000)); // keyframe in segment 1
+        assertEquals(1, reader.getSegmentIndex());
+        final RtmpMessage keyframe = reader.next();
+        assertEquals(14400, keyframe.getHeader().getTime());
+        assertEquals(0x17010000, keyframe.encode().getInt(0));
+        assertEquals(1200, reader.seek(1500));
+        assertEquals(0, reader.getSegmentIndex());
+        reader.close();
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.flazr.io.flv;
+
+import static org.junit.Assert.*;
+
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.message.Audio;
+import com.flazr.rtmp.message.Metadata;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.rtmp.message.Video;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class SegmentedFlvWriterTest {
+
+    private static final String FILE_PATH = "target/temp/segments";
+
+    @Test
+    public void testRollsAtKeyframesWithConfigInEverySegment() throws Exception {
+        new File(FILE_PATH).mkdirs();
+        final SegmentedFlvWriter writer = new SegmentedFlvWriter(FILE_PATH + "/live", 10000, 0);
+        writer.setFastStart(true);
+        writer.write(new MetadataAmf0("onMetaData"));
+        writer.write(new Video(0, ChannelBuffers.wrappedBuffer(new byte[] {0x17, 0, 0, 0, 1})));
+        writer.write(new Audio(0, ChannelBuffers.wrappedBuffer(new byte[] {(byte) 0xaf, 0, 0x13, 0x10})));
+        for(int i = 0; i < 625; i++) {
+            final int time = i * 40;
+            writer.write(new Video(time, ChannelBuffers.wrappedBuffer(
+                    new byte[] {(byte) (i % 30 == 0 ? 0x17 : 0x27), 1, 0, 0, 0})));
+            writer.write(new Audio(time, ChannelBuffers.wrappedBuffer(new byte[] {(byte) 0xaf, 1, 0})));
+        }
+        writer.close();
+        assertTrue(writer.awaitClose(10, TimeUnit.SECONDS));
+        writer.write(new Audio(25000, ChannelBuffers.wrappedBuffer(new byte[] {(byte) 0xaf, 1, 0})));
+        final SegmentManifest manifest = SegmentManifest.read(new File(FILE_PATH + "/live" + SegmentManifest.SUFFIX));
+        assertEquals(3, manifest.size()); // keyframes every 1.2 seconds, due at 10 and 20
+        assertEquals(0, manifest.get(0).getStartTime());
+        assertEquals(10800, manifest.get(1).getStartTime());
+        assertEquals(21600, manifest.get(2).getStartTime());
+        assertEquals(10800, manifest.get(0).getDuration());
+        assertEquals(24960 - 21600, manifest.get(2).getDuration());
+        assertEquals("live-00001.flv", manifest.get(1).getFileName());
+        assertEquals(1, manifest.find(15000));
+        assertEquals(0, manifest.find(-1));
+        final FlvFile file = new FlvFile(FILE_PATH + "/" + manifest.get(1).getFileName());
+        final Metadata metadata = file.newMetadata();
+        assertEquals(10.76, metadata.getDouble("duration"), 0);
+        final FlvReader reader = new FlvReader(file);
+        final RtmpMessage videoConfig = reader.next();
+        assertEquals(0, videoConfig.getHeader().getTime());
+        assertEquals(0x17000000, videoConfig.encode().getInt(0));
+        final RtmpMessage audioConfig = reader.next();
+        assertEquals(0xaf001310, audioConfig.encode().getInt(0));
+        final RtmpMessage keyframe = reader.next();
+        assertEquals(0, keyframe.getHeader().getTime());
+        assertEquals(0x17010000, keyframe.encode().getInt(0));
+        assertEquals(1200, reader.seek(1500));
+        reader.close();
+        file.release();
+    }
+
+}
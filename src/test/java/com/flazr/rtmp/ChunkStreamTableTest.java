@@ -0,0 +1,28 @@
+package com.flazr.rtmp;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ChunkStreamTableTest {
+
+    @Test
+    public void testPutGetAcrossDirectAndMapped() {
+        final ChunkStreamTable<Integer> table = new ChunkStreamTable<Integer>();
+        for(int id = 2; id < RtmpHeader.MAX_CHANNEL_ID; id += 97) {
+            table.put(id, id * 2);
+        }
+        for(int id = 2; id < RtmpHeader.MAX_CHANNEL_ID; id += 97) {
+            assertEquals(Integer.valueOf(id * 2), table.get(id));
+        }
+        assertNull(table.get(3));
+        assertNull(table.get(65599));
+        table.put(65599, 1);
+        table.put(65599, 2);
+        assertEquals(Integer.valueOf(2), table.get(65599));
+        table.clear();
+        assertNull(table.get(2));
+        assertNull(table.get(65599));
+    }
+
+}
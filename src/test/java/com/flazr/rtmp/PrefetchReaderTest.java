@@ -0,0 +1,98 @@
+package com.flazr.rtmp;
+
+import static org.junit.Assert.*;
+
+import com.flazr.rtmp.message.Metadata;
+import com.flazr.rtmp.message.MetadataAmf0;
+import com.flazr.rtmp.message.Video;
+import org.junit.Test;
+
+public class PrefetchReaderTest {
+
+    private static class CountingReader implements RtmpReader {
+
+        private final int count;
+        private int cursor;
+        private volatile Thread lastReadThread;
+        private boolean closed;
+
+        public CountingReader(final int count) {
+            this.count = count;
+        }
+
+        @Override public Metadata getMetadata() {
+            return new MetadataAmf0("onMetaData");
+        }
+
+        @Override public RtmpMessage[] getStartMessages() {
+            return new RtmpMessage[] { getMetadata() };
+        }
+
+        @Override public void setAggregateDuration(int targetDuration) {
+        }
+
+        @Override public long getTimePosition() {
+            return cursor * 40;
+        }
+
+        @Override public long seek(long timePosition) {
+            cursor = (int) (timePosition / 40);
+            return cursor * 40;
+        }
+
+        @Override public void close() {
+            closed = true;
+        }
+
+        @Override public boolean hasNext() {
+            return cursor < count;
+        }
+
+        @Override public RtmpMessage next() {
+            lastReadThread = Thread.currentThread();
+            final Video video = new Video(new byte[] {(byte) cursor});
+            video.getHeader().setTime(cursor++ * 40);
+            return video;
+        }
+
+    }
+
+    private static void awaitDepth(final PrefetchReader reader, final long depth) throws Exception {
+        for(int i = 0; i < 500 && reader.getPrefetchDepth() < depth; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testMessagesComeInOrderFromThePrefetchThread() throws Exception {
+        final CountingReader counting = new CountingReader(1000);
+        final PrefetchReader reader = new PrefetchReader(counting, 400);
+        awaitDepth(reader, 400);
+        assertTrue(reader.getPrefetchDepth() >= 400);
+        assertTrue(reader.getQueueSize() <= 12); // stays within the prefetch time
+        assertNotSame(Thread.currentThread(), counting.lastReadThread);
+        int expected = 0;
+        while(reader.hasNext()) {
+            assertEquals(expected++ * 40, reader.next().getHeader().getTime());
+        }
+        assertEquals(1000, expected);
+        reader.close();
+        assertTrue(counting.closed);
+    }
+
+    @Test
+    public void testSeekDropsWhatWasPrefetched() throws Exception {
+        final PrefetchReader reader = new PrefetchReader(new CountingReader(1000), 400);
+        awaitDepth(reader, 400);
+        assertEquals(0, reader.next().getHeader().getTime());
+        assertEquals(20000, reader.seek(20000));
+        assertEquals(20000, reader.getTimePosition());
+        assertEquals(20000, reader.next().getHeader().getTime());
+        assertEquals(20040, reader.next().getHeader().getTime());
+        assertEquals(39960, reader.seek(39960));
+        assertEquals(39960, reader.next().getHeader().getTime());
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.flazr.rtmp;
+
+import static org.junit.Assert.*;
+
+import com.flazr.rtmp.message.ChunkSize;
+import com.flazr.rtmp.message.Video;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.junit.Test;
+
+public class RtmpDecoderTest {
+
+    private static byte[] bytes(int size) {
+        final byte[] bytes = new byte[size];
+        for(int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    private static Video video(int time, byte[] data) {
+        final Video video = new Video(data);
+        video.getHeader().setTime(time);
+        video.getHeader().setStreamId(1);
+        return video;
+    }
+
+    private static void offerInPieces(DecoderEmbedder<RtmpMessage> embedder, ChannelBuffer in, int pieceSize) {
+        while(in.readable()) {
+            final int size = Math.min(pieceSize, in.readableBytes());
+            embedder.offer(in.readBytes(size)); // fresh buffer per read, like the socket
+        }
+    }
+
+    @Test
+    public void testMultiChunkMessageSplitAcrossReads() {
+        final RtmpEncoder encoder = new RtmpEncoder();
+        final byte[] data = bytes(1000);
+        final ChannelBuffer in = ChannelBuffers.wrappedBuffer(
+                encoder.encode(video(10, data)), encoder.encode(video(50, data)));
+        final DecoderEmbedder<RtmpMessage> embedder = new DecoderEmbedder<RtmpMessage>(new RtmpDecoder());
+        offerInPieces(embedder, in, 7);
+        final RtmpMessage first = embedder.poll();
+        final RtmpMessage second = embedder.poll();
+        assertNull(embedder.poll());
+        assertEquals(ChannelBuffers.wrappedBuffer(data), first.encode());
+        assertEquals(ChannelBuffers.wrappedBuffer(data), second.encode());
+        assertEquals(10, first.getHeader().getTime());
+        assertEquals(50, second.getHeader().getTime());
+    }
+
+    @Test
+    public void testGatheringEncoderWritesSameBytes() {
+        final byte[] data = bytes(1000);
+        final ChannelBuffer copied = new RtmpEncoder().encode(video(10, data));
+        final ChannelBuffer gathered = new RtmpEncoder(true).encode(video(10, data));
+        assertEquals(copied, gathered);
+        final DecoderEmbedder<RtmpMessage> embedder = new DecoderEmbedder<RtmpMessage>(new RtmpDecoder());
+        offerInPieces(embedder, gathered, 100);
+        assertEquals(ChannelBuffers.wrappedBuffer(data), embedder.poll().encode());
+    }
+
+    @Test
+    public void testChunkSizeChange() {
+        final RtmpEncoder encoder = new RtmpEncoder();
+        final byte[] data = bytes(10000);
+        final ChannelBuffer in = ChannelBuffers.wrappedBuffer(
+                encoder.encode(new ChunkSize(4096)), encoder.encode(video(10, data)));
+        final DecoderEmbedder<RtmpMessage> embedder = new DecoderEmbedder<RtmpMessage>(new RtmpDecoder());
+        offerInPieces(embedder, in, 1500);
+        assertEquals(4096, ((ChunkSize) embedder.poll()).getChunkSize());
+        assertEquals(ChannelBuffers.wrappedBuffer(data), embedder.poll().encode());
+        assertNull(embedder.poll());
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.flazr.rtmp;
+
+import static org.junit.Assert.*;
+
+import com.flazr.rtmp.message.Video;
+import java.util.Arrays;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+
+public class RtmpEncoderTest {
+
+    private static final int COUNT = 5000;
+
+    private static Video video(int size, byte fill) {
+        final byte[] data = new byte[size];
+        Arrays.fill(data, fill);
+        final Video video = new Video(data);
+        video.getHeader().setTime(1); // zero deltas, header type only depends on the size
+        video.getHeader().setStreamId(1);
+        return video;
+    }
+
+    @Test
+    public void testBroadcastAndPipelineWritesKeepWireOrder() throws Exception {
+        final RtmpEncoder encoder = new RtmpEncoder(true);
+        final EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(encoder);
+        final Channel channel = embedder.getPipeline().getChannel();
+        final Thread publisher = new Thread() { // like ServerStream.broadcast()
+            @Override public void run() {
+                for(int i = 0; i < COUNT; i++) {
+                    final Video video = video(20, (byte) 0x22);
+                    encoder.write(channel, video.getHeader(), video.encode(), null);
+                }
+            }
+        };
+        publisher.start();
+        for(int i = 0; i < COUNT; i++) {
+            embedder.offer(video(10, (byte) 0x11));
+        }
+        publisher.join();
+        final DecoderEmbedder<RtmpMessage> decoder = new DecoderEmbedder<RtmpMessage>(new RtmpDecoder());
+        ChannelBuffer out;
+        while((out = embedder.poll()) != null) {
+            decoder.offer(out);
+        }
+        int small = 0;
+        int large = 0;
+        RtmpMessage message;
+        while((message = decoder.poll()) != null) {
+            final ChannelBuffer in = message.encode();
+            final byte fill = in.readableBytes() == 10 ? (byte) 0x11 : (byte) 0x22;
+            if(fill == 0x11) {
+                small++;
+            } else {
+                large++;
+            }
+            assertEquals(ChannelBuffers.wrappedBuffer(video(in.readableBytes(), fill).encode()), in);
+        }
+        assertEquals(COUNT, small);
+        assertEquals(COUNT, large);
+    }
+
+}
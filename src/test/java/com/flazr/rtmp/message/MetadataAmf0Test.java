@@ -0,0 +1,40 @@
+package com.flazr.rtmp.message;
+
+import static org.junit.Assert.*;
+
+import com.flazr.rtmp.RtmpHeader;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+
+public class MetadataAmf0Test {
+
+    private static MetadataAmf0 received(Metadata sent) {
+        final RtmpHeader header = new RtmpHeader(MessageType.METADATA_AMF0);
+        return new MetadataAmf0(header, sent.encode());
+    }
+
+    @Test
+    public void testUnchangedPayloadIsPassedThrough() {
+        final Metadata sent = new MetadataAmf0("onMetaData",
+                AbstractMessage.map(AbstractMessage.pair("duration", 10.0)));
+        final MetadataAmf0 meta = received(sent);
+        final ChannelBuffer raw = meta.encode();
+        assertEquals("onMetaData", meta.getName());
+        assertEquals(10.0, meta.getDuration(), 0);
+        assertEquals(sent.encode(), meta.encode());
+        assertEquals(0, meta.encode().readerIndex());
+        assertSame(raw.array(), meta.encode().array()); // no re-encoding
+    }
+
+    @Test
+    public void testChangedPayloadIsReEncoded() {
+        final Metadata sent = new MetadataAmf0("onMetaData",
+                AbstractMessage.map(AbstractMessage.pair("duration", 10.0)));
+        final MetadataAmf0 meta = received(sent);
+        meta.setDuration(-1);
+        final MetadataAmf0 relayed = received(meta);
+        assertEquals("onMetaData", relayed.getName());
+        assertEquals(-1, relayed.getDuration(), 0);
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.flazr.rtmp.server;
+
+import static org.junit.Assert.*;
+
+import com.flazr.rtmp.RtmpMessage;
+import com.flazr.rtmp.message.Video;
+import java.util.ArrayList;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+public class DvrBufferTest {
+
+    private static final int FRAME_SIZE = 10000; // 26 frames to a block
+
+    /**
+     * 25 frames per second, a keyframe every second, frame number in the payload
+     */
+    private static void append(final DvrBuffer buffer, final int from, final int to) {
+        for(int i = from; i < to; i++) {
+            final ChannelBuffer in = ChannelBuffers.buffer(FRAME_SIZE);
+            in.writeByte(i % 25 == 0 ? 0x17 : 0x27);
+            in.writeByte(1);
+            in.writeShort(0);
+            in.writeInt(i);
+            in.writerIndex(FRAME_SIZE);
+            final Video video = new Video(i * 40, in);
+            buffer.append(video, video.encode());
+        }
+    }
+
+    private static int frame(final RtmpMessage message) {
+        return message.encode().getInt(4);
+    }
+
+    @Test
+    public void testSeekAndReadAcrossBlocks() {
+        final DvrBuffer buffer = new DvrBuffer("test", new DvrMemory(64 * DvrBuffer.BLOCK_SIZE), 60000);
+        append(buffer, 0, 100);
+        assertEquals(4, buffer.getBlockCount());
+        assertEquals(4, buffer.getKeyframeCount());
+        assertEquals(0, buffer.getStartTime());
+        assertEquals(3960, buffer.getEndTime());
+        final DvrReader reader = new DvrReader(buffer, new ArrayList<RtmpMessage>());
+        assertEquals(2000, reader.seek(2500));
+        int expected = 50;
+        while(reader.hasNext()) {
+            final RtmpMessage message = reader.next();
+            assertEquals(expected, frame(message));
+            assertEquals(expected * 40, message.getHeader().getTime());
+            expected++;
+        }
+        assertEquals(100, expected);
+        append(buffer, 100, 101); // caught up, then more arrives
+        assertTrue(reader.hasNext());
+        assertEquals(100, frame(reader.next()));
+        assertEquals(0, reader.seek(-1)); // before the window
+    }
+
+    @Test
+    public void testTimeWindowEvictsAndReaderSkipsAhead() {
+        final DvrMemory memory = new DvrMemory(64 * DvrBuffer.BLOCK_SIZE);
+        final DvrBuffer buffer = new DvrBuffer("test", memory, 5000);
+        append(buffer, 0, 10);
+        final DvrReader reader = new DvrReader(buffer, new ArrayList<RtmpMessage>());
+        assertEquals(0, frame(reader.next()));
+        append(buffer, 10, 300);
+        final int startTime = buffer.getStartTime();
+        assertEquals(7000, startTime); // first keyframe of the first block ending inside the window
+        assertEquals(buffer.getBlockCount() * (long) DvrBuffer.BLOCK_SIZE, memory.getUsed());
+        final RtmpMessage message = reader.next(); // its position is gone
+        assertEquals(startTime, message.getHeader().getTime());
+        assertTrue(((Video) message).isKeyframe());
+        buffer.clear();
+        assertEquals(0, memory.getUsed());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testBudgetEvictsOldestAcrossStreams() {
+        final DvrMemory memory = new DvrMemory(4 * DvrBuffer.BLOCK_SIZE);
+        final DvrBuffer first = new DvrBuffer("first", memory, 60000);
+        final DvrBuffer second = new DvrBuffer("second", memory, 60000);
+        append(first, 0, 52);
+        assertEquals(2, first.getBlockCount());
+        append(second, 0, 104);
+        assertEquals(0, first.getBlockCount());
+        assertEquals(-1, first.getStartTime());
+        assertEquals(4, second.getBlockCount());
+        assertEquals(0, second.getStartTime());
+        assertEquals(2, memory.getEvictions());
+        append(second, 104, 105); // now evicts its own oldest block
+        assertEquals(4, second.getBlockCount());
+        assertEquals(2000, second.getStartTime());
+        assertEquals(4 * (long) DvrBuffer.BLOCK_SIZE, memory.getUsed());
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.flazr.rtmp.server;
+
+import static org.junit.Assert.*;
+
+import com.flazr.rtmp.message.Audio;
+import com.flazr.rtmp.message.Video;
+import com.flazr.util.Utils;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.junit.Test;
+
+public class SubscriberQueueTest {
+
+    private static final Video KEYFRAME = new Video(Utils.fromHex("1701000000000000026588"));
+    private static final Video REFERENCE = new Video(Utils.fromHex("2701000000000000024188"));
+    private static final Video DISPOSABLE = new Video(Utils.fromHex("2701000000000000020188"));
+    private static final Audio AUDIO = new Audio(Utils.fromHex("af0100"));
+
+    @Test
+    public void testDisposableDetection() {
+        assertTrue(DISPOSABLE.isDisposable());
+        assertFalse(REFERENCE.isDisposable());
+        assertFalse(KEYFRAME.isDisposable());
+        final Video bogusNalSize = new Video(Utils.fromHex("27010000007ffffffd06000000020188"));
+        assertFalse(bogusNalSize.isDisposable()); // index would overflow past the frame
+    }
+
+    @Test
+    public void testDropOrder() {
+        final SubscriberQueue queue = new SubscriberQueue(100);
+        final ChannelFuture pending = new DefaultChannelFuture(null, false);
+        queue.written(pending, 60);
+        assertEquals(SubscriberQueue.Decision.DROP_DISPOSABLE, queue.offer(DISPOSABLE));
+        assertEquals(SubscriberQueue.Decision.SEND, queue.offer(REFERENCE));
+        queue.written(new DefaultChannelFuture(null, false), 60);
+        assertEquals(SubscriberQueue.Decision.DROP_VIDEO, queue.offer(REFERENCE));
+        assertEquals(SubscriberQueue.Decision.SEND, queue.offer(AUDIO));
+        pending.setSuccess();
+        assertEquals(SubscriberQueue.Decision.DROP_VIDEO, queue.offer(REFERENCE));
+        assertEquals(SubscriberQueue.Decision.SEND, queue.offer(KEYFRAME));
+        assertFalse(queue.isWaitingForKeyframe());
+        queue.written(new DefaultChannelFuture(null, false), 200);
+        assertEquals(SubscriberQueue.Decision.DISCONNECT, queue.offer(AUDIO));
+    }
+
+}